@@ -0,0 +1,249 @@
+package chatDB;
+
+import java.nio.ByteBuffer;
+import websockets.WebSocketData;
+
+/**
+ * Class to define the compact binary encoding of the commands sent to and from
+ * this server. It carries the same keys and values as the text data strings
+ * laid out by <code>DataSerializer</code>, but as a run of tag, length and value
+ * entries instead of delimited key-value pairs.
+ * <ul>
+ *      <li>Tag, one byte naming the key, see the tag constants</li>
+ *      <li>Length, the amount of bytes in the value as an unsigned varint,
+ *          seven bits to a byte, low bits first, the top bit of each byte set
+ *          if another byte follows</li>
+ *      <li>Value, the UTF-8 bytes of the value</li>
+ * </ul>
+ *
+ * The value of CMD is the name of the command, the same as in the text format,
+ * since commands registered with the <code>CommandRegistry</code> aren't given
+ * their opcodes until the server runs. Values are never escaped, so unlike the
+ * text format a message may hold any bytes, delimiters included.
+ * <br><br>
+ * Clients ask for the binary encoding by offering {@link #NAME NAME} in the
+ * {@code Sec-WebSocket-Protocol} header of their handshake, and send and are
+ * sent binary (opcode 2) frames from then on. Clients that don't keep using
+ * the text format in text frames.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public final class BinaryProtocol
+{
+    // The name the encoding is negotiated by during the handshake
+    public static final String NAME = "chatdb.tlv";
+
+    // Tags of the keys defined by the DataSerializer
+    public static final int CMD       = 1;
+    public static final int UNAME     = 2;
+    public static final int PSSWRD    = 3;
+    public static final int FNAME     = 4;
+    public static final int LNAME     = 5;
+    public static final int ERR_MSG   = 6;
+    public static final int ERRORED   = 7;
+    public static final int CHAT_NAME = 8;
+    public static final int MSG       = 9;
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The keys, indexed by tag, tag 0 is unused
+    private static final String[] KEYS =
+    {
+        null, DataSerializer.CMD, DataSerializer.UNAME, DataSerializer.PSSWRD,
+        DataSerializer.FNAME, DataSerializer.LNAME, DataSerializer.ERR_MSG,
+        DataSerializer.ERRORED, DataSerializer.CHAT_NAME, DataSerializer.MSG
+    };
+/*----------------------------------------------------------------------------*/
+
+    // Not to be instantiated
+    private BinaryProtocol()
+    {
+    }
+
+    /**
+     * Method to get the tag of a key.
+     *
+     * @param key The key as named in the <code>DataSerializer</code>
+     *
+     * @return The tag of the key or -1 if the key has no tag
+     */
+    public static int tagOf(String key)
+    {
+        for (int tag = 1; tag < KEYS.length; tag++)
+        {
+            if (KEYS[tag].equals(key))
+            {
+                return tag;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Method to get the key a tag stands for.
+     *
+     * @param tag The tag
+     *
+     * @return The key as named in the <code>DataSerializer</code>, or null if
+     *         the tag isn't known
+     */
+    public static String keyOf(int tag)
+    {
+        return tag > 0 && tag < KEYS.length ? KEYS[tag] : null;
+    }
+
+    /**
+     * Method to find out whether a connection agreed to the binary encoding
+     * during its handshake.
+     *
+     * @param attachment The attachment of the connection's key
+     *
+     * @return true if the connection is sent binary frames
+     */
+    public static boolean isBinary(Object attachment)
+    {
+        return attachment instanceof WebSocketData
+            && NAME.equals(((WebSocketData) attachment).getProtocol());
+    }
+
+    /**
+     * Method to encode the entries of a command in the binary encoding. Entries
+     * whose key has no tag are left out.
+     *
+     * @param vars The command, in either encoding
+     *
+     * @return The binary encoding of the command
+     */
+    public static byte[] encode(CommandView vars)
+    {
+        // Local Variable Declaration
+        int[] tags = new int[vars.size()];
+        int size = 0, pos = 0;
+        byte[] encoded;
+
+        // Look up each entry's tag and add up the size of the encoding
+        for (int i = 0; i < tags.length; i++)
+        {
+            tags[i] = tagFor(vars, i);
+
+            if (tags[i] != -1)
+            {
+                size += 1 + varintSize(vars.valueLength(i)) + vars.valueLength(i);
+            }
+        }
+
+        encoded = new byte[size];
+
+        for (int i = 0; i < tags.length; i++)
+        {
+            if (tags[i] != -1)
+            {
+                pos = putEntry(encoded, pos, tags[i], vars.getData(),
+                               vars.valueOffset(i), vars.valueLength(i));
+            }
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Method to encode a single entry in the binary encoding.
+     *
+     * @param tag The tag of the entry's key
+     * @param value The bytes of the value
+     *
+     * @return The binary encoding of the entry
+     */
+    public static byte[] encode(int tag, byte[] value)
+    {
+        // Local Variable Declaration
+        byte[] encoded = new byte[1 + varintSize(value.length) + value.length];
+
+        putEntry(encoded, 0, tag, ByteBuffer.wrap(value), 0, value.length);
+
+        return encoded;
+    }
+
+    /**
+     * Method to encode just the tag and length of an entry, so that the value
+     * can be sent right behind it from a buffer of its own without being 
+     * copied.
+     *
+     * @param tag The tag of the entry's key
+     * @param length The amount of bytes in the value
+     *
+     * @return A buffer holding the tag and length
+     */
+    public static ByteBuffer prefix(int tag, int length)
+    {
+        // Local Variable Declaration
+        byte[] encoded = new byte[1 + varintSize(length)];
+
+        putPrefix(encoded, 0, tag, length);
+
+        return ByteBuffer.wrap(encoded);
+    }
+
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    // Method to find the tag of the key of an entry, -1 if it has none
+    private static int tagFor(CommandView vars, int entry)
+    {
+        for (int tag = 1; tag < KEYS.length; tag++)
+        {
+            if (vars.keyEquals(entry, KEYS[tag]))
+            {
+                return tag;
+            }
+        }
+
+        return -1;
+    }
+
+    /* Method to write an entry into the array at pos, returning the position
+     * just past it */
+    private static int putEntry(byte[] out, int pos, int tag, ByteBuffer src,
+                                int offset, int length)
+    {
+        pos = putPrefix(out, pos, tag, length);
+
+        for (int i = 0; i < length; i++)
+        {
+            out[pos++] = src.get(offset + i);
+        }
+
+        return pos;
+    }
+
+    /* Method to write the tag and length of an entry into the array at pos,
+     * returning the position just past them */
+    private static int putPrefix(byte[] out, int pos, int tag, int length)
+    {
+        out[pos++] = (byte) tag;
+
+        // Write the length seven bits at a time, low bits first
+        while (length > 0x7F)
+        {
+            out[pos++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+
+        out[pos++] = (byte) length;
+
+        return pos;
+    }
+
+    // Method to find the amount of bytes a length takes as a varint
+    private static int varintSize(int length)
+    {
+        // Local Variable Declaration
+        int size = 1;
+
+        while ((length >>>= 7) != 0)
+        {
+            size++;
+        }
+
+        return size;
+    }
+}
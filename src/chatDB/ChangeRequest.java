@@ -1,7 +1,10 @@
 
 package chatDB;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Collection;
 
 /**
  * Class to define a Data Access Object to encapsulate data related to a 
@@ -25,6 +28,25 @@ import java.nio.channels.SocketChannel;
  * apart of this <code>ChangeRequest</code>. The new interest op that will be   
  * set on the socket's key when this <code>ChangeRequest</code> is handled in  
  * the event loop of a selector thread. 
+ * <br><br>
+ * A MULTIPLEX request carries an already framed message instead of an 
+ * interest op, along with the keys of the chat members that should receive it.
+ * The message is framed once in each encoding those members use, indexed
+ * by the encodings defined by <code>ChatRoom</code>, encodings none of them
+ * use are left null.
+ * The selector thread handling it sends the frame to each of those members 
+ * except the request's <code>SocketChannel</code>, the sender of the message.
+ * <br><br>
+ * A REGISTER request hands an event loop a connection the acceptor loop
+ * accepted, so it's registered with the loop's selector from the loop's own
+ * thread.
+ * <br><br>
+ * A HANDSHAKE request tells an event loop that a
+ * <code>HandshakeWorker</code> has answered the upgrade request of the
+ * request's <code>SocketChannel</code>, so the answer can be sent.
+ * <br><br>
+ * A CLOSE request asks an event loop to close the request's
+ * <code>SocketChannel</code> once the frames it has waiting are written.
  * 
  * @author Ben Miller
  * @version 1.0
@@ -35,11 +57,15 @@ public class ChangeRequest
     public static final int REGISTER = 1; 
     public static final int CHANGEOPS = 2;
     public static final int HANDSHAKE = 3;
+    public static final int MULTIPLEX = 4;
+    public static final int CLOSE = 5;
 
     // Private Data Members
     private SocketChannel socket; 
     private int type; 
     private int ops; 
+    private ByteBuffer[][] frames;
+    private Collection<SelectionKey> members;
 
     /**
      * 
@@ -53,6 +79,22 @@ public class ChangeRequest
         this.type = type; 
         this.ops = ops;
     }
+    
+    /**
+     * 
+     * @param socket
+     * @param type
+     * @param frames 
+     * @param members
+     */
+    public ChangeRequest (SocketChannel socket, int type, ByteBuffer[][] frames, 
+                          Collection<SelectionKey> members)
+    {
+        this.socket = socket; 
+        this.type = type; 
+        this.frames = frames;
+        this.members = members;
+    }
 
     // Private Data Member Getters
     public SocketChannel getSocketChannel()
@@ -69,4 +111,14 @@ public class ChangeRequest
     { 
         return this.ops; 
     }
+    
+    public ByteBuffer[][] getFrames()
+    {
+        return this.frames;
+    }
+    
+    public Collection<SelectionKey> getMembers()
+    {
+        return this.members;
+    }
 }
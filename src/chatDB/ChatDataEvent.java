@@ -1,14 +1,16 @@
 
 package chatDB;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 /**
  * Class to define an event object that will contain all the data that is used
  * to represent a <code>ChatDataEvent</code>. This event includes the following 
  * data members, a handle to the ChatRoom selector thread that created this 
- * event; the socket connection over which the data for this event was sent, and
- * the raw byte[] data string containing the command and command dependent data.
+ * event; the socket connection over which the data for this event was sent, the
+ * bytes of the message sent, if any, and a view of the data string containing 
+ * the command and command dependent data.
  * This event is created by the <code>ChatRoom</code> selector thread. This 
  * event is handled by the <code>ChatWorker</code> worker thread.
  * 
@@ -19,16 +21,16 @@ public class ChatDataEvent
     // Local Variable Declaration 
     private ChatRoom chatThread;
     private SocketChannel socket;
-    private String message;;
-    private byte[] cmdString; 
+    private ByteBuffer message;
+    private CommandView vars; 
 
     // Constructor
-    public ChatDataEvent(ChatRoom ct, SocketChannel socket, String mssg, byte[] cmdString) 
+    public ChatDataEvent(ChatRoom ct, SocketChannel socket, ByteBuffer mssg, CommandView vars) 
     {
         this.chatThread = ct;
         this.socket = socket;
         this.message = mssg;
-        this.cmdString = cmdString;
+        this.vars = vars;
     }
     
     // Getters
@@ -42,14 +44,14 @@ public class ChatDataEvent
         return this.socket; 
     }
     
-    public String getMessage()
+    public ByteBuffer getMessage()
     {
         return this.message;
     }
     
-    public byte[] getCommandString()
+    public CommandView getVariables()
     {
-        return this.cmdString;
+        return this.vars;
     }
     
 }
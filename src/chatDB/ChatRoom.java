@@ -4,481 +4,346 @@ package chatDB;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import websockets.FrameLimits;
+import websockets.WebSocketData;
+import websockets.WebSocketSelectionKeyAPI;
 
 /**
- * Class to define a selector thread that acts a chat room for two or more clients.
- * This is the final stage in the chat server. Here clients send and receive
- * messages from and to one another. This selector thread is responsible for 
- * handling only message multiplexing, and chat thread logging. If a client 
- * issues a command having to with the <code>WaitingRoom</code> selector thread
- * then that command will be sent to the waiting room selector for handling. All
- * message multiplex and logging are handled by the <code>ChatWorker</code> worker
- * thread. 
+ * Class to define a chat room for two or more clients. This is the final stage
+ * in the chat server. Here clients send and receive messages from and to one
+ * another. A chat room doesn't run a selector thread of its own, its members
+ * stay registered with the <code>EventLoop</code>s of the shared
+ * <code>EventLoopGroup</code> they were accepted on, so the amount of threads
+ * the server runs stays the same no matter how many chat rooms are open. 
+ * Joining and leaving a chat room only changes the stage hung on the member's
+ * websocket state, see {@link Stage Stage}. The chat room keeps track
+ * of which loop each member is registered with, and hands each loop the 
+ * members it should send a message to. If a client issues a command having to
+ * with the <code>WaitingRoom</code> stage then that command will be sent to
+ * the waiting room for handling. All message multiplex and logging
+ * are handled by the <code>ChatWorker</code> worker thread of the member's
+ * loop.
  * <br><br>
- * Each <code>ChatRoom</code> will come with a handle to the waiting room 
- * selector thread, so that a client still has access to <code>WaitingRoom</code> 
- * functionality. To access the waiting room functionality, such as "LEAVE_CHT" 
- * the client simply issues the corresponding command and the 
- * <code>ChatWorker</code> will dispatch that command, along with the command's 
- * dependant data, to the <code>WaitingRoomWorker</code> that is associated with 
- * this <code>ChatRoom</code>.
- * 
+ * Each <code>ChatRoom</code> will come with a handle to the waiting room
+ * selector thread, so that a client still has access to <code>WaitingRoom</code>
+ * functionality. To access the waiting room functionality, such as "LEAVE_CHT"
+ * the client simply issues the corresponding command and the
+ * <code>ChatWorker</code> will dispatch that command, along with the command's
+ * dependant data, to the <code>WaitingRoomWorker</code> of the
+ * <code>WaitingRoom</code> this <code>ChatRoom</code> was created by.
+ *
  * @author Ben Miller
  * @version 1.0
  */
-public class ChatRoom implements Runnable
+public class ChatRoom implements Stage
 {
-//------------------------ PRIVATE DATA MEMBERS ----------------------------
-   // Selector used to hold all the member socketchannels for this chat thread/room
-   private Selector chatSelector = null; 
+   /* Encodings a member may be sent messages in, combinable flags indexing 
+    * the frames a message is multiplexed as */
+   public static final int TEXT     = 0;
+   public static final int BINARY   = 1;
+   public static final int DEFLATED = 2;
 
-   // The byte into which message data will be written 
-   private ByteBuffer readBuffer = ByteBuffer.allocate(100); // DIRECT???
+   /* The most payload a member's frames and messages may carry, chat 
+    * messages are held whole so they're kept to a reasonable size */
+   public static final FrameLimits DEFAULT_LIMITS = new FrameLimits(64 * 1024, 1024 * 1024);
 
-   // Multiplexor worker to multiplex socket channels together for chatting
-   private ChatWorker echoW = null;
+//------------------------ PRIVATE DATA MEMBERS ----------------------------
+   // Websocket plugin used to frame the messages sent to clients
+   private WebSocketSelectionKeyAPI webSocs = WebSocketSelectionKeyAPI.getInstance();
 
    // Local handle to the waiting room thread from whence this chat was spawned
-   private WaitingRoom waitingRoom = null; 
-   
-   // Local handle to the WaitingRoomWorker used to execute WaitingRoom commands
-   private WaitingRoomWorker waitRoomWorker = null;
-   
-   // The name of this ChatRoom 
+   private WaitingRoom waitingRoom = null;
+
+   // The shared selector threads the members of this chat are registered with
+   private EventLoopGroup loops = null;
+
+   /* The members of this chat, one map of socket channel to key for each loop
+    * in the group. Members are kept by loop so that a message only needs one
+    * request per loop to reach all of them. */
+   private List< Map<SocketChannel, SelectionKey> > members = null;
+
+   // The name of this ChatRoom
    private String name = "";
-   
-   /* List of change requests used to flip the selector to select for 
-    * write events */
-    private List< ChangeRequest > changeRequests = 
-                                       new LinkedList <ChangeRequest> ();
-
-   // Map of a socket channel to a list of all  ByteBuffers to be written 
-   private Map< SocketChannel, List< ByteBuffer >> pendingData = 
-                       new HashMap< SocketChannel, List< ByteBuffer >>();
 //--------------------------------------------------------------------------
 
     /**
-     * Constructor for a new chat thread. A new selector is created and opened
-     * for use by this chat thread. 
-     * 
-     * @throws IOException
+     * Constructor for a new chat room.
+     *
+     * @param wr The waiting room that created this chat room
+     * @param name The name of the chat room
+     * @param loops The shared selector threads members are registered with
      */
-    public ChatRoom (WaitingRoom wr, String name) throws IOException
+    public ChatRoom (WaitingRoom wr, String name, EventLoopGroup loops)
    {
-       // Open up the selector 
-       this.chatSelector = Selector.open();
-       
        // Set the waiting room selector thread, the creator of this ChatRoom
-       this.waitingRoom = wr; 
-       
-       // Set the name 
+       this.waitingRoom = wr;
+
+       // Set the name
        this.name = name;
+
+       this.loops = loops;
+
+       // Create an empty map of members for each loop in the group
+       this.members = new ArrayList<>(loops.size());
+
+       for (int i = 0; i < loops.size(); i++)
+       {
+           this.members.add(new ConcurrentHashMap<>());
+       }
    }
 
-   /* Method to add a socket channel to the selector managed by this ChatRoom */
-   public void addContact (SocketChannel sc) throws IOException
+   /* Method to add a connection to this ChatRoom. The connection stays 
+    * registered with the loop it was accepted on, this chat room is hung on
+    * its websocket state so the loop hands the messages it reads to this 
+    * chat, and the member is filed under that loop. */
+   public void addContact (SelectionKey key) throws IOException
    {
-       // Make sure the socekt channel is non-blocking
-       sc.configureBlocking(false);
+       // Local Variable Declaration
+       SocketChannel sc = (SocketChannel) key.channel();
+       Object attachment = key.attachment();
+
+       // Remember the member's key under the loop it's registered with
+       this.members.get(this.loops.loopOf(key).getIndex()).put(sc, key);
 
-       /* Register the new socket channel with the chatSelector. Set the 
-        * op-code for this key to read. This is done to facilitate the 
-        * resting position of this server, which is to wait on the client*/
-       sc.register(this.chatSelector, SelectionKey.OP_READ);
+       // Move the connection into this chat
+       ((WebSocketData) attachment).attach(this);
 
        // Let the user know a socket channel has been connected. Move this to a log with a time stamp
        System.out.println("Client Entered Chat: " + sc.toString());
-       
-       // Let everybody else in the chat thread know the client has joined. 
-       this.multiplex(sc, (sc.getRemoteAddress() + "has joined the chat").getBytes());
-       
-       // Wakeup the chatSelector so that this new connection can be included
-       this.chatSelector.wakeup();       
+
+       // Let everybody else in the chat thread know the client has joined.
+       this.multiplex(sc, ByteBuffer.wrap((sc.getRemoteAddress() 
+                                           + "has joined the chat").getBytes()));
    }
 
    /**
-    * Take the given socket channel's key out of the selector for this chat 
-    * thread.
-    * 
-    * @param sc 
+    * Take the given socket channel out of this chat. The connection stays 
+    * registered with its loop, it's up to the caller to move it into 
+    * another stage.
+    *
+    * @param sc
+    *
+    * @return The connection's key, or null if it wasn't a member of this 
+    *         chat
     */
-   public void removeContact (SocketChannel sc) 
+   public SelectionKey removeContact (SocketChannel sc)
    {
+       // Local Variable Declaration
+       SelectionKey key = this.loops.keyOf(sc);
+
+       // Forget the member, it's filed under the loop it's registered with
+       if (key != null)
+       {
+           key = this.members.get(this.loops.loopOf(key).getIndex()).remove(sc);
+       }
+
        // Save the user's chat data?? It should be saved on the fly
-       
-       // Deregister a socket channel from
-       sc.keyFor(this.chatSelector).cancel();
+
+       return key;
+   }
+
+   /* Method called by the loop a member's connection is registered with for
+    * every complete message the member sends, the message is handed to the 
+    * loop's chat worker to be multiplexed */
+   @Override
+   public void processData (EventLoop loop, SocketChannel sc, CommandView cmd)
+   {
+       loop.getChatWorker().processData(this, sc, cmd);
+   }
+
+   // A member whose connection closed is taken out of the chat 
+   @Override
+   public void disconnect (SelectionKey key)
+   {
+       this.removeContact((SocketChannel) key.channel());
+   }
+
+   @Override
+   public FrameLimits getFrameLimits ()
+   {
+       return this.waitingRoom.getChatFrameLimits();
    }
 
    /**
     * Allows for the passing of WaitingRoomWorker jobs to be handed off to the
-    * waiting room selector thread by threads outside this one. This method 
+    * waiting room selector thread by threads outside this one. This method
     * wraps the executor method in the WaitingRoom class.
-    * 
+    *
     * @param sc The channel involved in the command to executed.
-    * @param cmdString The command in byte form, to be executed. It assumed that
-    *                  any variables needed to execute the command are included
-    *                  in this string.
+    * @param cmd The command to be executed. It assumed that any variables 
+    *            needed to execute the command are included in the command.
     */
-   public void doWaitingRoomTask (SocketChannel sc, byte[] cmdString)
+   public void doWaitingRoomTask (SocketChannel sc, CommandView cmd)
    {
-       this.waitRoomWorker.processData
-       (
-            this.waitingRoom, sc, cmdString, cmdString.length
-       );
+       this.waitingRoom.doTask(sc, cmd);
    }
-   
-   // Getter/Setter for the chat thread name 
+
+   /**
+    * Method to find the encoding a member is sent messages in, from what it 
+    * agreed to during the handshake.
+    *
+    * @param attachment The attachment of the member's key, its websocket 
+    *        state
+    *
+    * @return TEXT or BINARY, with DEFLATED set if the member's messages are
+    *         compressed
+    */
+   public static int encodingOf (Object attachment)
+   {
+       // Local Variable Declaration
+       int encoding = BinaryProtocol.isBinary(attachment) ? BINARY : TEXT;
+
+       if (attachment instanceof WebSocketData 
+           && ((WebSocketData) attachment).getDeflate() != null)
+       {
+           encoding |= DEFLATED;
+       }
+
+       return encoding;
+   }
+
+   // Getter/Setter for the chat thread name
    public String getName()
    {
        return this.name;
    }
 //   public void setName(String name) {this.name = name;}
-   
+
 /******************************************************************************/
 
     /**
-     * Method to prepare a message (string of bytes) to be sent down the socket
-     * channel back to the client. The method creates a new ChangeRequest that 
-     * will flip the socketchannel's key's interest operation from read to write
-     * and then adds the message to be sent to a queue, so that it can be written
-     * via the selector in this thread. 
-     * 
+     * Method to prepare a response to be sent down the socket
+     * channel back to the client. The message is handed to the loop the
+     * client's socket channel is registered with, which writes it out.
+     *
      * @param sc The socket channel down which the data should be sent.
-     * 
-     * @param data The data, String in byte form to be sent down the 
-     *             SocketChannel sc.
+     *
+     * @param rsp The response to be sent down the SocketChannel sc.
      */
-    public void send (SocketChannel sc, byte[] data)
+    public void send (SocketChannel sc, Response rsp)
     {
-        /* Get a lock from the changeRequests List object, so that any thread  
-          * that accesses the list will have to wait until a current thread is 
-          * done accessing the list */
-         synchronized( this.changeRequests ) 
-         {
-             // Indicate we want the interest ops set changed
-             this.changeRequests.add(new ChangeRequest(sc, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
-            
-             // And queue the data we want written
-             synchronized (this.pendingData) 
-             {
-                 /* Get the queue of byte buffers that are associated with the 
-                  * socket channel passed, the socket channel to be used to send 
-                  * the byte buffer to the client */   
-                 List<ByteBuffer> queue = (List<ByteBuffer>) this.pendingData.get(sc);
-
-                 // Make sure the quere returned from the Map exsisted
-                 if (queue == null) 
-                 {
-                     // If the queue is null then create an empty ArrayList queue
-                     queue = new ArrayList<ByteBuffer>();
-
-                     /* Map the passed socket to the newly created queue of byte 
-                      * buffers */
-                     this.pendingData.put(sc, queue);
-                 }
-
-                 /* Add the data that is to be sent back to the client to the 
-                  * queue */
-                 queue.add(ByteBuffer.wrap(data));
-             }
-           }
-          
-           // Finally, wake up our selecting thread so it can make the required changes
-           this.chatSelector.wakeup();
-    }
-    
-   /* Method to enqueue data, so that it can be written back down the socket
-    * channel. The */
-   public void multiplex( SocketChannel sc, byte[] data )
-   {       
-       /* Get a lock from the changeRequests List object, so that any 
-        * thread that accesses the list will have to wait until a current 
-        * thread is done accessing the list */
-       synchronized (this.changeRequests) 
-       {           
-           /* Get a lock over the pendingData map so that other threads don't 
-            * interfer with any actions in this block */
-           synchronized (this.pendingData) 
-           {
-               /* Loop through the keys and enqueue the data to write back to the
-                * socket channels on the other keys. */
-               this.chatSelector.keys().forEach((key) -> 
-               {
-                    /* Indicate we want the interest ops set changed for each key (socket
-                     * connetion) in the chat selector. Do this so that each key's socket
-                     * channel will be written to.*/ 
-                     this.changeRequests.add(new ChangeRequest(
-                        (SocketChannel) key.channel(), ChangeRequest.CHANGEOPS, 
-                        SelectionKey.OP_WRITE));
-                     
-                    /* Get the socket channel associated with the key being iterated.
-                     * This socket channel will be used to store and access 
-                     * data queues associated with the key. */
-                    SocketChannel keyChan = (SocketChannel) key.channel(); 
-                    
-                   /* Get the queue of byte buffers that are associated 
-                    * with the socket channel passed, the socket channel to 
-                    * be used to send the byte buffer(s) to the client */   
-                    List<ByteBuffer> queue = (List<ByteBuffer>)this.pendingData.get(keyChan);
-
-                    // Make sure the queue returned from the Map exsisted
-                    if (queue == null) 
-                    {
-                        // If the queue is null then create an empty ArrayList queue
-                        queue = new ArrayList<ByteBuffer>();
-
-                       /* Map the key's socket to the newly created queue of byte 
-                        * buffers */
-                        this.pendingData.put(keyChan, queue);
-                    }
-
-                    /* Skip the socket channel that the data array originated 
-                     * from, so that the message will not be echoed back to 
-                     * sender, but to all others connected. */
-                    if (keyChan != sc)
-                    {
-                        /* Add the data that is to be sent back to the client 
-                         * to the queue. ArrayList passed by reference. */
-                        queue.add(ByteBuffer.wrap(data));
-                    }
-               });
-            }
+        // Local Variable Declaration
+        SelectionKey key = this.loops.keyOf(sc);
+        EventLoop loop = key != null ? this.loops.loopOf(key) : null;
+
+        // Have the loop the member is registered with send the data
+        if (loop != null && this.members.get(loop.getIndex()).containsKey(sc))
+        {
+            loop.send(sc, rsp);
         }
-       
-       // Finally, wake up our selecting thread so it can make the required changes
-       this.chatSelector.wakeup();
-   }
-   
-   /* Method to read data from a socket channel that is sent to this server. */
-   public void read ( SelectionKey key ) throws IOException
+    }
+
+   /**
+    * Method to send data to every member of this chat except the one it came
+    * from. The data is framed only once and isn't copied. When the data was 
+    * sliced out of a message read from a client the frame header is written 
+    * into the message's bytes right in front of it, so the frame goes out as 
+    * the one buffer the client's payload was unmasked into. Otherwise the 
+    * header is written into a buffer of its own and sent ahead of the data. Each 
+    * loop that has members of this chat is asked once to fan the frame out to
+    * them. If any member asked for the binary protocol the data is also 
+    * framed once as the MSG entry of a binary command, again without copying
+    * the data.
+    * <br><br>
+    * The members are copied out of the chat before the data is framed, and 
+    * the frames are picked from the encodings of the members copied. The 
+    * loops fan out to that copy, so a member that joins in the mean time 
+    * isn't sent a frame in an encoding it never asked for, it just misses
+    * this message.
+    * <br><br>
+    * If any member agreed to permessage-deflate each of those frames is also
+    * compressed, once, here on the worker thread. The compressed frame is 
+    * shared by every member that agreed, the server keeps no compression 
+    * context between messages so it's the same for all of them. Data too 
+    * small to be worth compressing is sent to them as is.
+    *
+    * @param sc The socket channel the data came from, this member won't be
+    *           sent the data. May be null to send the data to every member.
+    *
+    * @param data The data to be sent to the members, between the buffer's 
+    *             position and limit. It mustn't be changed once passed, and 
+    *             the bytes in front of it in its array may be overwritten.
+    */
+   public void multiplex( SocketChannel sc, ByteBuffer data )
    {
-       // Local Variable Declaration 
-       int bytesRead = 0; boolean clientClosed = false;
+       // Local Variable Declaration
+       ByteBuffer[][] frames = new ByteBuffer[4][];
+       ByteBuffer prefix = null;
+       List< List<SelectionKey> > recipients = new ArrayList<>(this.members.size());
+       boolean anyBinary = false, anyDeflated = false;
+       int encoding;
+
+       /* Copy the members out of the chat, noting the encodings they were
+        * sent messages in */
+       for (Map<SocketChannel, SelectionKey> loopMembers : this.members)
+       {
+           List<SelectionKey> keys = new ArrayList<>(loopMembers.values());
 
-       // Get a local handle on the channel so it can be read 
-       SocketChannel sc = (SocketChannel) key.channel();
+           for (SelectionKey key : keys)
+           {
+               encoding = encodingOf(key.attachment());
+               anyBinary |= (encoding & BINARY) != 0;
+               anyDeflated |= (encoding & DEFLATED) != 0;
+           }
 
-       /* Clear the read buffer so it's ready for new data */
-       this.readBuffer.clear();
+           recipients.add(keys);
+       }
 
-       // Try reading from the channel 
-       try 
+       /* Compress the data first, framing it in place overwrites the bytes in
+        * front of it but never the data itself */
+       if (anyDeflated)
        {
-           bytesRead = sc.read(this.readBuffer); 
+           frames[TEXT | DEFLATED] = this.webSocs.shareDeflated(WebSocketSelectionKeyAPI.OP_TEXT,
+                                                                data);
+
+           if (anyBinary)
+           {
+               prefix = BinaryProtocol.prefix(BinaryProtocol.MSG, data.remaining());
+               frames[BINARY | DEFLATED] = this.webSocs.shareDeflated(
+                                               WebSocketSelectionKeyAPI.OP_BINARY,
+                                               prefix, data);
+           }
        }
-       catch (IOException ioe)
+
+       /* Frame the data once for every member of the chat, in place if there
+        * is room for the header in front of it */
+       frames[TEXT] = this.webSocs.frameInPlace(data, WebSocketSelectionKeyAPI.OP_TEXT);
+
+       if (frames[TEXT] == null)
        {
-           /* If an IOException is thrown that means the connectee closed the 
-           * connection; therefore, the socketchannel should be closed, and 
-           * the key should be canceled */
-           // key.cancel(); 
-           // sc.close();
-           clientClosed = true; 
-           ioe.printStackTrace();
+           frames[TEXT] = this.webSocs.share(WebSocketSelectionKeyAPI.OP_TEXT, data);
        }
-       finally
+
+       if (anyBinary)
        {
-            /* Test to see if the end of the channel had been reached by the last 
-            * read operation, or if an IOException has been thrown and the socket 
-            * channel needs to close*/
-            if (bytesRead == -1 || clientClosed)
-            {
-                // Close the connection and cancel the key 
-                key.cancel();
-                sc.close();
-            }
-            else
-            {
-                // Hand off the data to a worker thread for processing
-                this.echoW.processData(this, sc, this.readBuffer.array(), bytesRead);
-            }
+           frames[BINARY] = this.webSocs.share(WebSocketSelectionKeyAPI.OP_BINARY,
+                                               prefix != null ? prefix 
+                                               : BinaryProtocol.prefix(BinaryProtocol.MSG,
+                                                                       data.remaining()),
+                                               data);
        }
-   } 
-
-   /**
-    * 
-    * @param key
-    * @throws IOException 
-    */
-   public void write (SelectionKey key) throws IOException
-   {
-       // Get a handle to the SocketChannel associated with the key parameter
-       SocketChannel sc = (SocketChannel) key.channel();
-
-       /* Create a flag to indicate wether or not writing should contine on 
-       * the given channel associated with the key passed */
-       boolean stop = false; 
 
-       /* Get a thread lock over the pending data map of sockets to byte 
-       * buffers */
-       synchronized( this.pendingData )
+       // Members whose frame wasn't compressed are sent it as is
+       for (encoding = TEXT; encoding <= BINARY; encoding++)
        {
-           /* Get a list of all the buffers associated with a given socket 
-            * channel, the channel associated with the key passed */
-           List<ByteBuffer> queue =  
-               (List< ByteBuffer >)this.pendingData.get(sc);
-           
-           // Loop through the queue of data buffers and write each one
-           while (!queue.isEmpty() && !stop)
+           if (frames[encoding | DEFLATED] == null)
            {
-               // Get a buffer handel to the byte buffer in the queue
-               ByteBuffer data = (ByteBuffer) queue.get(0);
-              
-               // Write the data to the channel
-               sc.write(data); 
-
-               // See if the entire buffer was written
-               if (!data.hasRemaining())
-               {   
-                   /* If the entire buffer was written then remove the buffer 
-                   * from the queue of buffers. */
-                   queue.remove(0);
-               }
-               else 
-               {
-                   /* If the data buffer still hasn't been completely drained 
-                    * then processing of buffers needs to stop. The most likely 
-                    * reason is that underlying system buffer for the socket 
-                    * channel being written to is full and so further writing 
-                    * should cease until the client has a chance to drain the 
-                    * buffer on their end. When the channel is ready for writing 
-                    * again the rest of this  buffer aswell as the other buffers 
-                    * associated with this key's socket channel will get a chance 
-                    * to be written.*/
-                   stop = true;
-               }
-           } 
-
-           // See if the queue of byte buffers is empty 
-           if (queue.isEmpty())
-           {
-              /* Since all data was for this key's socket channel was written 
-               * the selector can go back to checking to see if this key's 
-               * channel is ready for reading */
-               key.interestOps(SelectionKey.OP_READ); 
+               frames[encoding | DEFLATED] = frames[encoding];
            }
-       } 
-   }
+       }
 
-   @Override
-   public void run() 
-   {
-       // Create a ChatWorker thread for the chat thread
-       this.echoW = new ChatWorker();
-       
-       // Start the thread
-       new Thread(this.echoW, "EchoWorker").start();
-       
-       // Instansiate a WaitingRoomWorker used by this chat thread 
-       this.waitRoomWorker = new WaitingRoomWorker();
-       this.waitRoomWorker.setName("Chat WaitingRoom Worker");
-       
-       // Start the waitingRoom worker 
-       this.waitRoomWorker.start();
-       
-       /* Start an event loop that will poll the selector for events 
-        * on the socket channels registered for this chat */
-       while (true)
+       // Hand the frame to each loop that has members of this chat
+       for (int i = 0; i < recipients.size(); i++)
        {
-           try
+           if (!recipients.get(i).isEmpty())
            {
-               /* Process any pending change requests issued by a worker 
-                * thread */
-               // Get a lock over changeRequests list 
-               synchronized( this.changeRequests ) 
-               {
-                   // Get an iterator over the all the change requests 
-                   Iterator <ChangeRequest> changes = 
-                                           this.changeRequests.iterator();
-
-                   // Loop through all the changes 
-                   while ( changes.hasNext() )
-                   {
-                       // Get the changes request instance
-                       ChangeRequest change = (ChangeRequest) changes.next();
-
-                       // Examine the change type 
-                       switch( change.getType() )
-                       {
-                           /* The case when the type of the ChangeRequest 
-                            * is CHANGEOPS, the request to change the
-                            * selector from looking for readiness to read 
-                            * to looking for readiness to write on a given 
-                            * socket channel. */ 
-                           case ChangeRequest.CHANGEOPS:
-                           {
-                               /* Get the key from the socSelector for the 
-                                * channel represented in the change request */
-                               SelectionKey key = change.getSocketChannel().keyFor(this.chatSelector);
-                               
-                               /* Change the intereste op for the key, which 
-                                * is still attached to the selector, to the op 
-                                * that is specified by the ChangeRequest. Only
-                                * change the interest op if the key isn't null.*/
-                               if (key != null)
-                               {
-                                   key.interestOps( change.getOps() );
-                               }
-                           }// EndCase
-                       }// EndSwitch
-                   } // End While loop
-
-                   /* Clear change requests list so that it is ready for 
-                    * new requests */
-                   this.changeRequests.clear(); 
-               }
-
-               /* Halt execution while the socket selector polls the
-                * serversocket channels for read/write events */
-               this.chatSelector.select();
-
-               /* Get an iterator over the selected keys from the socSelector, 
-                * this are keys for which a connection, read or write event 
-                * was found. */
-               Iterator<SelectionKey> selectedKeys = this.chatSelector
-                   .selectedKeys().iterator();
-
-               // Loop through all the selected keys and process them
-               while (selectedKeys.hasNext())
-               {
-                   // Get the next key from the iterator for processing 
-                   SelectionKey key = (SelectionKey) selectedKeys.next();
-                
-                   /* Make sure the key is valid, ie its not cancelled, its 
-                   * channel nor it's selector is closed */
-                   if (key.isValid())
-                   {
-                       // Check to see the channel is readable 
-                       if (key.isReadable()) 
-                       {
-                           // Read the from the channel 
-                           this.read(key);
-                       }
-                       else if (key.isWritable())
-                       {
-                           // Write to the channel 
-                           this.write(key);
-                       }
-                   }
-
-                   /* Remove the key so that it doesn't get processed 
-                    * again */ 
-                   selectedKeys.remove();
-               }  
+               this.loops.get(i).multiplex(sc, frames, recipients.get(i));
            }
-           catch (Exception e)
-           {
-               e.printStackTrace();
-           }          
        }
    }
 }
@@ -2,9 +2,8 @@
 package chatDB;
 
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Class to define a worker thread responsible for echoing messages received from
@@ -33,38 +32,56 @@ public class ChatWorker implements Runnable
     private final String CMD = DataSerializer.CMD;
     private final String MSG = DataSerializer.MSG;
     
-    // Create a queue that will hold writing (echo) jobs
-    private List<ChatDataEvent> queue = new LinkedList<>();
+    // Create a bounded queue that will hold writing (echo) jobs
+    private WorkQueue<ChatDataEvent> queue = null;
 /*----------------------------------------------------------------------------*/
     
-    // Constructor 
-    public ChatWorker(){}
+    // Class constructors 
+    public ChatWorker()
+    {
+        this(WorkQueue.DEFAULT_CAPACITY, WorkQueue.DEFAULT_BATCH, WorkQueue.REJECT);
+    }
+    
+    /**
+     * Constructor for a worker with an event queue of the given size. 
+     * 
+     * @param capacity The most events that can wait to be handled
+     * @param batchSize The most events handled per wake up 
+     * @param policy What to do with events that arrive when the queue is full,
+     *        {@link WorkQueue#BLOCK BLOCK}, {@link WorkQueue#DROP DROP} or 
+     *        {@link WorkQueue#REJECT REJECT}. BLOCK only holds up producers
+     *        off the event loops, the loops are turned away like REJECT.
+     */
+    public ChatWorker(int capacity, int batchSize, int policy)
+    {
+        this.queue = new WorkQueue<>(capacity, batchSize, policy);
+    }
+    
+    /**
+     * Getter for the queue of events waiting on this worker, so that its depth
+     * and drain batch sizes can be monitored.
+     * 
+     * @return The worker's event queue
+     */
+    public WorkQueue<ChatDataEvent> getQueue()
+    {
+        return this.queue;
+    }
 
     /* Method to process the message data and enqueue it into the list, so 
-     * that they can be handled by the selector thread (the main thread). */
-    public void processData (ChatRoom ct, SocketChannel sc, byte[] data, int count)
+     * that they can be handled by the selector thread (the main thread). The
+     * message is viewed in place, the bytes it views are handed over to this 
+     * worker and mustn't be reused by the caller. */
+    public void processData (ChatRoom ct, SocketChannel sc, CommandView postData)
     {
-        /* Create a byte array to hold message data.*/
-        byte[] filteredReadData = new byte[count];
-
-        /* Copy the original data payload into another array, only copying the 
-         * bytes that were just read into the buffer */
-        System.arraycopy(data, 0, filteredReadData, 0, count);
-        
-        // Deserialize the data array passed converting into a map, 'associative array'
-        Map <String, String> postData = DataSerializer.deserializeData(filteredReadData);
-        
-        // Create sychronized lock
-        synchronized (queue)
+        /* Add the new event to the queue, notifying the worker. The MSG value
+         * is sliced out of the message's bytes rather than copied. Let the 
+         * client know if the event was turned away by a full queue. */
+        if (!this.queue.offer(new ChatDataEvent(ct, sc, postData.slice(MSG), 
+                                               postData)) 
+            && this.queue.getPolicy() != WorkQueue.DROP)
         {
-            // Add a new ChatDataEvent to the queue 
-            queue.add(new ChatDataEvent 
-            (
-                ct, sc, postData.get(MSG), filteredReadData
-            ));
-
-            // Notify the queue that there are new events 
-            queue.notify();
+            ct.send(sc, WorkQueue.BUSY_RSP);
         }
     }
 
@@ -77,51 +94,41 @@ public class ChatWorker implements Runnable
     public void run() 
     {
         // Local Variable Declaration 
-        ChatDataEvent dataEvent; 
+        List<ChatDataEvent> batch = new ArrayList<>();
 
         /* Start event loop taht will continually try to process worker 
          * events */
         while (true)
         {
-            // Block until data is available 
-            synchronized (queue)
+            /* Block until data is available, then take up to a batch worth of
+             * events off the queue at once */
+            this.queue.drainTo(batch);
+
+            // Handle each event in the order it arrived
+            for (ChatDataEvent dataEvent : batch)
             {
-                // Force the execution to pause until the queue has an item
-                while (queue.isEmpty())
+                // Check to see if the client issued a 'MSG' command
+                if (dataEvent.getMessage() != null)
                 {
-                    try
-                    {
-                        // force the queue to wait until it's notified
-                        queue.wait();
-                    }
-                    catch(InterruptedException e)
-                    {
-                        e.printStackTrace();
-                    }
+                    /* Send the data back to the client by calling the multiplex method 
+                     * in the ChatRoom class */
+                    dataEvent.getChatThread().multiplex
+                    ( 
+                        dataEvent.getSocket(), dataEvent.getMessage()
+                    );
+                }
+                else 
+                {
+                    // Issue the command to the waiting room worker for handling 
+                    dataEvent.getChatThread().doWaitingRoomTask
+                    (
+                            dataEvent.getSocket(), dataEvent.getVariables()
+                    );
                 }
-
-                // Pop off the last ChatDataEvent from the event queue
-                dataEvent = (ChatDataEvent) queue.remove(0);
-            }
-
-            // Check to see if the client issued a 'MSG' command
-            if (dataEvent.getMessage() != null)
-            {
-                /* Send the data back to the client by calling the multiplex method 
-                 * in the ChatRoom class */
-                dataEvent.getChatThread().multiplex
-                ( 
-                    dataEvent.getSocket(), dataEvent.getMessage().getBytes() 
-                );
-            }
-            else 
-            {
-                // Issue the command to the waiting room worker for handling 
-                dataEvent.getChatThread().doWaitingRoomTask
-                (
-                        dataEvent.getSocket(), dataEvent.getCommandString()
-                );
             }
+            
+            // Empty the batch so it can be reused
+            batch.clear();
         }
     }
 }
@@ -0,0 +1,18 @@
+package chatDB;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Functional interface to define the lambda signature of the handlers kept in
+ * a {@link CommandTable CommandTable}. A handler executes one command for the
+ * stage, the selector thread, the command was sent to.
+ *
+ * @param <T> The type of selector thread the command is executed for
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public interface CommandHandler<T>
+{
+    public void execute(T stage, SocketChannel socket, CommandView vars);
+}
@@ -0,0 +1,241 @@
+package chatDB;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class to define the registry of the commands known to the server. Each
+ * command is given a compact int opcode, the commands defined by
+ * <code>DataSerializer</code> have fixed opcodes while commands registered
+ * later are given the next free one. The opcodes index the handler arrays of
+ * each stage's {@link CommandTable CommandTable}.
+ * <br><br>
+ * A command is resolved to its opcode straight from the bytes the client sent.
+ * The registry keeps an open addressing hash table of the command names as
+ * bytes, so the value of the CMD key is hashed and compared where it lies in
+ * the data, without being decoded into a String. A command that is missing or
+ * unknown resolves to {@link #UNKNOWN UNKNOWN}.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public final class CommandRegistry
+{
+    // Opcode of a command that is missing or isn't registered
+    public static final int UNKNOWN   = 0;
+
+    // Opcodes of the commands defined by the DataSerializer
+    public static final int LOG_OFF   = 1;
+    public static final int LOG_IN    = 2;
+    public static final int SGN_UP    = 3;
+    public static final int CRT_CHT   = 4;
+    public static final int DLT_CHT   = 5;
+    public static final int JOIN_CHT  = 6;
+    public static final int LEAVE_CHT = 7;
+    public static final int SIGN_OFF  = 8;
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    /* The command names as bytes, indexed by opcode. The slot of UNKNOWN is
+     * left empty. */
+    private static volatile byte[][] names = new byte[1][];
+
+    /* Hash table of opcodes, keyed by the hash of the command name, 0 marks an
+     * empty slot. The table is always replaced after the names, and read
+     * before them, so every opcode in it has a name. */
+    private static volatile int[] slots = new int[16];
+/*----------------------------------------------------------------------------*/
+
+    static
+    {
+        register(DataSerializer.LOG_OFF);
+        register(DataSerializer.LOG_IN);
+        register(DataSerializer.SGN_UP);
+        register(DataSerializer.CRT_CHT);
+        register(DataSerializer.DLT_CHT);
+        register(DataSerializer.JOIN_CHT);
+        register(DataSerializer.LEAVE_CHT);
+        register(DataSerializer.SIGN_OFF);
+    }
+
+    // Not to be instantiated
+    private CommandRegistry()
+    {
+    }
+
+    /**
+     * Method to register a command, giving it the next free opcode. A command
+     * that is already registered keeps its opcode.
+     *
+     * @param command The command, as sent as the value of the CMD key
+     *
+     * @return The opcode of the command
+     */
+    public static synchronized int register(String command)
+    {
+        // Local Variable Declaration
+        byte[] name = command.getBytes(StandardCharsets.UTF_8);
+        int opcode = resolve(ByteBuffer.wrap(name), 0, name.length);
+        byte[][] grownNames;
+        int[] grownSlots;
+
+        if (opcode != UNKNOWN)
+        {
+            return opcode;
+        }
+
+        // Add the name under the next opcode
+        opcode = names.length;
+        grownNames = new byte[opcode + 1][];
+        System.arraycopy(names, 0, grownNames, 0, names.length);
+        grownNames[opcode] = name;
+
+        // Rebuild the hash table, keeping it at most a quarter full
+        grownSlots = new int[Math.max(slots.length, Integer.highestOneBit(opcode * 4) * 2)];
+
+        for (int i = 1; i < grownNames.length; i++)
+        {
+            int slot = hash(ByteBuffer.wrap(grownNames[i]), 0, grownNames[i].length)
+                       & (grownSlots.length - 1);
+
+            while (grownSlots[slot] != 0)
+            {
+                slot = (slot + 1) & (grownSlots.length - 1);
+            }
+
+            grownSlots[slot] = i;
+        }
+
+        names = grownNames;
+        slots = grownSlots;
+
+        return opcode;
+    }
+
+    /**
+     * Method to resolve the command of a command data string.
+     *
+     * @param vars The command data
+     *
+     * @return The opcode of the value of the CMD key, or UNKNOWN if there is
+     *         no CMD key or its value isn't a registered command
+     */
+    public static int resolve(CommandView vars)
+    {
+        // Local Variable Declaration
+        int entry = vars.indexOf(DataSerializer.CMD);
+
+        if (entry == -1)
+        {
+            return UNKNOWN;
+        }
+
+        return resolve(vars.getData(), vars.valueOffset(entry), vars.valueLength(entry));
+    }
+
+    /**
+     * Method to resolve a command from its name as bytes. Whitespace at either
+     * end of the name is ignored.
+     *
+     * @param data The bytes holding the name
+     * @param offset The index of the first byte of the name
+     * @param length The amount of bytes in the name
+     *
+     * @return The opcode of the command, or UNKNOWN if it isn't registered
+     */
+    public static int resolve(ByteBuffer data, int offset, int length)
+    {
+        // Local Variable Declaration
+        int[] table = slots;
+        byte[][] known = names;
+        int end = offset + length, slot, opcode;
+
+        // Skip the whitespace at either end of the name
+        while (offset < end && (data.get(offset) & 0xFF) <= ' ')
+        {
+            offset++;
+        }
+
+        while (end > offset && (data.get(end - 1) & 0xFF) <= ' ')
+        {
+            end--;
+        }
+
+        // Probe the table until the name or an empty slot is found
+        slot = hash(data, offset, end - offset) & (table.length - 1);
+
+        while ((opcode = table[slot]) != 0)
+        {
+            if (matches(known[opcode], data, offset, end - offset))
+            {
+                return opcode;
+            }
+
+            slot = (slot + 1) & (table.length - 1);
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Method to get the name of a registered command.
+     *
+     * @param opcode The opcode of the command
+     *
+     * @return The name of the command, or null if the opcode isn't registered
+     */
+    public static String nameOf(int opcode)
+    {
+        // Local Variable Declaration
+        byte[][] known = names;
+
+        if (opcode <= UNKNOWN || opcode >= known.length)
+        {
+            return null;
+        }
+
+        return new String(known[opcode], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return One more than the highest opcode registered, the length of an
+     *         array indexed by every opcode
+     */
+    public static int size()
+    {
+        return names.length;
+    }
+
+    // Method to hash the bytes from offset to offset + length
+    private static int hash(ByteBuffer data, int offset, int length)
+    {
+        // Local Variable Declaration
+        int h = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            h = 31 * h + (data.get(offset + i) & 0xFF);
+        }
+
+        // Spread the high bits down, the table is indexed by the low bits
+        return h ^ (h >>> 16);
+    }
+
+    // Method to compare a name against the bytes from offset to offset + length
+    private static boolean matches(byte[] name, ByteBuffer data, int offset, int length)
+    {
+        if (name.length != length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            if (name[i] != data.get(offset + i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package chatDB;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Class to define the table of command handlers of a stage of the server. The
+ * handlers are kept in an array indexed by the opcode the
+ * {@link CommandRegistry CommandRegistry} gave their command, so a command is
+ * dispatched with a single array lookup, no String is hashed or compared. A
+ * command without a handler in the table, or one that isn't registered at all,
+ * is handed to the table's fallback handler.
+ * <br><br>
+ * Handlers may be added to the table while it's in use, the array is copied
+ * on each change so that dispatching never takes a lock.
+ *
+ * @param <T> The type of selector thread the commands are executed for
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class CommandTable<T>
+{
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The handlers, indexed by opcode
+    private volatile CommandHandler<T>[] handlers;
+
+    // The handler of commands the table has no handler for
+    private final CommandHandler<T> fallback;
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for an empty table.
+     *
+     * @param fallback The handler of commands the table has no handler for,
+     *        typically one that lets the client know the command isn't supported
+     */
+    public CommandTable(CommandHandler<T> fallback)
+    {
+        this.handlers = newTable(CommandRegistry.size());
+        this.fallback = fallback;
+    }
+
+    /**
+     * Method to add a handler to the table, registering its command if it
+     * hasn't been already. A handler already in the table for the command is
+     * replaced.
+     *
+     * @param command The command, as sent as the value of the CMD key
+     * @param handler The handler that executes the command
+     *
+     * @return The opcode of the command
+     */
+    public synchronized int register(String command, CommandHandler<T> handler)
+    {
+        // Local Variable Declaration
+        int opcode = CommandRegistry.register(command);
+        CommandHandler<T>[] grown;
+
+        // Copy the table, making room for the opcode if need be
+        grown = newTable(Math.max(this.handlers.length, opcode + 1));
+        System.arraycopy(this.handlers, 0, grown, 0, this.handlers.length);
+
+        grown[opcode] = handler;
+        this.handlers = grown;
+
+        return opcode;
+    }
+
+    /**
+     * Method to execute a command by handing it to the handler of its opcode.
+     *
+     * @param opcode The opcode of the command, as resolved by the
+     *        {@link CommandRegistry CommandRegistry}
+     * @param stage The selector thread the command is executed for
+     * @param socket The SocketChannel over which the command was sent
+     * @param vars The command data
+     */
+    public void dispatch(int opcode, T stage, SocketChannel socket, CommandView vars)
+    {
+        // Local Variable Declaration
+        CommandHandler<T>[] table = this.handlers;
+        CommandHandler<T> handler = null;
+
+        if (opcode > CommandRegistry.UNKNOWN && opcode < table.length)
+        {
+            handler = table[opcode];
+        }
+
+        (handler != null ? handler : this.fallback).execute(stage, socket, vars);
+    }
+
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    /* Method to create an empty array of handlers. Java can't create an array
+     * of a generic type, so an array of wildcard handlers is cast instead,
+     * which is safe since the array never leaves this table. */
+    @SuppressWarnings("unchecked")
+    private static <T> CommandHandler<T>[] newTable(int size)
+    {
+        return (CommandHandler<T>[]) new CommandHandler<?>[size];
+    }
+}
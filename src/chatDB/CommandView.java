@@ -0,0 +1,486 @@
+package chatDB;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import websockets.WebSocketSelectionKeyAPI;
+
+/**
+ * Class to define a read only view of a command data string, as laid out by
+ * <code>DataSerializer</code>. The view is a flyweight over the bytes the
+ * client sent, the bytes are scanned once for the entry and key-value
+ * delimiters and only the offset and length of each key and value are kept.
+ * No String, array or map is made while parsing, a value is only decoded into
+ * a String when it's asked for, and keys are matched against the raw bytes.
+ * <br><br>
+ * The view reads the same data strings, and keeps the same entries, as
+ * <code>DataSerializer.deserializeData</code> did.
+ * <ul>
+ *      <li>Whitespace at either end of the data string is ignored</li>
+ *      <li>An entry that doesn't hold exactly one key and one value is
+ *          discarded</li>
+ *      <li>If a key is sent more than once the last value sent wins</li>
+ * </ul>
+ *
+ * The view can also be pointed at a command encoded in the
+ * {@link BinaryProtocol BinaryProtocol}, a run of tag, length and value
+ * entries. Keys are then matched by their tag, the values are read the same.
+ * <br><br>
+ * The view never copies the bytes it's given, they mustn't be changed for as
+ * long as the view is in use.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class CommandView
+{
+    // The amount of entries room is made for up front
+    private static final int DEFAULT_ENTRIES = 8;
+
+    // The delimiters as bytes
+    private static final byte ENTRY_DELM = (byte) DataSerializer.ENTRY_DELM.charAt(0);
+    private static final byte KV_DELM    = (byte) DataSerializer.KV_DELM.charAt(0);
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The bytes the entries are read from
+    private ByteBuffer data = null;
+
+    /* Where each entry lies in the data, four ints to an entry, the key's
+     * offset and length followed by the value's offset and length */
+    private int[] bounds = new int[DEFAULT_ENTRIES * 4];
+
+    // The amount of entries found in the data
+    private int entries = 0;
+
+    /* Whether the data is in the binary protocol, each key is then a single
+     * tag byte */
+    private boolean binary = false;
+/*----------------------------------------------------------------------------*/
+
+    // Class constructors
+    public CommandView()
+    {
+    }
+
+    public CommandView(byte[] data, int offset, int length)
+    {
+        this.wrap(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Method to view a message sent by a client, in the encoding its frame's
+     * opcode says it's in, binary frames in the binary protocol and text
+     * frames in the text format.
+     *
+     * @param payload The payload of the message, it isn't copied
+     * @param opcode The opcode of the message's frame
+     *
+     * @return A new view of the message
+     */
+    public static CommandView of(ByteBuffer payload, byte opcode)
+    {
+        return opcode == WebSocketSelectionKeyAPI.OP_BINARY
+               ? new CommandView().wrapBinary(payload)
+               : new CommandView().wrap(payload);
+    }
+
+    /**
+     * Method to point the view at a new data string, forgetting the entries of
+     * the last one. The data string runs from the buffer's position to its
+     * limit, neither of which are moved.
+     *
+     * @param data The command data string sent by the client
+     *
+     * @return This view
+     */
+    public CommandView wrap(ByteBuffer data)
+    {
+        // Local Variable Declaration
+        int start = data.position(), end = data.limit(), entryStart;
+
+        this.data = data;
+        this.entries = 0;
+        this.binary = false;
+
+        // Skip the whitespace at either end of the data string
+        while (start < end && (data.get(start) & 0xFF) <= ' ')
+        {
+            start++;
+        }
+
+        while (end > start && (data.get(end - 1) & 0xFF) <= ' ')
+        {
+            end--;
+        }
+
+        // Split the data string over the entry delimiters
+        entryStart = start;
+
+        for (int i = start; i < end; i++)
+        {
+            if (data.get(i) == ENTRY_DELM)
+            {
+                this.addEntry(entryStart, i);
+                entryStart = i + 1;
+            }
+        }
+
+        this.addEntry(entryStart, end);
+
+        return this;
+    }
+
+    /**
+     * Method to point the view at a new command encoded in the binary
+     * protocol, forgetting the entries of the last one. The command runs from
+     * the buffer's position to its limit, neither of which are moved. An entry
+     * cut off by the end of the command is discarded.
+     *
+     * @param data The binary command sent by the client
+     *
+     * @return This view
+     */
+    public CommandView wrapBinary(ByteBuffer data)
+    {
+        // Local Variable Declaration
+        int pos = data.position(), end = data.limit(), tagAt, length, shift;
+        byte b;
+
+        this.data = data;
+        this.entries = 0;
+        this.binary = true;
+
+        while (pos < end)
+        {
+            tagAt = pos++;
+            length = 0;
+            shift = 0;
+
+            // Read the length, seven bits to a byte, low bits first
+            do
+            {
+                if (pos == end || shift > 28)
+                {
+                    return this;
+                }
+
+                b = data.get(pos++);
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+
+            // Give up on an entry whose value runs past the end
+            if (length < 0 || length > end - pos)
+            {
+                return this;
+            }
+
+            this.addBounds(tagAt, 1, pos, length);
+            pos += length;
+        }
+
+        return this;
+    }
+
+    /* Method to split the entry running from start to end over its key-value
+     * delimiter, recording where the key and value are. Delimiters trailing
+     * the entry are ignored, the same as String.split ignores the empty
+     * strings they'd leave. An entry without exactly one key and one value is
+     * discarded. */
+    private void addEntry(int start, int end)
+    {
+        // Local Variable Declaration
+        int delim = -1;
+
+        while (end > start && this.data.get(end - 1) == KV_DELM)
+        {
+            end--;
+        }
+
+        // Find the delimiter, giving up on the entry if there's more than one
+        for (int i = start; i < end; i++)
+        {
+            if (this.data.get(i) == KV_DELM)
+            {
+                if (delim != -1)
+                {
+                    return;
+                }
+
+                delim = i;
+            }
+        }
+
+        if (delim == -1)
+        {
+            return;
+        }
+
+        this.addBounds(start, delim - start, delim + 1, end - delim - 1);
+    }
+
+    // Method to record where an entry's key and value lie
+    private void addBounds(int keyOffset, int keyLength, int valueOffset, int valueLength)
+    {
+        // Make room for the entry if the bounds are full
+        if ((this.entries + 1) * 4 > this.bounds.length)
+        {
+            int[] grown = new int[this.bounds.length * 2];
+
+            System.arraycopy(this.bounds, 0, grown, 0, this.bounds.length);
+            this.bounds = grown;
+        }
+
+        this.bounds[this.entries * 4]     = keyOffset;
+        this.bounds[this.entries * 4 + 1] = keyLength;
+        this.bounds[this.entries * 4 + 2] = valueOffset;
+        this.bounds[this.entries * 4 + 3] = valueLength;
+        this.entries++;
+    }
+
+    /**
+     * Method to find the entry of the given key. The key is compared to the
+     * raw bytes of each entry's key, nothing is decoded.
+     *
+     * @param key The key to look for
+     *
+     * @return The index of the last entry with the key, or -1 if the key
+     *         wasn't sent
+     */
+    public int indexOf(String key)
+    {
+        for (int i = this.entries - 1; i >= 0; i--)
+        {
+            if (this.keyEquals(i, key))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Method to check the key of an entry without decoding it.
+     *
+     * @param entry The index of the entry
+     * @param key The key expected
+     *
+     * @return true if the entry has the key expected
+     */
+    public boolean keyEquals(int entry, String key)
+    {
+        // Binary keys are compared by their tag
+        if (this.binary)
+        {
+            return (this.data.get(this.bounds[entry * 4]) & 0xFF) 
+                    == BinaryProtocol.tagOf(key);
+        }
+
+        return this.regionEquals(this.bounds[entry * 4], this.bounds[entry * 4 + 1], key);
+    }
+
+    /**
+     * Method to get the value of the given key, decoded into a String.
+     *
+     * @param key The key of the value
+     *
+     * @return The value, or null if the key wasn't sent
+     */
+    public String get(String key)
+    {
+        // Local Variable Declaration
+        int entry = this.indexOf(key);
+
+        return entry == -1 ? null : this.getValue(entry);
+    }
+
+    /**
+     * Method to get the bytes of the value of the given key without copying
+     * them. The buffer returned shares the data the view was pointed at.
+     *
+     * @param key The key of the value
+     *
+     * @return A buffer holding just the value between its position and limit,
+     *         or null if the key wasn't sent
+     */
+    public ByteBuffer slice(String key)
+    {
+        // Local Variable Declaration
+        int entry = this.indexOf(key), offset;
+
+        if (entry == -1)
+        {
+            return null;
+        }
+
+        offset = this.bounds[entry * 4 + 2];
+
+        return this.data.duplicate().limit(offset + this.bounds[entry * 4 + 3])
+                                    .position(offset).slice();
+    }
+
+    /**
+     * Method to check the value of the given key without decoding it.
+     *
+     * @param key The key of the value
+     * @param value The value expected
+     *
+     * @return true if the key was sent with the value expected
+     */
+    public boolean valueEquals(String key, String value)
+    {
+        // Local Variable Declaration
+        int entry = this.indexOf(key);
+
+        return entry != -1 && this.regionEquals(this.bounds[entry * 4 + 2],
+                                                this.bounds[entry * 4 + 3],
+                                                value);
+    }
+
+    /* Method to compare the bytes from offset to offset + length against a
+     * String. Strings of plain ascii are compared char for byte, any other
+     * String is encoded first. */
+    private boolean regionEquals(int offset, int length, String s)
+    {
+        // Local Variable Declaration
+        byte[] encoded;
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (s.charAt(i) > 0x7F)
+            {
+                encoded = s.getBytes(StandardCharsets.UTF_8);
+
+                if (encoded.length != length)
+                {
+                    return false;
+                }
+
+                for (int j = 0; j < length; j++)
+                {
+                    if (this.data.get(offset + j) != encoded[j])
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        if (s.length() != length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            if (this.data.get(offset + i) != (byte) s.charAt(i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /* Method to decode the bytes from offset to offset + length into a
+     * String, straight out of the backing array when there is one */
+    private String decode(int offset, int length)
+    {
+        // Local Variable Declaration
+        byte[] bytes;
+
+        if (this.data.hasArray())
+        {
+            return new String(this.data.array(), this.data.arrayOffset() + offset,
+                              length, StandardCharsets.UTF_8);
+        }
+
+        bytes = new byte[length];
+
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = this.data.get(offset + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method to copy the entries of the view into a map, for code that still
+     * expects the associative array made by the old deserializer.
+     *
+     * @return A new map of each key sent to its value
+     */
+    public Map<String, String> toMap()
+    {
+        // Local Variable Declaration
+        Map<String, String> asocArray = new HashMap<>();
+
+        // Entries with a tag that isn't known have no key, leave them out
+        for (int i = 0; i < this.entries; i++)
+        {
+            if (this.getKey(i) != null)
+            {
+                asocArray.put(this.getKey(i), this.getValue(i));
+            }
+        }
+
+        return asocArray;
+    }
+
+    // Getters for the entries found, by index
+    public int size()
+    {
+        return this.entries;
+    }
+
+    public String getKey(int entry)
+    {
+        if (this.binary)
+        {
+            return BinaryProtocol.keyOf(this.data.get(this.bounds[entry * 4]) & 0xFF);
+        }
+
+        return this.decode(this.bounds[entry * 4], this.bounds[entry * 4 + 1]);
+    }
+
+    public String getValue(int entry)
+    {
+        return this.decode(this.bounds[entry * 4 + 2], this.bounds[entry * 4 + 3]);
+    }
+
+    public int keyOffset(int entry)
+    {
+        return this.bounds[entry * 4];
+    }
+
+    public int keyLength(int entry)
+    {
+        return this.bounds[entry * 4 + 1];
+    }
+
+    public int valueOffset(int entry)
+    {
+        return this.bounds[entry * 4 + 2];
+    }
+
+    public int valueLength(int entry)
+    {
+        return this.bounds[entry * 4 + 3];
+    }
+
+    public ByteBuffer getData()
+    {
+        return this.data;
+    }
+
+    public boolean isBinary()
+    {
+        return this.binary;
+    }
+}
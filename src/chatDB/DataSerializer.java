@@ -1,8 +1,6 @@
 
 package chatDB;
 
-import java.nio.charset.Charset;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -43,10 +41,12 @@ import java.util.Map;
  * the dependent data needed to execute that command, namely UNAME + KV_DELIM +
  * "username" + ENTRY_DELIM + PSSWRD + KV_DELIM + "password".
  * <br><br>
- * On the server side the <code>deserializeDate</code> method is used to parse
- * the data string and convert it into a associative map. That map acts as a 
- * Data Access Object and allows for quick easy retrieval and access to the 
- * command and the data sent by the client.
+ * On the server side a <code>CommandView</code> is used to parse the data 
+ * string in place. The view acts as a Data Access Object and allows for quick
+ * easy retrieval and access to the command and the data sent by the client, 
+ * without copying the data string into a map. The <code>deserializeData</code>
+ * method still converts a data string into an associative map, for code that 
+ * needs one.
  * 
  * @author Ben Miller
  * @version 1.0
@@ -86,34 +86,7 @@ public class DataSerializer
      * be returned */
     public static Map<String, String> deserializeData (byte[] data)
     {
-        // Local Variable Declaration 
-        Map <String, String> asocArray = new HashMap<>();
-        String[] keyVals; 
-        
-        // Convert the data byte array into a String 
-        String dataString = new String(data, Charset.forName("UTF-8")).trim();
-        
-        // Proceed only if the empty string wasn't passed
-        if(!dataString.equals("")) 
-        {        
-            // Parse the data string over the expected semicolons
-            String[] entries = dataString.split(ENTRY_DELM);
-
-            // Loop through each entry 
-            for (String entry : entries)
-            {
-                // Parse the entry string over the equals since, spliting key from value
-                keyVals = entry.split(KV_DELM);
-
-                /* Make sure the directive entry contained a key (command label)
-                 * value (command) pair. If it doesn't the entry is discarded.*/
-                if (keyVals.length == 2)
-                {
-                    // Put the key-value pair in the associative array 
-                    asocArray.put(keyVals[0], keyVals[1]);
-                }
-            }
-        }
-        return asocArray;
+        // Parse the data in place, then copy the entries found into a map
+        return new CommandView(data, 0, data.length).toMap();
     }
 }
@@ -0,0 +1,816 @@
+package chatDB;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import websockets.OutboundQueue;
+import websockets.UpgradeRequest;
+import websockets.WebSocketData;
+import websockets.WebSocketSelectionKeyAPI;
+import websockets.WebsocketMessageHandler;
+
+/**
+ * Class to define a selector thread of the chat server. A fixed
+ * <code>EventLoopGroup</code> of these loops serves every connection, from
+ * the moment it's accepted until it's closed. A connection is registered with
+ * one loop only, once, and the loop handles its handshake and all of its
+ * reads and writes for the rest of its life.
+ * <br><br>
+ * The stage a connection is in, the <code>RecptionRoom</code>, the
+ * <code>WaitingRoom</code> or a <code>ChatRoom</code>, is hung on the
+ * connection's websocket state, the <code>WebSocketData</code> attached to its
+ * key. The loop hands the messages it reads off to that stage. Moving a
+ * connection from one stage to another swaps the stage hung on it, the
+ * connection's key is never cancelled and re-created, and no thread has to
+ * register a channel with a selector another thread is blocked on.
+ * <br><br>
+ * A loop may also listen for new connections, as one of the acceptors of its
+ * group. Where the platform supports <code>SO_REUSEPORT</code> each acceptor
+ * binds the server's port, otherwise only the first loop listens. An acceptor
+ * keeps the connections it accepts when every loop of the group is an 
+ * acceptor, and hands them to the loops of its group round robin otherwise. The chat
+ * messages of the members registered with a loop are handled by the loop's
+ * own <code>ChatWorker</code>.
+ * 
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class EventLoop implements Runnable
+{
+//------------------------ PRIVATE DATA MEMBERS ----------------------------
+   // Selector used to hold the socketchannels registered with this loop
+   private Selector selector = null; 
+
+   // Websocket plugin used to decode the frames sent by clients
+   private WebSocketSelectionKeyAPI webSocs = WebSocketSelectionKeyAPI.getInstance();
+
+   // Multiplexor worker to multiplex socket channels together for chatting
+   private ChatWorker echoW = null;
+
+   // The group this loop is part of, and the position of this loop in it
+   private EventLoopGroup group = null;
+   private int index = 0;
+
+   /* The connections acceptance channel, null if this loop doesn't listen,
+    * and whether this loop keeps the connections it accepts */
+   private ServerSocketChannel serverChannel = null;
+   private boolean keepAccepted = false;
+
+   /* Lock free queue of change requests, tasks, handed to this selector 
+    * thread by worker threads */
+    private TaskQueue changeRequests = null;
+
+    /* The keys of the connections whose handshake is under way, in the order
+     * they were accepted, so that the oldest are checked for a timeout first */
+    private final ArrayDeque<SelectionKey> handshakes = new ArrayDeque<>();
+
+    // How often, in milliseconds, handshakes are checked for a timeout
+    private static final long HANDSHAKE_SWEEP = 1000;
+
+    /* The keys of the connections to close once the frames they have waiting
+     * are written, only touched by this loop's thread */
+    private final Set<SelectionKey> closing = new HashSet<>();
+
+    // The loop run by the current thread, if it's the thread of a loop
+    private static final ThreadLocal<EventLoop> current = new ThreadLocal<>();
+
+//--------------------------------------------------------------------------
+
+    /**
+     * Constructor for a new event loop. A new selector is created and opened
+     * for use by this loop. 
+     * 
+     * @param index The position of this loop in its group
+     * @param group The group this loop is part of
+     * 
+     * @throws IOException
+     */
+    public EventLoop (int index, EventLoopGroup group) throws IOException
+   {       
+       // Open up the selector 
+       this.selector = Selector.open();
+
+       // Create the queue worker threads hand tasks to this selector thread with
+       this.changeRequests = new TaskQueue(this.selector);
+
+       this.index = index;
+       this.group = group;
+   } 
+
+   /**
+    * Method to have this loop listen for new connections at the address
+    * passed. Must be called before the loop is started.
+    * 
+    * @param address The address and port to bind
+    * @param reusePort Whether other loops bind the same port, the kernel then
+    *        spreads new connections across them
+    * @param keepAccepted Whether this loop keeps the connections it accepts,
+    *        otherwise they're handed to the loops of the group round robin
+    * 
+    * @return The address bound, with the port the system picked if port 0
+    *         was asked for
+    * 
+    * @throws IOException If the address couldn't be bound
+    */
+   public InetSocketAddress listen (InetSocketAddress address, boolean reusePort,
+                                    boolean keepAccepted) throws IOException
+   {       
+       // Create a non-blocking ServerSocketChannel used by this server
+       this.serverChannel = ServerSocketChannel.open();
+       this.serverChannel.configureBlocking(false);
+       this.keepAccepted = keepAccepted;
+
+       /* Let every loop bind the same port, the option has to be set before
+        * any of them binds */
+       if (reusePort)
+       {
+           this.serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+       } 
+
+       // Bind the server socket to the address and port passed
+       this.serverChannel.socket().bind(address);
+
+       /* Register the server socket channel, indicating an interest in
+        * accepting new connections, with the selector. */
+       this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+       // Let user know the server has started and is listening
+       System.out.println("ChatServer started listening at: "
+                          + this.serverChannel.getLocalAddress());
+
+       return (InetSocketAddress) this.serverChannel.getLocalAddress();
+   } 
+
+   /**
+    * Method to find the key a socket channel was registered with on this
+    * loop.
+    * 
+    * @param sc The socket channel
+    * 
+    * @return The channel's key, or null if the channel isn't registered with
+    *         this loop
+    */
+   public SelectionKey keyFor (SocketChannel sc)
+   {       
+       return sc.keyFor(this.selector);
+   } 
+
+   /**
+    * @param key A connection's key
+    * 
+    * @return true if the connection is registered with this loop
+    */
+   public boolean owns (SelectionKey key)
+   {       
+       return key.selector() == this.selector;
+   } 
+
+   /**
+    * Method to find the loop the calling thread runs, so that code shared
+    * with worker threads can tell when it mustn't block.
+    * 
+    * @return The calling thread's loop, or null if it isn't a loop's thread
+    */
+   public static EventLoop current ()
+   {       
+       return current.get();
+   } 
+
+   // Getters
+   public int getIndex()
+   {       
+       return this.index;
+   } 
+
+   public ChatWorker getChatWorker()
+   {       
+       return this.echoW;
+   } 
+
+/******************************************************************************/
+
+    /**
+     * Method to prepare a response to be sent down the socket
+     * channel back to the client. The method creates a new ChangeRequest that 
+     * will flip the socketchannel's key's interest operation from read to write
+     * and then adds the message to be sent to a queue, so that it can be written
+     * via the selector in this thread. 
+     * 
+     * @param sc The socket channel down which the data should be sent.
+     * 
+     * @param rsp The response to be sent down the SocketChannel sc.
+     */
+    public void send (SocketChannel sc, Response rsp)
+    {   
+        /* Frame up the data in the encoding the client asked for, queue the 
+         * frame on the connection's own outbound queue and indicate we want 
+         * the interest ops set changed. The selecting thread is woken up so it
+         * can make the required changes. The frame is dropped if the 
+         * connection isn't registered with this loop or too many frames are
+         * waiting. */
+        this.changeRequests.send(sc, rsp);
+    }
+
+   /**
+    * Method to send an already encoded frame to the given members of a chat 
+    * that are registered with this loop, except the one it came from. One
+    * <code>ChangeRequest</code> asks this loop to fan the frame out. The loop 
+    * queues a duplicate view of the frame's buffers for each member and 
+    * flips each member's key to write readiness itself, so the cost on the 
+    * calling thread doesn't grow with the size of the chat.
+    * 
+    * @param sc The socket channel the data came from, this member won't be 
+    *           sent the frame. May be null to send the frame to every member.
+    * 
+    * @param frames The read only frames shared by every member, one for 
+    *           each encoding defined by <code>ChatRoom</code>
+    * 
+    * @param members The keys of the chat's members registered with this loop
+    */
+   public void multiplex( SocketChannel sc, ByteBuffer[][] frames,
+                          Collection<SelectionKey> members )
+   {       
+       /* Ask the selector loop to hand the frame to every other member, the
+        * selecting thread is woken up so it can make the required changes */
+       this.changeRequests.submit(new ChangeRequest(sc, ChangeRequest.MULTIPLEX, 
+                                                    frames, members));
+   } 
+
+   /**
+    * Method to have this loop close a connection once the frames it has
+    * waiting, such as the answer to its last command, have been written.
+    * 
+    * @param sc The socket channel to close
+    */
+   public void closeAfterWrite (SocketChannel sc)
+   {       
+       this.changeRequests.submit(new ChangeRequest(sc, ChangeRequest.CLOSE, 0));
+   } 
+
+   /**
+    * Method called by a handshake worker once it has answered a client's 
+    * upgrade request, to have this loop send the answer.
+    * 
+    * @param key The key of the client's connection
+    */
+   public void handshakeReady (SelectionKey key)
+   {       
+       this.changeRequests.submit(new ChangeRequest((SocketChannel) key.channel(),
+                                                    ChangeRequest.HANDSHAKE, 0));
+   } 
+
+    /* Method to accept the incoming connections to this server. Every 
+     * connection waiting is accepted, not just one per readiness event, so a
+     * burst of clients is taken in with a single wake up. Each new connection
+     * channel is setup to be non-blocking and is kept by this loop, or handed
+     * to the next loop round robin when not every loop is an acceptor. */
+    private void accept (SelectionKey key) throws IOException
+    {   
+        // Get a handle to the server socket channel the key represents
+        ServerSocketChannel ssc = (ServerSocketChannel) key.channel(); 
+
+        // Local Variable Declaration 
+        SocketChannel sc;
+        EventLoop loop;
+
+        // Accept connections until there are none left waiting
+        while ((sc = ssc.accept()) != null)
+        {            
+            /* Make the socket channel non-blocking, so that it can participate
+             * in the selector */
+            sc.configureBlocking(false);
+
+            // Keep what's accepted when every loop accepts for itself
+            loop = this.keepAccepted ? this : this.group.next();
+
+            if (loop == this)
+            {
+                this.register(sc);
+            } 
+            else
+            {
+                /* Have the other loop register the connection from its own 
+                 * thread, registering with a selector another thread is 
+                 * blocked on would hold this one up */
+                loop.changeRequests.submit(new ChangeRequest(sc, ChangeRequest.REGISTER, 
+                                                             SelectionKey.OP_READ));
+            } 
+        }            
+    }
+
+    /* Method to register a newly accepted connection with this loop's
+     * selector for reading, for the rest of its life. Nothing is read from
+     * the connection here, its handshake is read as the client's bytes arrive
+     * so a slow client never holds up accepting others. */
+    private void register (SocketChannel sc) throws IOException
+    {   
+        /* Put the socket channel in the selector, put the selector in the read 
+         * position so the client's upgrade request can be read */
+        SelectionKey clientKey = sc.register(this.selector, SelectionKey.OP_READ);
+
+        // Let the group know which key the connection is registered with 
+        this.group.registered(sc, clientKey);
+
+        // Let the logger know a new connection was made successfully 
+        System.out.println("Clinet Connected");
+
+        // Begin the Websocket HandShake, and start its clock 
+        this.webSocs.connect(clientKey);
+        this.handshakes.offer(clientKey);
+    }
+
+    /* Method to close the connections that have taken too long to send their
+     * upgrade request. Handshakes are kept in the order they began, so only 
+     * the oldest need checking. */
+    private void expireHandshakes () throws IOException
+    {   
+        // Local Variable Declaration 
+        long now = System.nanoTime();
+        SelectionKey key;
+
+        while ((key = this.handshakes.peek()) != null)
+        {            
+            // Forget handshakes that are over or connections already closed 
+            if (!key.isValid() || !(key.attachment() instanceof UpgradeRequest))
+            {
+                this.handshakes.poll();
+            } 
+            else if (((UpgradeRequest) key.attachment()).isDone())
+            {
+                // The request has been read, it's off the clock 
+                this.handshakes.poll();
+            } 
+            else if (this.webSocs.isHandshakeExpired(key, now))
+            {
+                this.handshakes.poll();
+                this.close(key);
+            } 
+            else
+            {
+                break;
+            } 
+        }            
+    }
+
+   /* Method to read data from a socket channel that is sent to this server. 
+    * The channel is read until it has no more bytes waiting, decoding the 
+    * bytes after each read, so that a burst of frames is taken in on a single
+    * readiness event. The read buffer is leased from a pool for the read and 
+    * handed straight back once its bytes have been decoded. */
+   public void read ( SelectionKey key ) throws IOException
+   {       
+       // Local Variable Declaration 
+       int bytesRead = 0, reads = 0; boolean clientClosed = false; 
+
+       // Get a local handle on the channel so it can be read 
+       SocketChannel sc = (SocketChannel) key.channel();
+
+       // Lease a buffer for this read from the pool of read buffers 
+       ByteBuffer readBuffer = this.webSocs.leaseReadBuffer();
+
+       // Handler called by the Websocket API for every complete message
+       WebsocketMessageHandler msgHndlr = this.messageHandler(key);
+
+       try 
+       {
+           /* Read the upgrade request of a connection whose handshake is under
+            * way. Once it's all been read the connection is left alone while 
+            * a handshake worker answers it, the client shouldn't send more 
+            * until it's been answered. */
+           if (key.attachment() instanceof UpgradeRequest)
+           {   
+               switch (this.webSocs.handshake(key, readBuffer))
+               {
+                   case WebSocketSelectionKeyAPI.HANDSHAKE_READ:
+                   {
+                       key.interestOps(0);
+
+                       // Turn the client away if the workers are swamped 
+                       if (!this.group.getHandshakeQueue().offer(key))
+                       {
+                           this.webSocs.rejectHandshake(key);
+                           clientClosed = true;
+                       }
+
+                       return;
+                   }
+                   case WebSocketSelectionKeyAPI.HANDSHAKE_FAILED:
+                   {
+                       clientClosed = true;
+
+                       return;
+                   }
+                   default: return;
+               }  
+           }          
+
+           /* Keep reading until the channel would block, the end of the stream
+            * has been reached or the channel has had its fair share of reads 
+            * for this readiness event */
+           do
+           {   
+               // Try reading from the channel 
+               bytesRead = sc.read(readBuffer); 
+
+               if (bytesRead > 0)
+               {
+                   // Flip the buffer so that only the bytes just read get decoded
+                   readBuffer.flip();
+
+                   /* Decode the frames read, held to the limits of the stage
+                    * the connection is in. A frame cut off at the end of the
+                    * buffer is remembered by the connection's decoder, so the 
+                    * buffer can be cleared for the next read. */
+                   this.webSocs.unFrame(readBuffer, key, stageOf(key).getFrameLimits(),
+                                        msgHndlr);
+
+                   readBuffer.clear();
+               }  
+           }          
+           while (bytesRead > 0 && ++reads < WebSocketSelectionKeyAPI.MAX_READS);
+       } 
+       catch (IOException ioe)
+       {
+           /* If an IOException is thrown that means the connectee closed the 
+           * connection; therefore, the socketchannel should be closed, and 
+           * the key should be canceled */
+           clientClosed = true; 
+           ioe.printStackTrace();
+       } 
+       catch (Exception ex)
+       {
+           /* Fatal errors occured decoding the frames, tell the client why and
+            * shut down the connection */
+           this.webSocs.sendClose(key, WebSocketSelectionKeyAPI.closeStatusOf(ex));
+           clientClosed = true; 
+       } 
+       finally
+       {
+           // The bytes have been decoded, hand the buffer back for reuse 
+           this.webSocs.releaseReadBuffer(readBuffer);
+
+          /* Test to see if the end of the channel had been reached by the last 
+           * read operation, or if an IOException has been thrown and the socket 
+           * channel needs to close*/
+           if (bytesRead == -1 || clientClosed)
+           {   
+               // Close the connection and cancel the key 
+               this.close(key);
+           }          
+       } 
+   } 
+
+   /* Method to get the handler called by the Websocket API once for every 
+    * complete message a client sends. The message's bytes are handed over as
+    * they were unmasked, they're viewed in place in the encoding the frame's 
+    * opcode calls for and handed to the stage the connection is in when the
+    * message ends, a command that moves the connection takes effect from the
+    * next message on. The stages hand messages to their workers, so the 
+    * handler keeps the messages it's passed. */
+   private WebsocketMessageHandler messageHandler (SelectionKey key)
+   {       
+       return WebsocketMessageHandler.keeping((payload, opcode) ->
+           stageOf(key).processData(this, (SocketChannel) key.channel(),
+                                    CommandView.of(payload, opcode)));
+   } 
+
+   // Method to get the stage hung on a connection whose handshake is done
+   static Stage stageOf (SelectionKey key)
+   {       
+       return (Stage) ((WebSocketData) key.attachment()).attachment();
+   } 
+
+   /* Method run by the selector thread to send a client the answer to its 
+    * upgrade request. Once it's established the connection enters the first
+    * stage of the server and is read from again, starting with any frames it
+    * sent behind its request. */
+   private void completeHandshake (SelectionKey key) throws IOException
+   {       
+       // Local Variable Declaration 
+       ByteBuffer readBuffer;
+
+       // The connection may have been closed while its request was answered 
+       if (key == null || !key.isValid())
+       {
+           return;
+       } 
+
+       readBuffer = this.webSocs.leaseReadBuffer();
+
+       try 
+       {
+           if (this.webSocs.completeHandshake(key, readBuffer) 
+               == WebSocketSelectionKeyAPI.HANDSHAKE_FAILED)
+           {   
+               this.close(key);
+
+               return;
+           }          
+
+           ((WebSocketData) key.attachment()).setLoop(this.index);
+           ((WebSocketData) key.attachment()).attach(this.group.getEntrance());
+           key.interestOps(SelectionKey.OP_READ); 
+
+           this.webSocs.unFrame(readBuffer, key, stageOf(key).getFrameLimits(),
+                                this.messageHandler(key));
+       } 
+       catch (Exception ex)
+       {
+           // Fatal errors occured decoding the frames, fail the connection
+           this.webSocs.sendClose(key, WebSocketSelectionKeyAPI.closeStatusOf(ex));
+           this.close(key);
+       } 
+       finally
+       {
+           this.webSocs.releaseReadBuffer(readBuffer);
+       } 
+   } 
+
+   /* Method run by the selector loop to queue a view of a frame encoded by 
+    * a chat room for every member passed except the sender, and to flip each 
+    * of those members' keys to write readiness. Each member is sent the 
+    * frame in the encoding it asked for. */
+   private void fanOut (SocketChannel sender, ByteBuffer[][] frames,
+                        Collection<SelectionKey> members)
+   {       
+       // Loop through the keys and send the frame to the other keys
+       for (SelectionKey key : members)
+       {
+           /* Skip the socket channel that the data originated from, so that
+            * the message will not be echoed back to sender, but to all 
+            * others connected. Skip keys that were cancelled as well. */
+           if (key.channel() == sender || !key.isValid())
+           {   
+               continue;
+           }          
+
+           /* Send a view of the shared frame to the member, each view keeps 
+            * its own position so members are written independently. This is
+            * the selector thread, so the view is written straight through 
+            * unless the member has frames waiting. Members with too many 
+            * frames waiting miss out. */
+           this.changeRequests.send(key, WebSocketSelectionKeyAPI.duplicate(
+                                         frames[ChatRoom.encodingOf(key.attachment())]));
+       } 
+   } 
+
+   /* Method run by the selector loop to close a connection once its waiting
+    * frames are written, right away if it has none */
+   private void closeAfterWrite (SelectionKey key) throws IOException
+   {       
+       if (key == null || !key.isValid())
+       {
+           return;
+       } 
+
+       if (((WebSocketData) key.attachment()).getOutbound().isEmpty())
+       {
+           this.close(key);
+       } 
+       else
+       {
+           this.closing.add(key);
+       } 
+   } 
+
+   /* Method to close a client's connection. The stage the connection is in
+    * forgets it, the key is cancelled and the connection's websocket state,
+    * along with any frames it never got to write, is let go of. */
+   private void close (SelectionKey key) throws IOException
+   {       
+       // Take the client out of the stage it was in
+       if (key.attachment() instanceof WebSocketData && stageOf(key) != null)
+       {
+           stageOf(key).disconnect(key);
+       } 
+
+       // Close the connection and cancel the key 
+       this.closing.remove(key);
+       this.group.closed((SocketChannel) key.channel());
+       key.cancel();
+       this.webSocs.disconnect(key);
+       key.channel().close();
+   } 
+
+   /**
+    * 
+    * @param key
+    * @throws IOException 
+    */
+   public void write (SelectionKey key) throws IOException
+   {       
+       // Get a handle to the SocketChannel associated with the key parameter
+       SocketChannel sc = (SocketChannel) key.channel();
+
+       /* Create a flag to indicate wether or not writing should contine on 
+       * the given channel associated with the key passed */
+       boolean stop = false; 
+
+       /* Get the queue of frames waiting to be written to the channel, it's 
+        * kept in the connection's websocket state attached to the key */
+       OutboundQueue queue = ((WebSocketData) key.attachment()).getOutbound();
+
+       // Local Variable Declaration 
+       ByteBuffer[] frame;
+
+       // Loop through the queue of frames and write each one
+       while (!stop && (frame = queue.peek()) != null)
+       {
+           /* Write the frame's header and payload to the channel with a 
+            * single gathering write */
+           sc.write(frame); 
+
+           // See if the entire frame was written
+           if (WebSocketSelectionKeyAPI.isWritten(frame))
+           {   
+               /* If the entire frame was written then remove the frame 
+               * from the queue of frames and hand it back for reuse. */
+               queue.poll();
+               this.webSocs.release(frame);
+           }          
+           else 
+           {   
+               /* If the data buffer still hasn't been completely drained 
+                * then processing of buffers needs to stop. The most likely 
+                * reason is that underlying system buffer for the socket 
+                * channel being written to is full and so further writing 
+                * should cease until the client has a chance to drain the 
+                * buffer on their end. When the channel is ready for writing 
+                * again the rest of this  buffer aswell as the other buffers 
+                * associated with this key's socket channel will get a chance 
+                * to be written.*/
+               stop = true;
+           }          
+       } 
+
+       // See if the queue of frames is empty 
+       if (queue.isEmpty())
+       {
+          /* Since all data was for this key's socket channel was written 
+           * the selector can go back to checking to see if this key's 
+           * channel is ready for reading. Frames queued from here on will
+           * ask for write readiness again. */
+           key.interestOps(SelectionKey.OP_READ); 
+
+           /* Check to see if this key was marked for closing, this was it's
+            * last write */
+           if (this.closing.contains(key))
+           {   
+               this.close(key);
+           }          
+       } 
+   } 
+
+   @Override
+   public void run() 
+   {       
+       // Let the task queue know which thread is this selector thread 
+       this.changeRequests.setOwner(Thread.currentThread());
+       current.set(this);
+
+       // Create a ChatWorker thread for the members registered with this loop
+       this.echoW = new ChatWorker();
+
+       // Start the thread
+       new Thread(this.echoW, "EchoWorker " + this.index).start();
+
+       /* Start an event loop that will poll the selector for events 
+        * on the socket channels registered with this loop */
+       while (true)
+       {
+           try
+           {   
+               /* Take each task off the queue until it's empty. The queue is 
+                * lock free so workers can keep adding tasks while this runs */
+               ChangeRequest change;
+
+               while ((change = this.changeRequests.poll()) != null)
+               {
+                   // Examine the change type 
+                   switch( change.getType() )
+                   {
+                       /* The case when the type of the ChangeRequest is CHANGEOPS, 
+                        * the request to change the selector from looking for 
+                        * readiness to read to looking for readiness to write on a 
+                        * given socket channel. */ 
+                       case ChangeRequest.CHANGEOPS:
+                       {
+                           /* Change the intereste op for the key of the channel 
+                            * represented in the change request, to the op that is 
+                            * specified by the ChangeRequest */
+                           TaskQueue.changeOps(change.getSocketChannel().keyFor(this.selector), 
+                                               change.getOps());
+
+                           break;
+                       }// EndCase
+
+                       /* The case when the type of the ChangeRequest is MULTIPLEX, 
+                        * the request to send a frame to every member but the one 
+                        * that sent it. */
+                       case ChangeRequest.MULTIPLEX:
+                       {
+                           this.fanOut(change.getSocketChannel(), change.getFrames(),
+                                       change.getMembers());
+
+                           break;
+                       }// EndCase
+
+                       /* The case when the type of the ChangeRequest is
+                        * HANDSHAKE, a handshake worker has answered the
+                        * upgrade request of the channel's client */
+                       case ChangeRequest.HANDSHAKE:
+                       {
+                           this.completeHandshake(change.getSocketChannel()
+                                                        .keyFor(this.selector));
+
+                           break;
+                       }// EndCase
+
+                       /* The case when the type of the ChangeRequest is
+                        * REGISTER, the acceptor loop has handed this loop a
+                        * connection it accepted */
+                       case ChangeRequest.REGISTER:
+                       {
+                           this.register(change.getSocketChannel());
+
+                           break;
+                       }// EndCase
+
+                       /* The case when the type of the ChangeRequest is CLOSE,
+                        * the client signed off and is let go once it's been
+                        * answered */
+                       case ChangeRequest.CLOSE:
+                       {
+                           this.closeAfterWrite(change.getSocketChannel()
+                                                      .keyFor(this.selector));
+
+                           break;
+                       }// EndCase
+                   }// EndSwitch
+               } // End While loop
+
+               /* Halt execution while the socket selector polls for connection,
+                * read and write events. Wake up now and again while clients
+                * are handshaking to check their time isn't up */
+               this.selector.select(this.handshakes.isEmpty() ? 0 : HANDSHAKE_SWEEP);
+
+               // Drop the clients that are taking too long to handshake
+               this.expireHandshakes();
+
+               /* Get an iterator over the selected keys from the socSelector, 
+                * this are keys for which a connection, read or write event 
+                * was found. */
+               Iterator<SelectionKey> selectedKeys = this.selector
+                   .selectedKeys().iterator();
+
+               // Loop through all the selected keys and process them
+               while (selectedKeys.hasNext())
+               {
+                   // Get the next key from the iterator for processing 
+                   SelectionKey key = selectedKeys.next();
+
+                   /* Make sure the key is valid, ie its not cancelled, its 
+                   * channel nor it's selector is closed */
+                   if (key.isValid())
+                   {
+                       /* Check to see if the event was connection accept
+                        * event */
+                       if (key.isAcceptable())
+                       {
+                           // Accept the connection
+                           this.accept(key);
+                       }
+                       else if (key.isReadable())
+                       {
+                           // Read the from the channel 
+                           this.read(key);
+                       }
+                       else if (key.isWritable())
+                       {
+                           // Write to the channel 
+                           this.write(key);
+                       }
+                   }
+
+                   /* Remove the key so that it doesn't get processed 
+                    * again */ 
+                   selectedKeys.remove();
+               }  
+           }          
+           catch (Exception e)
+           {   
+               e.printStackTrace();
+           }          
+       } 
+   } 
+}
@@ -0,0 +1,286 @@
+package chatDB;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import websockets.WebSocketData;
+
+/**
+ * Class to define the fixed group of <code>EventLoop</code> selector threads
+ * that serve every connection of the chat server. The group is sized to the
+ * amount of processors available, so the amount of threads the server runs
+ * stays the same no matter how many clients are connected or how many chat
+ * rooms are open.
+ * <br><br>
+ * A connection is registered with one loop when it's accepted and stays with
+ * it until it's closed, whatever stage of the server it's in. The first few
+ * loops of the group, as many as asked for, are acceptors. Where the platform
+ * supports <code>SO_REUSEPORT</code> (Linux) each acceptor binds the server's
+ * port and the kernel spreads new connections across them. Otherwise the 
+ * first loop is the only acceptor. When every loop is an acceptor each keeps
+ * the connections it accepts, otherwise the acceptors hand them to the loops
+ * round robin, so every loop serves its share either way.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class EventLoopGroup
+{
+//------------------------ PRIVATE DATA MEMBERS ----------------------------
+   // The selector threads in this group
+   private final EventLoop[] loops;
+
+   /* The key each open connection is registered with, whichever loop it's
+    * registered with, so workers can find a connection's key at once */
+   private final ConcurrentHashMap<SocketChannel, SelectionKey> keys =
+       new ConcurrentHashMap<>();
+
+   // Counter used to pick the next loop round robin
+   private final AtomicInteger nextLoop = new AtomicInteger();
+
+   // The stage connections enter once their handshake is done
+   private volatile Stage entrance = null;
+
+   /* Bounded queue of the keys whose upgrade request is waiting on the
+    * handshake workers */
+   private final WorkQueue<SelectionKey> handshakeQueue =
+       new WorkQueue<>(WorkQueue.DEFAULT_CAPACITY, WorkQueue.DEFAULT_BATCH, WorkQueue.REJECT);
+//--------------------------------------------------------------------------
+
+   /**
+    * Constructor for a group with one loop for each available processor.
+    *
+    * @throws IOException
+    */
+   public EventLoopGroup () throws IOException
+   {
+       this(Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Constructor for a group with the given amount of loops.
+    *
+    * @param size The amount of loops in the group
+    *
+    * @throws IOException If a loop's selector couldn't be opened
+    */
+   public EventLoopGroup (int size) throws IOException
+   {
+       this.loops = new EventLoop[size > 0 ? size : 1];
+
+       for (int i = 0; i < this.loops.length; i++)
+       {
+           this.loops[i] = new EventLoop(i, this);
+       }
+   }
+
+   /**
+    * Method to have every loop of the group listen for new connections at 
+    * the address passed. See {@link #bind(InetSocketAddress, int) bind}.
+    *
+    * @param address The address and port to bind
+    *
+    * @return The address bound, with the port the system picked if port 0
+    *         was asked for
+    *
+    * @throws IOException If the address couldn't be bound
+    */
+   public InetSocketAddress bind (InetSocketAddress address) throws IOException
+   {
+       return this.bind(address, this.loops.length);
+   }
+
+   /**
+    * Method to have the group listen for new connections at the address
+    * passed. The first loops of the group, as many as asked for, each bind 
+    * the address if the platform lets them share the port, otherwise only 
+    * the first loop does. Must be called before the group is started.
+    *
+    * @param address The address and port to bind
+    * @param acceptors The amount of loops that accept connections, from 1 up
+    *        to the size of the group
+    *
+    * @return The address bound, with the port the system picked if port 0
+    *         was asked for
+    *
+    * @throws IOException If the address couldn't be bound
+    */
+   public InetSocketAddress bind (InetSocketAddress address, int acceptors) 
+       throws IOException
+   {
+       // Local Variable Declaration
+       int count = Math.max(1, Math.min(acceptors, this.loops.length));
+       boolean reusePort = count > 1 && supportsReusePort();
+       boolean keep = reusePort && count == this.loops.length;
+
+       /* The first loop binds first, so the others share the port it was
+        * given in case an ephemeral port was asked for */
+       address = this.loops[0].listen(address, reusePort, keep);
+
+       for (int i = 1; i < count && reusePort; i++)
+       {
+           this.loops[i].listen(address, true, keep);
+       }
+
+       return address;
+   }
+
+   /**
+    * Method to start a thread for each loop in the group.
+    */
+   public void start ()
+   {
+       for (EventLoop loop : this.loops)
+       {
+           new Thread(loop, "Event Loop " + loop.getIndex()).start();
+       }
+   }
+
+   /**
+    * Method to pick the loop the next connection should be registered with.
+    *
+    * @return The next loop, round robin
+    */
+   public EventLoop next ()
+   {
+       return this.loops[Math.floorMod(this.nextLoop.getAndIncrement(),
+                                       this.loops.length)];
+   }
+
+   /**
+    * Method to find the loop a connection is registered with. Once its 
+    * handshake is done the loop is kept in the connection's websocket state, 
+    * until then each loop is asked.
+    *
+    * @param key The connection's key
+    *
+    * @return The loop, or null if the key doesn't belong to this group
+    */
+   public EventLoop loopOf (SelectionKey key)
+   {
+       // Local Variable Declaration
+       Object attachment = key.attachment();
+
+       if (attachment instanceof WebSocketData 
+           && ((WebSocketData) attachment).getLoop() != -1)
+       {
+           return this.loops[((WebSocketData) attachment).getLoop()];
+       }
+
+       for (EventLoop loop : this.loops)
+       {
+           if (loop.owns(key))
+           {
+               return loop;
+           }
+       }
+
+       return null;
+   }
+
+   /**
+    * Method to find the key a connection was registered with, on whichever
+    * loop of the group it's registered with.
+    *
+    * @param sc The connection's socket channel
+    *
+    * @return The key, or null if the connection is closed or isn't
+    *         registered with this group
+    */
+   public SelectionKey keyOf (SocketChannel sc)
+   {
+       return this.keys.get(sc);
+   }
+
+   // Method called by a loop once it has registered a new connection
+   void registered (SocketChannel sc, SelectionKey key)
+   {
+       this.keys.put(sc, key);
+   }
+
+   // Method called by a loop as it closes a connection
+   void closed (SocketChannel sc)
+   {
+       this.keys.remove(sc);
+   }
+
+   /**
+    * Method to send a response down a connection, from the loop it's 
+    * registered with. See {@link EventLoop#send send}.
+    *
+    * @param sc The socket channel down which the response should be sent
+    * @param rsp The response to send
+    */
+   public void send (SocketChannel sc, Response rsp)
+   {
+       // Local Variable Declaration
+       SelectionKey key = this.keyOf(sc);
+
+       if (key != null)
+       {
+           this.loopOf(key).send(sc, rsp);
+       }
+   }
+
+   /**
+    * Method called by a handshake worker once it has answered a client's
+    * upgrade request, to have the loop the client's connection is registered
+    * with send the answer.
+    *
+    * @param key The key of the client's connection
+    */
+   public void handshakeReady (SelectionKey key)
+   {
+       this.loopOf(key).handshakeReady(key);
+   }
+
+   /**
+    * Method to set the stage connections enter once their handshake is done.
+    *
+    * @param entrance The first stage of the server
+    */
+   public void setEntrance (Stage entrance)
+   {
+       this.entrance = entrance;
+   }
+
+   // Getters
+   public Stage getEntrance ()
+   {
+       return this.entrance;
+   }
+
+   public WorkQueue<SelectionKey> getHandshakeQueue ()
+   {
+       return this.handshakeQueue;
+   }
+
+   public EventLoop get (int index)
+   {
+       return this.loops[index];
+   }
+
+   public int size ()
+   {
+       return this.loops.length;
+   }
+
+   /* Method to check whether the platform lets more than one server socket
+    * channel bind the same port */
+   private static boolean supportsReusePort ()
+   {
+       try (ServerSocketChannel probe = ServerSocketChannel.open())
+       {
+           return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+       }
+       catch (IOException ioe)
+       {
+           return false;
+       }
+   }
+}
@@ -0,0 +1,88 @@
+package chatDB;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import websockets.WebSocketSelectionKeyAPI;
+
+/**
+ * Class to define a worker thread responsible for answering the Websocket
+ * upgrade requests read by the <code>EventLoop</code> selector threads. The
+ * costly part of a handshake, validating the headers, agreeing on the
+ * subprotocol and extensions, and hashing the client's key with SHA-1, is
+ * done here so the selector threads only move bytes. When thousands of
+ * clients reconnect at once the selector threads keep accepting and reading
+ * while the handshakes are worked through.
+ * <br><br>
+ * A small, fixed amount of these workers share one bounded queue of the keys
+ * whose request has been read. Once a response has been worked out the key is
+ * handed back to the loop it's registered with, which writes it. Each worker thread
+ * hashes with a SHA-1 digest of its own, kept by the websocket API.
+ * <br><br>
+ * The thread operates on an event loop and thus never quits until the server is
+ * shutdown.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class HandshakeWorker implements Runnable
+{
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The selector threads the handshakes were read by
+    private final EventLoopGroup server;
+
+    // Bounded queue of the keys whose upgrade request is waiting to be answered
+    private final WorkQueue<SelectionKey> queue;
+
+    // Websocket plugin used to answer the upgrade requests
+    private final WebSocketSelectionKeyAPI webSocs = WebSocketSelectionKeyAPI.getInstance();
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for a worker that takes handshakes off the queue passed,
+     * which may be shared with other workers.
+     *
+     * @param server The selector threads the finished handshakes are handed to
+     * @param queue The queue of keys whose upgrade request has been read
+     */
+    public HandshakeWorker(EventLoopGroup server, WorkQueue<SelectionKey> queue)
+    {
+        this.server = server;
+        this.queue = queue;
+    }
+
+    /* Method overriden that defines what this thread will do when its
+     * started. This thread will take batches of keys off the queue, answer
+     * each key's upgrade request and hand the key back to its selector thread
+     * to send the answer. */
+    @Override
+    public void run()
+    {
+        // Local Variable Declaration
+        List<SelectionKey> batch = new ArrayList<>();
+
+        while (true)
+        {
+            /* Block until a handshake is waiting, then take up to a batch worth
+             * of them off the queue at once */
+            this.queue.drainTo(batch);
+
+            for (SelectionKey key : batch)
+            {
+                try
+                {
+                    this.webSocs.prepareUpgrade(key);
+                }
+                catch (RuntimeException re)
+                {
+                    // The handshake is failed when it's handed back unanswered
+                    re.printStackTrace();
+                }
+
+                this.server.handshakeReady(key);
+            }
+
+            batch.clear();
+        }
+    }
+}
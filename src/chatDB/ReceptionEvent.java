@@ -1,7 +1,6 @@
 package chatDB;
 
 import java.nio.channels.SocketChannel;
-import java.util.Map;
 
 /**
  * Class to define an event object that will contain all the data that is used 
@@ -10,8 +9,9 @@ import java.util.Map;
  * <code>ReceptionWorker</code> for processing. This event will encapsulate a 
  * new log-in or registration job request. This event's data members include,
  * The <code>ReceptionRoom</code> selector thread, the socket over which the 
- * raw data was received by the <code>ReceptionRoom</code>, and the byte[] data
- * string containing the command and command dependent data. 
+ * raw data was received by the <code>ReceptionRoom</code>, the opcode of the 
+ * command and a view of the data string containing the command and command 
+ * dependent data. 
  * 
  * @author Ben Miller
  * @version 1.0
@@ -21,15 +21,15 @@ class ReceptionEvent
     // Local Variable Declaration 
     private RecptionRoom selectorThread;
     private SocketChannel socket;
-    private String command; 
-    private Map <String, String> variables;
+    private int opcode; 
+    private CommandView variables;
     
-    public ReceptionEvent(RecptionRoom chatServer, SocketChannel sc, String command, 
-                         Map<String, String> vars) 
+    public ReceptionEvent(RecptionRoom chatServer, SocketChannel sc, int opcode, 
+                         CommandView vars) 
     {
         this.selectorThread = chatServer;
         this.socket = sc; 
-        this.command = command;
+        this.opcode = opcode;
         this.variables = vars; 
     }
     
@@ -44,12 +44,12 @@ class ReceptionEvent
         return this.socket;
     }
     
-    public String getCommand()
+    public int getOpcode()
     {
-        return this.command;
+        return this.opcode;
     }
     
-    public Map<String, String> getVariables()
+    public CommandView getVariables()
     {
         return this.variables;
     }
@@ -2,9 +2,8 @@
 package chatDB;
 
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Class to define a worker thread responsible for handling 
@@ -12,8 +11,10 @@ import java.util.Map;
  * channel from the <code>ReceptionRoom</code> selector thread, creates new
  * <code>ReceptionEvents</code>, then handles the event. The event is handled by
  * first deserializing the raw byte string received from the client, next the 
- * command is dereferenced and executed. The data sent with the command is used
- * execute any commands referenced. 
+ * command is resolved to its opcode and executed by the handler in this 
+ * worker's <code>CommandTable</code>. The data sent with the command is used
+ * execute any commands referenced. Further commands can be added to the table
+ * with {@link #registerCommand registerCommand}.
  * <br><br>
  * The thread operates on an event loop and thus never quits until the server is
  * shutdown. 
@@ -37,42 +38,86 @@ public class ReceptionWorker extends Thread
     private final String FNAME  = DataSerializer.FNAME;
     private final String LNAME  = DataSerializer.LNAME;
     
-    // Queue of WaitRoomEvents to process 
-    private List<ReceptionEvent> queue = new LinkedList<>();
+    // Bounded queue of ReceptionEvents to process 
+    private WorkQueue<ReceptionEvent> queue = null;
+    
+    // The handlers of the commands this worker executes, indexed by opcode
+    private CommandTable<RecptionRoom> commands = null;
 /*----------------------------------------------------------------------------*/
     
-    /* Method to process the command data and enqueue it into the list, so 
-     * that they can be handled by the selector thread (the waiting room thread). 
+    // Class constructors 
+    public ReceptionWorker()
+    {
+        this(WorkQueue.DEFAULT_CAPACITY, WorkQueue.DEFAULT_BATCH, WorkQueue.REJECT);
+    }
+    
+    /**
+     * Constructor for a worker with an event queue of the given size. 
+     * 
+     * @param capacity The most events that can wait to be handled
+     * @param batchSize The most events handled per wake up 
+     * @param policy What to do with events that arrive when the queue is full,
+     *        {@link WorkQueue#BLOCK BLOCK}, {@link WorkQueue#DROP DROP} or 
+     *        {@link WorkQueue#REJECT REJECT}. BLOCK only holds up producers
+     *        off the event loops, the loops are turned away like REJECT.
      */
-    public void processData (RecptionRoom serverThrd, SocketChannel soc, byte data[], int count)
+    public ReceptionWorker(int capacity, int batchSize, int policy)
     {
-        // Local Variable Declaration 
-        byte[] filteredReadBuff = null;
+        this.queue = new WorkQueue<>(capacity, batchSize, policy);
         
-        // Instansiate the sub buffer array with the amount of bytes read
-        filteredReadBuff = new byte[count];
-
-        /* Get the subset of the read buffer that represents the data just read, 
-         * filtering out data in the buffer from prior reads */
-         System.arraycopy(data, 0, filteredReadBuff, 0, count);
+        // Let the client know when a command has no handler 
+        this.commands = new CommandTable<>((server, socket, params) -> 
+                                    server.unsupportedCmd(socket, params.get(CMD)));
         
-        // Deserialize the data array passed converting into a map, 'associative array'
-        Map <String, String> postData = DataSerializer.deserializeData(filteredReadBuff);
-
-        /* Create sychronized lock over the queue so that it can't be changed 
-         * while a new waitRoomEvent is being added */
-        synchronized (queue)
+        this.commands.register(LOG_IN, (server, socket, params) -> 
+                    server.login(socket, params.get(UNAME), params.get(PSSWRD)));
+        
+        // Jump to the server class to preform the new user registration
+        this.commands.register(SGN_UP, (server, socket, params) -> 
+                    server.register(socket, params.get(UNAME), params.get(PSSWRD), 
+                                            params.get(FNAME), params.get(LNAME)));
+    }
+    
+    /**
+     * Method to add a command to those this worker executes, or replace the
+     * handler of one it already does.
+     * 
+     * @param command The command, as sent as the value of the CMD key
+     * @param handler The handler that executes the command
+     * 
+     * @return The opcode the command was given
+     */
+    public int registerCommand(String command, CommandHandler<RecptionRoom> handler)
+    {
+        return this.commands.register(command, handler);
+    }
+    
+    /**
+     * Getter for the queue of events waiting on this worker, so that its depth
+     * and drain batch sizes can be monitored.
+     * 
+     * @return The worker's event queue
+     */
+    public WorkQueue<ReceptionEvent> getQueue()
+    {
+        return this.queue;
+    }
+    
+    /* Method to process the command data and enqueue it into the list, so 
+     * that they can be handled by the selector thread (the waiting room thread). 
+     * The command is viewed in place, the bytes it views are handed over to 
+     * this worker and mustn't be reused by the caller. 
+     */
+    public void processData (RecptionRoom serverThrd, SocketChannel soc, CommandView postData)
+    {
+        /* Add the new event to the queue, notifying the worker. Let the client
+         * know if the event was turned away by a full queue. */
+        if (!this.queue.offer(new ReceptionEvent(serverThrd, soc, 
+                                               CommandRegistry.resolve(postData), 
+                                               postData)) 
+            && this.queue.getPolicy() != WorkQueue.DROP)
         {
-            // Add a new ChatDataEvent to the queue 
-            queue.add(new ReceptionEvent
-            (
-                serverThrd, soc, 
-                ((postData.get(CMD)).trim()), 
-                postData
-            ));
-
-            // Notify the queue that there are new events 
-            queue.notify();
+            serverThrd.send(soc, WorkQueue.BUSY_RSP);
         }
     }
 
@@ -86,69 +131,26 @@ public class ReceptionWorker extends Thread
     public void run() 
     {
         // Local Variable Declaration 
-        ReceptionEvent entEvent; 
+        List<ReceptionEvent> batch = new ArrayList<>();
 
         /* Start event loop taht will continually try to process worker 
          * events */
         while (true)
         {
-            // Block until data is available 
-            synchronized (queue)
-            {
-                // Force the execution to pause until the queue has an item
-                while (queue.isEmpty())
-                {
-                    try
-                    {
-                        // Force the queue to wait until it's notified
-                        queue.wait();
-                    }
-                    catch(InterruptedException e)
-                    {
-                        e.printStackTrace();
-                    }
-                }
-
-                // Pop off the last WaitRoomEvent from the event queue
-                entEvent = (ReceptionEvent) queue.remove(0);
-            }
+            /* Block until data is available, then take up to a batch worth of
+             * events off the queue at once */
+            this.queue.drainTo(batch);
 
-            /* Send the command back to the command parser to be executed in the 
-             * waiting room thread. */
-            this.executeCommand(entEvent.getSelectorThread(), entEvent.getSocket(),  
-                                entEvent.getCommand(), entEvent.getVariables());
-        }
-    }    
-    
-    private void executeCommand(RecptionRoom server, SocketChannel socket, 
-                                String command, Map<String, String> params) 
-    {
-        // Switch the command byte flag
-        switch( command )
-        {
-            case LOG_IN:
-            {
-                server.login(socket, params.get(UNAME), params.get(PSSWRD));
-                break;
-            }
-            case SGN_UP:
-            {
-                // Jump to the server class to preform the new user registration
-                server.register(socket, params.get(UNAME), params.get(PSSWRD), 
-                                        params.get(FNAME), params.get(LNAME));
-                break;
-            }
-//            case LOG_OFF: 
-//            {
-//                break;
-//            }
-            default:
+            // Handle each event in the order it arrived
+            for (ReceptionEvent entEvent : batch)
             {
-                // Unsported command exception 
-                server.unsupportedCmd(socket, command);
-                
-                break;
+                // Hand the command to the handler of its opcode
+                this.commands.dispatch(entEvent.getOpcode(), entEvent.getSelectorThread(), 
+                                       entEvent.getSocket(), entEvent.getVariables());
             }
+            
+            // Empty the batch so it can be reused
+            batch.clear();
         }
     }
 }
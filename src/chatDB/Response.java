@@ -0,0 +1,134 @@
+package chatDB;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to define a response sent back to a client, such as the outcome of a
+ * command the client issued. The response is kept as its key-value entries
+ * until it's sent, and only then encoded in the encoding the client asked for,
+ * a data string laid out by <code>DataSerializer</code> for text clients or a
+ * run of {@link BinaryProtocol BinaryProtocol} entries for binary clients.
+ * <br><br>
+ * Since a binary client is sent the entries themselves, never a data string
+ * parsed back apart, it gets every value as it was put, delimiters included.
+ * The text format has no way to escape its delimiters, text clients get the
+ * same data string they always have.
+ * <br><br>
+ * A response mustn't be changed once it's been handed off to be sent, the
+ * same response may then be sent to any amount of clients.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class Response
+{
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The keys and values of the entries, in the order they were put
+    private final List<String> keys = new ArrayList<>(4);
+    private final List<String> values = new ArrayList<>(4);
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Method to add an entry to the end of this response.
+     *
+     * @param key The key, as named in the <code>DataSerializer</code>
+     * @param value The value
+     *
+     * @return This response, so that entries can be chained
+     */
+    public Response put(String key, String value)
+    {
+        this.keys.add(key);
+        this.values.add(value);
+
+        return this;
+    }
+
+    /**
+     * Method to add an entry whose value is true or false.
+     *
+     * @param key The key, as named in the <code>DataSerializer</code>
+     * @param value The value
+     *
+     * @return This response, so that entries can be chained
+     */
+    public Response put(String key, boolean value)
+    {
+        return this.put(key, String.valueOf(value));
+    }
+
+    /**
+     * Method to get the value of an entry.
+     *
+     * @param key The key of the entry
+     *
+     * @return The value last put for the key, or null if there isn't one
+     */
+    public String get(String key)
+    {
+        // Local Variable Declaration
+        int entry = this.keys.lastIndexOf(key);
+
+        return entry != -1 ? this.values.get(entry) : null;
+    }
+
+    /**
+     * Method to encode this response as a data string, as laid out by the
+     * <code>DataSerializer</code>.
+     *
+     * @return The UTF-8 bytes of the data string
+     */
+    public byte[] toText()
+    {
+        // Local Variable Declaration
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < this.keys.size(); i++)
+        {
+            if (i > 0)
+            {
+                text.append(DataSerializer.ENTRY_DELM);
+            }
+
+            text.append(this.keys.get(i)).append(DataSerializer.KV_DELM)
+                .append(this.values.get(i));
+        }
+
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method to encode this response in the binary protocol. Entries whose
+     * key has no tag are left out.
+     *
+     * @return The binary encoding of the response's entries
+     */
+    public byte[] toBinary()
+    {
+        // Local Variable Declaration
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(64);
+        int tag;
+
+        for (int i = 0; i < this.keys.size(); i++)
+        {
+            tag = BinaryProtocol.tagOf(this.keys.get(i));
+
+            if (tag != -1)
+            {
+                encoded.writeBytes(BinaryProtocol.encode(tag,
+                                   this.values.get(i).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        return encoded.toByteArray();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(this.toText(), StandardCharsets.UTF_8);
+    }
+}
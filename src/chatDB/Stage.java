@@ -0,0 +1,46 @@
+package chatDB;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import websockets.FrameLimits;
+
+/**
+ * Interface to define a stage of the chat server a connection can be in, the
+ * <code>RecptionRoom</code>, the <code>WaitingRoom</code> or a
+ * <code>ChatRoom</code>. A connection stays registered with the one
+ * <code>EventLoop</code> it was accepted on for its whole life, the stage it's
+ * in is hung on its websocket state, the <code>WebSocketData</code> attached to
+ * its key. The loop hands each message it reads to the connection's stage, and
+ * moving a connection to another stage only swaps the stage hung on it.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public interface Stage
+{
+    /**
+     * Method called by the loop a connection is registered with for every
+     * complete message the connection sends while it's in this stage. The
+     * message should be handed off to a worker thread for processing.
+     *
+     * @param loop The loop that read the message
+     * @param sc The connection the message came from
+     * @param cmd The message, viewed in place
+     */
+    public void processData(EventLoop loop, SocketChannel sc, CommandView cmd);
+
+    /**
+     * Method called by the loop a connection is registered with when the
+     * connection is closed while it's in this stage, so the stage can forget
+     * it.
+     *
+     * @param key The key of the connection
+     */
+    public void disconnect(SelectionKey key);
+
+    /**
+     * @return The most payload a connection's frames and messages may carry
+     *         while it's in this stage
+     */
+    public FrameLimits getFrameLimits();
+}
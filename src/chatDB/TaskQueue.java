@@ -0,0 +1,294 @@
+
+package chatDB;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import websockets.OutboundQueue;
+import websockets.WebSocketData;
+import websockets.WebSocketSelectionKeyAPI;
+
+/**
+ * Class to define the queue of <code>ChangeRequest</code>s, tasks, handed to a
+ * selector thread by other threads. Any amount of worker threads may add tasks
+ * to the queue while only the selector thread that owns it takes them off, at
+ * the top of each pass of its event loop. The queue is lock free, so workers
+ * never block each other or the selector thread while handing off work.
+ * <br><br>
+ * Frames sent to a connection are queued on the connection's own
+ * <code>OutboundQueue</code>, kept in its <code>WebSocketData</code>, and
+ * requests to flip the connection to write readiness are coalesced. Only the
+ * first request made for a connection is queued, further requests made before
+ * the selector thread gets to it are dropped, since the one request already
+ * covers every frame waiting to be written. A flag kept in the connection's
+ * <code>WebSocketData</code> tracks whether a request is outstanding.
+ * <br><br>
+ * Frames sent by the selector thread itself skip the queue altogether when 
+ * nothing is waiting on the connection, they're written straight through.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class TaskQueue
+{
+//------------------------ PRIVATE DATA MEMBERS ----------------------------
+   // The tasks waiting to be run by the selector thread
+   private final Queue<ChangeRequest> tasks = new ConcurrentLinkedQueue<>();
+
+   // The selector of the thread that runs the tasks
+   private final Selector selector;
+   
+   // The selector thread that runs the tasks, set once its loop starts
+   private volatile Thread owner = null;
+   
+   // Websocket plugin used to release frames written straight through
+   private final WebSocketSelectionKeyAPI webSocs = WebSocketSelectionKeyAPI.getInstance();
+//--------------------------------------------------------------------------
+
+   /**
+    * Constructor for a queue of tasks for the given selector's thread.
+    *
+    * @param selector The selector woken up when a task is added
+    */
+   public TaskQueue (Selector selector)
+   {
+       this.selector = selector;
+   }
+
+   /**
+    * Method to add a task to the queue and wake up the selector thread so it
+    * can run it.
+    *
+    * @param task The task to be run by the selector thread
+    */
+   public void submit (ChangeRequest task)
+   {
+       this.tasks.offer(task);
+
+       this.selector.wakeup();
+   }
+
+   /**
+    * Method called by the selector thread as its event loop starts, so that
+    * frames sent from that thread can be written straight through.
+    * 
+    * @param owner The selector thread that runs the tasks
+    */
+   public void setOwner (Thread owner)
+   {
+       this.owner = owner;
+   }
+   
+   /**
+    * Method to frame up a response and send it down a channel of this 
+    * queue's selector. The response is sent as a data string in a text frame,
+    * unless the client agreed to the {@link BinaryProtocol BinaryProtocol} 
+    * during the handshake, then its entries are encoded in the binary 
+    * protocol and sent in a binary frame. If the client agreed to 
+    * permessage-deflate the data is compressed, unless it's too small to be 
+    * worth it. The frame is dropped if the channel has left this selector or
+    * too many frames are waiting on it.
+    *
+    * @param sc The socket channel the response should be sent down
+    * @param rsp The response
+    */
+   public void send (SocketChannel sc, Response rsp)
+   {
+       // Local Variable Declaration
+       SelectionKey key = sc.keyFor(this.selector);
+       ByteBuffer[] frame = null;
+       ByteBuffer payload;
+       byte opcode;
+
+       if (key == null)
+       {
+           return;
+       }
+
+       // Encode the response in the encoding the client asked for
+       if (BinaryProtocol.isBinary(key.attachment()))
+       {
+           payload = ByteBuffer.wrap(rsp.toBinary());
+           opcode = WebSocketSelectionKeyAPI.OP_BINARY;
+       }
+       else
+       {
+           payload = ByteBuffer.wrap(rsp.toText());
+           opcode = WebSocketSelectionKeyAPI.OP_TEXT;
+       }
+
+       // Compress the data if the client agreed to it and it's worth it
+       if ((ChatRoom.encodingOf(key.attachment()) & ChatRoom.DEFLATED) != 0)
+       {
+           frame = this.webSocs.shareDeflated(opcode, payload);
+       }
+
+       if (frame == null)
+       {
+           frame = this.webSocs.frame(payload, opcode);
+       }
+
+       // The frame is still ours if it wasn't taken
+       if (!this.send(key, frame))
+       {
+           this.webSocs.release(frame);
+       }
+   }
+
+   /**
+    * Method to send a frame down a channel of this queue's selector. See 
+    * {@link #send(SelectionKey, ByteBuffer[]) send}.
+    *
+    * @param sc The socket channel the frame should be written to
+    * @param frame The frame to be written
+    * 
+    * @return true if the frame was written or queued, false if the channel 
+    *         isn't in this selector, its outbound queue is full or the write 
+    *         failed. The caller still owns a frame that wasn't taken.
+    */
+   public boolean send (SocketChannel sc, ByteBuffer[] frame)
+   {
+       // Local Variable Declaration
+       SelectionKey key = sc.keyFor(this.selector);
+
+       return key != null && this.send(key, frame);
+   }
+   
+   /**
+    * Method to send a frame down the channel of the given key. When the 
+    * caller is the selector thread and no frames are waiting on the channel 
+    * the frame is written straight through, a frame that goes out whole 
+    * costs a single write and no trip around the event loop. Only when the 
+    * socket's buffer fills up is the rest of the frame queued and the key 
+    * flipped to write readiness.
+    * <br><br>
+    * Any other thread queues the frame on the connection's outbound queue,
+    * kept in its <code>WebSocketData</code>, and asks the selector thread to 
+    * flip the key to write readiness. No request is queued if one for the 
+    * channel is already waiting to be run.
+    *
+    * @param key The key of the channel the frame should be written to
+    * @param frame The frame to be written
+    * 
+    * @return true if the frame was written or queued, false if the channel 
+    *         has no websocket state, its outbound queue is full or the write 
+    *         failed. The caller still owns a frame that wasn't taken.
+    */
+   public boolean send (SelectionKey key, ByteBuffer[] frame)
+   {
+       // Local Variable Declaration
+       Object state = key.attachment();
+       OutboundQueue queue;
+       
+       // Give up if there is nowhere to put the frame 
+       if (!(state instanceof WebSocketData))
+       {
+           return false;
+       }
+       
+       queue = ((WebSocketData) state).getOutbound();
+       
+       // See if this is the selector thread, it may write to the channel 
+       if (Thread.currentThread() == this.owner)
+       {
+           /* Hold the queue's lock so that no other thread can queue a frame 
+            * in between the write and queueing the rest of this frame */
+           synchronized (queue)
+           {
+               // Frames already waiting have to go first 
+               if (queue.isEmpty())
+               {
+                   try
+                   {
+                       ((SocketChannel) key.channel()).write(frame);
+                   }
+                   catch (IOException ioe)
+                   {
+                       // The channel is broken, its read will close it 
+                       return false;
+                   }
+                   
+                   // Done if the whole frame went out 
+                   if (WebSocketSelectionKeyAPI.isWritten(frame))
+                   {
+                       this.webSocs.release(frame);
+                       
+                       return true;
+                   }
+               }
+               
+               // Queue the frame, or what's left of it
+               if (!queue.offer(frame))
+               {
+                   return false;
+               }
+           }
+           
+           // This is the selector thread, change the interest op directly
+           if (key.isValid())
+           {
+               key.interestOps(SelectionKey.OP_WRITE);
+           }
+           
+           return true;
+       }
+
+       // Queue the frame, giving up if there is no room for it 
+       if (!queue.offer(frame))
+       {
+           return false;
+       }
+       
+       // Only queue a request if there isn't one already waiting
+       if (((WebSocketData) state).requestWrite())
+       {
+           this.submit(new ChangeRequest((SocketChannel) key.channel(), 
+                                         ChangeRequest.CHANGEOPS,
+                                         SelectionKey.OP_WRITE));
+       }
+       
+       return true;
+   }
+
+   /**
+    * Method run by the selector thread to take the next task off the queue.
+    *
+    * @return The next task or null if the queue is empty
+    */
+   public ChangeRequest poll ()
+   {
+       return this.tasks.poll();
+   }
+
+   /**
+    * Method run by the selector thread to change the interest ops of a key as
+    * asked by a CHANGEOPS task. The connection's outstanding write request is
+    * cleared first, so that data queued from here on asks for a new one.
+    *
+    * @param key The key of the channel named in the task, may be null if the
+    *        channel has since left the selector
+    * @param ops The interest ops to set
+    */
+   public static void changeOps (SelectionKey key, int ops)
+   {
+       if (key != null)
+       {
+           // Let the next frame queued for the connection ask for a write
+           if (key.attachment() instanceof WebSocketData)
+           {
+               ((WebSocketData) key.attachment()).clearWriteRequest();
+           }
+
+           /* Only change the interest op if the key is still in the selector,
+            * the channel may have been closed */
+           if (key.isValid())
+           {
+               key.interestOps(ops);
+           }
+       }
+   }
+}
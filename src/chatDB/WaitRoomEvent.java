@@ -2,14 +2,14 @@
 package chatDB;
 
 import java.nio.channels.SocketChannel;
-import java.util.Map;
 
 /**
  * Class to define an event object containing the data that represents a new 
  * <code>WaitingRoom</code> job request. This event object contains a handle to 
  * the WaitingRoom selector thread that spawned this event, the socket over 
- * which the data for this event was sent and the deserialized associative 
- * mapping of the data that is connected to this <code>WaitingRoomEvent</code>. 
+ * which the data for this event was sent, the opcode of the command sent and 
+ * the <code>CommandView</code> of the data that is connected to this 
+ * <code>WaitingRoomEvent</code>. 
  * These events are created by <code>WaitingRoom</code> selector thread and
  * handled by the <code>WaitingRoomWorker</code> thread.
  * 
@@ -21,12 +21,15 @@ class WaitRoomEvent
     // Local Variable Declaration 
     private WaitingRoom wtrThread;
     private SocketChannel socket;
-    private Map<String, String> vars;
+    private int opcode;
+    private CommandView vars;
     
-    public WaitRoomEvent(WaitingRoom wrtrd, SocketChannel sc, Map vars) 
+    public WaitRoomEvent(WaitingRoom wrtrd, SocketChannel sc, int opcode, 
+                         CommandView vars) 
     {
         this.wtrThread = wrtrd;
         this.socket = sc; 
+        this.opcode = opcode;
         this.vars = vars;
     }
     
@@ -41,7 +44,12 @@ class WaitRoomEvent
         return this.socket;
     }
     
-    public Map<String, String> getVariables()
+    public int getOpcode()
+    {
+        return this.opcode;
+    }
+    
+    public CommandView getVariables()
     {
         return vars;
     }
@@ -8,31 +8,27 @@ package chatDB;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import websockets.FrameLimits;
+import websockets.WebSocketData;
 
 /**
- * Class to define a selector thread that acts as the waiting room for a client.
+ * Class to define the stage that acts as the waiting room for a client.
  * From the waiting room and client can join a chat thread and create a chat 
  * thread with other clients. The waiting room handles requests issued by clients
  * who wish to leave a given chat thread. A client must return (or be returned)
  * to the waiting room when they want to log-off this chat server. 
  * <br><br>
- * This selector thread gets <code>SocketChannel</code> connections handed to it
- * by the <code>ReceptionRoom</code>, and then listens for commands to be send
- * from the client over those <code>SocektChannel</code>s. 
+ * This stage gets connections handed to it by the <code>ReceptionRoom</code>
+ * once they've logged in, and then listens for commands to be send from the
+ * client over those <code>SocektChannel</code>s. The connections stay
+ * registered with the <code>EventLoop</code> they were accepted on, entering
+ * and leaving this stage only changes the stage hung on their websocket
+ * state, see {@link Stage Stage}.
  * 
- * In particular this selector thread can process and handle the following 
+ * In particular this stage can process and handle the following
  * commands:
  * <ul>
  *      <li>CRT_CHT</li>
@@ -44,85 +40,105 @@ import java.util.logging.Logger;
  * The client connection will be handed off to a chat room when the join or create
  * command is issued. 
  * <br><br>
- * This selector thread makes use of the <code>WaitingRooomWorker</code> worker
- * thread to handle all commands issued to this selector thread 
+ * This stage makes use of the <code>WaitingRooomWorker</code> worker
+ * thread to handle all commands issued to this stage
  * 
  * @author Ben Miller
  * @version 1.0
  */
-public class WaitingRoom implements Runnable 
+public class WaitingRoom implements Stage
 {
 //-------------------------- PRIVATE DATA MEMBERS ------------------------------
-   // Selector used to hold all the member socketchannels for this chat thread/room
-   private Selector waitSelector = null; 
-
-   // The byte into which message data will be written 
-   private ByteBuffer readBuffer = ByteBuffer.allocate(100); // DIRECT???
-    
-   // Map of a socket channel to a list of all  ByteBuffers to be written 
-   private Map <SocketChannel, List <ByteBuffer>> pendingData = new HashMap <>();
-   
-   /* List of change requests used to flip the interest ops set of theselectable 
-    * keys in the selector. */
-    private List< ChangeRequest > changeRequests = new LinkedList <> ();
-   
-    // Set to hold the selection keys, clients, marked for deletion (logging off)
-    private Set <SelectionKey> clientsToRemove = new HashSet<>();
-    
+   /* The most payload a client's frames and messages may carry in this 
+    * stage, chat room commands are small */
+   public static final FrameLimits DEFAULT_LIMITS = new FrameLimits(4 * 1024, 4 * 1024);
+   private volatile FrameLimits limits = DEFAULT_LIMITS;
+
+   // The most payload the members of the chat rooms may send
+   private volatile FrameLimits chatLimits = ChatRoom.DEFAULT_LIMITS;
+
    // Authentication worker thread used to authenticate credentials concurrently
    private WaitingRoomWorker cmdExecutor = null;
-   
-   // ChatRoom used as the chat room for this chat server
-   private ChatRoom chatThread = null;
-   
+
+   // The selector threads every connection is registered with
+   private EventLoopGroup loops = null;
+
    // Map to hold a list of all the ChatThreads by name 
    private Map <String, ChatRoom> chatThreads = new HashMap<>();
-   
+
    private Map <String, String> users = new HashMap<>();
 /*----------------------------------------------------------------------------*/
-   
-   public WaitingRoom () throws IOException 
+
+   /**
+    * Constructor for the waiting room of the server whose connections are
+    * registered with the loops passed.
+    * 
+    * @param loops The selector threads serving the server's connections
+    */
+   public WaitingRoom (EventLoopGroup loops)
    {
        // Setup temporary user credentials
        users.put("admin", "password");
-       
-       // Open up the waiting room selector 
-       this.waitSelector = Selector.open();
-   }
-   
+
+       this.loops = loops;
+   } 
+
+   /**
+    * Method to start the worker thread that handles the commands issued to
+    * this stage.
+    */
+   public void start ()
+   {
+       /* Instansiate an WaitingRoomWorker */
+       this.cmdExecutor = new WaitingRoomWorker();
+
+       /* Start up the authentication worker thread, so it's ready to
+        * process authentication jobs */
+       this.cmdExecutor.start();
+   } 
+
    /**
-    * Method to add a socket channel to the selector managed by this ChatRoom 
-    *
-    * @param sc The socket channel to register on this thread's selector
+    * Method to move a connection into this stage. Its key stays registered
+    * with the loop it was accepted on, only the stage hung on its websocket
+    * state changes.
     * 
-    * @throws java.io.IOException
+    * @param key The key of the connection
     */
-   public void addContact (SocketChannel sc) throws IOException
+   public void addContact (SelectionKey key)
    {
-       // Make sure the socekt channel is non-blocking
-       sc.configureBlocking(false);
-
-       /* Register the new socket channel with the chatSelector. Set the 
-        * op-code for this key to read. This is done to facilitate the 
-        * resting position of this server, which is to wait on the client*/
-       sc.register(this.waitSelector, SelectionKey.OP_READ);
-       
-       // Wakeup the chatSelector so that this new connection can be included
-       this.waitSelector.wakeup();
-   }
+       ((WebSocketData) key.attachment()).attach(this);
+   } 
 
     /**
-     * Take the given socket channel's key out of the selector for this chat 
-     * thread.
+     * Method to find the key of a contact in this stage. Nothing is changed, 
+     * it's up to the caller to move the connection into another stage.
+     * 
+     * @param sc The socket channel of the contact
      * 
-     * @param sc The socket channel to remove from this thread's selector
+     * @return The connection's key, or null if the connection has closed or
+     *         isn't in this stage
      */
-    public void removeContact (SocketChannel sc) 
-    {
-        // Deregister a socket channel from
-        sc.keyFor(this.waitSelector).cancel();       
-    }
-    
+    public SelectionKey findContact (SocketChannel sc)
+    {        
+        // Local Variable Declaration 
+        SelectionKey key = this.loops.keyOf(sc);
+
+        return key != null && EventLoop.stageOf(key) == this ? key : null;
+    }    
+
+    /**
+     * Allows for the passing of WaitingRoomWorker jobs to this waiting room's
+     * command executor by threads outside this one, such as the workers of the
+     * chat rooms.
+     * 
+     * @param sc The channel involved in the command to executed.
+     * @param cmd The command to be executed, as already parsed by the caller.
+     */
+    public void doTask (SocketChannel sc, CommandView cmd)
+    {        
+        this.cmdExecutor.processData(this, sc, cmd);
+    }    
+
     /**
      * Method to create a new ChatThread. The chat thread will be empty and 
      * ready to join. Confirmation of the new thread's creation will be sent 
@@ -134,44 +150,25 @@ public class WaitingRoom implements Runnable
      * @param chatName The name of the new ChatRoom.
      */
     public void createChatThread (SocketChannel sc, String chatName)
-    {
+    {        
         // Local Variable Declaration 
         ChatRoom newChat = null; 
-        String rsp = ""; 
-        
-        try 
-        {
-            // See if this chat thread already exsists
-            if (!this.chatThreads.containsKey(chatName))
-            {
-                // Spin up a new chat thread
-                newChat = new ChatRoom(this, chatName);
 
-                // Start it running 
-                new Thread(newChat, chatName + " Chat Thread").start();
+        // See if this chat thread already exsists
+        if (!this.chatThreads.containsKey(chatName))
+        {
+            /* Create the new chat room. Its members stay with the loops they
+             * were accepted on, so no new thread is needed */
+            newChat = new ChatRoom(this, chatName, this.loops);
 
-                // Let the client know that the chat was successfully created 
-                this.send
-                (
-                    sc, (DataSerializer.ERRORED + DataSerializer.KV_DELM + 
-                         "false").getBytes()
-                );
+            // Let the client know that the chat was successfully created 
+            this.send(sc, new Response().put(DataSerializer.ERRORED, false));
 
-                // Add the new chat thread to the list of chat threads 
-                this.chatThreads.put(chatName, newChat);
-            }
+            // Add the new chat thread to the list of chat threads 
+            this.chatThreads.put(chatName, newChat);
         } 
-        catch (IOException ex) 
-        {
-            // Build response string 
-            rsp = DataSerializer.ERRORED + DataSerializer.KV_DELM + "true"
-                + DataSerializer.ERR_MSG + DataSerializer.KV_DELM 
-                + ex.getMessage();
-            
-            Logger.getLogger(WaitingRoom.class.getName()).log(Level.SEVERE, null, ex);
-        }
-    }
-    
+    }    
+
    /**
     * Method to allow a given socket channel and therefore a remote client to 
     * enter or join a given chat thread. 
@@ -182,394 +179,188 @@ public class WaitingRoom implements Runnable
     public void joinChatThread(String chatName, SocketChannel sc)
     {        
         // Local Varaible Declaration 
-        String rsp = "";
+        Response rsp; 
         ChatRoom chatThread; 
-        
+        SelectionKey key;
+
         try 
         {
             // Look up the chatThread to join by name 
             chatThread = this.chatThreads.get(chatName);
-            
-            // Add the socket channel to the chat thread passed to this method
-            chatThread.addContact(sc);
-           
-            /* Remove the socket channel for this waiting room selector, so that
-             * communication over this socket channel is handled by the chat 
-             * thread. */
-            this.removeContact(sc);
-        
-            // Build response string
-            rsp = DataSerializer.ERRORED + "=" + "false";  
-            
+
+            /* Take the connection out of this waiting room and put it in the
+             * chat thread passed to this method, communication over this
+             * socket channel is handled by the chat thread from now on. */
+            if ((key = this.findContact(sc)) == null)
+            {
+                return;
+            }
+
+            chatThread.addContact(key);
+
+            // Build response string 
+            rsp = new Response().put(DataSerializer.ERRORED, false);  
+
             // Have the ChatRoom send the response message back to the clinet 
-            chatThread.send(sc, rsp.getBytes());
+            chatThread.send(sc, rsp);
         } 
         catch (IOException ioe) 
         {
             // Build response string 
-            rsp = DataSerializer.ERRORED + DataSerializer.KV_DELM + "true"
-                + DataSerializer.ERR_MSG + DataSerializer.KV_DELM 
-                + ioe.getMessage();
-            
+            rsp = new Response().put(DataSerializer.ERRORED, true)
+                                .put(DataSerializer.ERR_MSG, String.valueOf(ioe.getMessage()));
+
             // Send the error message onto the client
-            this.send(sc, rsp.getBytes());
-            
+            this.send(sc, rsp);
+
             ioe.printStackTrace();
-        }
-    }
-    
+        } 
+    }    
+
     /**
      * 
      * @param chatName
      * @param sc 
      */
     public void leaveChatThread(String chatName, SocketChannel sc)
-    {
+    {        
         // Local Variable Declaration 
-        String rsp = "";
+        Response rsp; 
         ChatRoom chatThread; 
-        
-        try 
+        SelectionKey key;
+
+        // Look up the chatThread to leave by name
+        chatThread = this.chatThreads.get(chatName);
+
+        // Remove the client from the chat thread
+        key = chatThread != null ? chatThread.removeContact(sc) : null;
+
+        if (key != null)
         {
-            // Look up the chatThread to leave by name 
-            chatThread = this.chatThreads.get(chatName);
-            
-            // Register (move) the socketchannel to this selector thread's selector
-            this.addContact(sc);
-            
-            // Remove the client from the chat thread 
-            chatThread.removeContact(sc);
-            
+            // Move the client's connection back into this waiting room
+            this.addContact(key);
+
             /* Send a message to the other members of the chat thread that a user 
              * has left */
-            chatThread.multiplex(null, ("Member left: " + sc.toString()).getBytes());
-            
+            chatThread.multiplex(null, ByteBuffer.wrap(("Member left: " 
+                                                        + sc.toString()).getBytes()));
+
             // Build a response string 
-            rsp = DataSerializer.ERRORED + "=false";
-            
-            // Send a success response to the client from this selector thread 
-            this.send(sc, rsp.getBytes());
-        }
-        catch(IOException ioe)
+            rsp = new Response().put(DataSerializer.ERRORED, false);
+        } 
+        else
         {
             // Build response string 
-           rsp = DataSerializer.ERRORED + DataSerializer.KV_DELM + "true"
-                + DataSerializer.ERR_MSG + DataSerializer.KV_DELM 
-                + ioe.getMessage();
-            
-            // Send the error message onto the client
-            this.send(sc, rsp.getBytes());
-            
-            ioe.printStackTrace();
-        }
-    }
-    
+            rsp = new Response().put(DataSerializer.ERRORED, true)
+                                .put(DataSerializer.ERR_MSG, "Not a member of the chat " + chatName);
+        } 
+
+        // Send the response to the client
+        this.send(sc, rsp);
+    }    
+
     /**
      * 
      * 
      * @param sc 
      */
     public void logOff (SocketChannel sc)
-    {
+    {        
         // Local Variable Declaration 
-        String rsp = ""; 
-                
+        Response rsp; 
+        SelectionKey key = this.loops.keyOf(sc);
+
         // Log the time the client was signed off
         System.out.println("Client Logged-off: " + sc.toString());
-        
+
         // Build response string 
-        rsp = DataSerializer.ERRORED + DataSerializer.KV_DELM + "false";
-        
+        rsp = new Response().put(DataSerializer.ERRORED, false);
+
         // Send the message back 
-        this.send(sc, rsp.getBytes());
-    
-        // Mark the socket, client, for removal by adding it to the set
-        this.clientsToRemove.add(sc.keyFor(this.waitSelector));
-    }
-    
+        this.send(sc, rsp);
+
+        /* Have the client's loop close the connection once the response has
+         * been written */
+        if (key != null)
+        {
+            this.loops.loopOf(key).closeAfterWrite(sc);
+        } 
+    }    
+
     public void unSupportedCmd(SocketChannel sc, String command) 
-    {
+    {        
         // Local Variable Declaration 
-        String rsp = ""; 
-        
+        Response rsp; 
+
         // Build response string 
-        rsp = DataSerializer.ERRORED + DataSerializer.KV_DELM + "true"
-            + DataSerializer.ENTRY_DELM + DataSerializer.ERR_MSG 
-            + DataSerializer.KV_DELM + "The command " + command 
-            + " issued is unsupported.";
-        
+        rsp = new Response().put(DataSerializer.ERRORED, true)
+                            .put(DataSerializer.ERR_MSG, "The command " + command 
+                                                         + " issued is unsupported.");
+
         // Send response to the client
-        this.send(sc, rsp.getBytes());
-    }
+        this.send(sc, rsp);
+    }    
 /******************************************************************************/    
     /**
      * 
-     * @param sc
-     * @param data 
+     * @param sc 
+     * @param rsp 
      */
-    public void send (SocketChannel sc, byte[] data)
-    {
-        /* Get a lock from the changeRequests List object, so that any thread  
-         * that accesses the list will have to wait until a current thread is 
-         * done accessing the list */
-        synchronized( this.changeRequests ) 
-        {
-            // Indicate we want the interest ops set changed
-            this.changeRequests.add(new ChangeRequest(sc, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
-            
-            // And queue the data we want written
-            synchronized (this.pendingData) 
-            {
-                 /* Get the queue of byte buffers that are associated with the 
-                  * socket channel passed, the socket channel to be used to send 
-                  * the byte buffer to the client */   
-                 List<ByteBuffer> queue = (List<ByteBuffer>) this.pendingData.get(sc);
-
-                 // Make sure the quere returned from the Map exsisted
-                 if (queue == null) 
-                 {
-                     // If the queue is null then create an empty ArrayList queue
-                     queue = new ArrayList<ByteBuffer>();
-
-                     /* Map the passed socket to the newly created queue of byte 
-                      * buffers */
-                     this.pendingData.put(sc, queue);
-                 }
-
-                 /* Add the data that is to be sent back to the client to the 
-                  * queue */
-                 queue.add(ByteBuffer.wrap(data));
-             }
-        }
-          
-           // Finally, wake up our selecting thread so it can make the required changes
-           this.waitSelector.wakeup();
-    }
-   
-   /* Method to read data from a socket channel that is sent to this server. */
-   public void read ( SelectionKey key ) throws IOException
+    public void send (SocketChannel sc, Response rsp)
+    {        
+        /* Frame up the response in the encoding the client asked for, queue the 
+         * frame on the connection's own outbound queue and have the loop the
+         * connection is registered with write it. The frame is dropped if the
+         * connection has closed or too many frames are waiting. */
+        this.loops.send(sc, rsp);
+    }    
+
+   /* Method called by the loop a client's connection is registered with for
+    * every complete message the client sends while in this stage. The
+    * message is handed off to the command executor for processing */
+   @Override
+   public void processData (EventLoop loop, SocketChannel sc, CommandView cmd)
+   {
+       this.cmdExecutor.processData(this, sc, cmd);
+   } 
+
+   // Nothing is kept of the clients in this stage
+   @Override
+   public void disconnect (SelectionKey key)
    {
-       // Local Variable Declaration 
-       int bytesRead = 0; boolean clientClosed = false; 
-       
-       // Get a local handle on the channel so it can be read 
-       SocketChannel sc = (SocketChannel) key.channel();
-
-       /* Clear the read buffer so it's ready for new data */
-       this.readBuffer.clear();
-
-       try 
-       {
-           // Try reading from the channel 
-           bytesRead = sc.read(this.readBuffer); 
-       }
-       catch (IOException ioe)
-       {
-           /* If an IOException is thrown that means the connectee closed the 
-           * connection; therefore, the socketchannel should be closed, and 
-           * the key should be canceled */
-           // key.cancel(); 
-           // sc.close();
-           clientClosed = true; 
-           ioe.printStackTrace();
-       }
-       finally
-       {
-          /* Test to see if the end of the channel had been reached by the last 
-           * read operation, or if an IOException has been thrown and the socket 
-           * channel needs to close*/
-           if (bytesRead == -1 || clientClosed)
-           {
-               // Close the connection and cancel the key 
-               key.cancel();
-               sc.close();
-           }
-           else
-           {  
-                // Hand off the data to a worker thread for processing
-                this.cmdExecutor.processData(
-                    this, sc, this.readBuffer.array(), bytesRead
-                );
-           }
-       }
    } 
-   
+
+   @Override
+   public FrameLimits getFrameLimits ()
+   {
+       return this.limits;
+   } 
+
    /**
+    * Method to set the most payload a client's frames and messages may carry
+    * while it's in this stage. A client that goes over is sent a close frame 
+    * and dropped before any of the oversized payload is taken in.
     * 
-    * @param key
-    * @throws IOException 
+    * @param limits The new limits, used from the next read on
     */
-   public void write (SelectionKey key) throws IOException
+   public void setFrameLimits (FrameLimits limits)
    {
-       // Get a handle to the SocketChannel associated with the key parameter
-       SocketChannel sc = (SocketChannel) key.channel();
-
-       /* Create a flag to indicate wether or not writing should contine on 
-       * the given channel associated with the key passed */
-       boolean stop = false; 
-
-      /* Get a thread lock over the pending data map of sockets to byte 
-       * buffers */
-       synchronized( this.pendingData )
-       {
-           /* Get a list of all the buffers associated with a given socket 
-            * channel, the channel associated with the key passed */
-           List<ByteBuffer> queues =  
-               (List< ByteBuffer >)this.pendingData.get(sc);
-           
-           // Loop through the queue of data buffers and write each one
-           while (!queues.isEmpty() && !stop)
-           {
-               // Get a buffer handel to the byte buffer in the queue
-               ByteBuffer data = (ByteBuffer) queues.get(0);
-              
-               // Write the data to the channel
-               sc.write(data); 
-
-               // See if the entire buffer was written
-               if (!data.hasRemaining())
-               {   
-                   /* If the entire buffer was written then remove the buffer 
-                   * from the queue of buffers. */
-                   queues.remove(0);
-               }
-               else 
-               {
-                   /* If the data buffer still hasn't been completely drained 
-                    * then processing of buffers needs to stop. The most likely 
-                    * reason is that underlying system buffer for the socket 
-                    * channel being written to is full and so further writing 
-                    * should cease until the client has a chance to drain the 
-                    * buffer on their end. When the channel is ready for writing 
-                    * again the rest of this  buffer aswell as the other buffers 
-                    * associated with this key's socket channel will get a chance 
-                    * to be written.*/
-                   stop = true;
-               }
-           } 
-
-           // See if the queue of byte buffers is empty 
-           if (queues.isEmpty())
-           {
-              /* Since all data was for this key's socket channel was written 
-               * the selector can go back to checking to see if this key's 
-               * channel is ready for reading */
-               key.interestOps(SelectionKey.OP_READ); 
-              
-                /* Check to see if this key was marked for removal, this was it's
-                 * last write */
-                if (this.clientsToRemove.remove(key))
-                {
-                    // Cancel the key and remove it from the selector
-                    key.cancel();
-                }
-           }
-       } 
+       this.limits = limits;
    } 
-   
-    @Override
-    public void run() 
-    {
-        /* Instansiate an WaitingRoomWorker */
-        this.cmdExecutor = new WaitingRoomWorker();
-        /* Start up the authentication worker thread, so it's ready to
-        * process authentication jobs */
-        this.cmdExecutor.start();
-        
-        /* Start an event loop for this thread that will run for the life of the
-         * thread */
-        while( true )
-        {
-            try 
-            {
-                /* Process any pending change requests issued by a worker 
-                 * thread */
-                // Get a lock over changeRequests list 
-                synchronized( this.changeRequests ) 
-                {
-                    // Get an iterator over the all the change requests 
-                    Iterator <ChangeRequest> changes = 
-                                            this.changeRequests.iterator();
-
-                    // Loop through all the changes 
-                    while ( changes.hasNext() )
-                    {
-                        // Get the changes request instance
-                        ChangeRequest change = (ChangeRequest) changes.next();
-
-                        // Examine the change type 
-                        switch( change.getType() )
-                        {
-                            /* The case when the type of the ChangeRequest 
-                             * is CHANGEOPS, the request to change the
-                             * selector from looking for readiness to read 
-                             * to looking for readiness to write on a given 
-                             * socket channel. */ 
-                            case ChangeRequest.CHANGEOPS:
-                            {
-                                /* Get the key from the socSelector for the 
-                                 * channel represented in the change request */
-                                SelectionKey key = change.getSocketChannel()
-                                                         .keyFor(this.waitSelector);
-
-                                /* Change the intereste op for the key, which 
-                                 * is still attached to the selector, to the op 
-                                 * that is specified by the ChangeRequest */
-                                key.interestOps( change.getOps() );
-                            }// EndCase
-                        }// EndSwitch
-                    } // End While loop
-
-                    /* Clear change requests list so that it is ready for 
-                     * new requests */
-                    this.changeRequests.clear(); 
-                   }
-
-                /* Halt execution while the socket selector polls the
-                 * serversocket channels for read/write events */
-                this.waitSelector.select();
-
-                /* Get an iterator over the selected keys from the socSelector, 
-                 * this are keys for which a connection, read or write event 
-                 * was found. */
-                Iterator<SelectionKey> selectedKeys = this.waitSelector
-                    .selectedKeys().iterator();
-
-                // Loop through all the selected keys and process them
-                while (selectedKeys.hasNext())
-                {
-                    // Get the next key from the iterator for processing 
-                    SelectionKey key = (SelectionKey) selectedKeys.next();
-
-                    /* Make sure the key is valid, ie its not cancelled, its 
-                     * channel nor it's selector is closed */
-                    if (key.isValid())
-                    {
-                        // Check to see the channel is readable 
-                        if (key.isReadable()) 
-                        {
-                            // Read the from the channel 
-                            this.read(key);
-                        }
-                        else if (key.isWritable())
-                        {
-                            // Write to the channel 
-                            this.write(key);
-                        }
-                    }
-
-                   /* Remove the key so that it doesn't get processed 
-                    * again */ 
-                   selectedKeys.remove();
-               }
-            }
-            catch (IOException ioe)
-            {
-                ioe.printStackTrace();
-            }
-        }
-    }    
 
-    
+   /**
+    * Method to set the most payload the members of every chat room created
+    * by this waiting room may send, see {@link #setFrameLimits setFrameLimits}.
+    * 
+    * @param limits The new limits, used from the next read on
+    */
+   public void setChatFrameLimits (FrameLimits limits)
+   {
+       this.chatLimits = limits;
+   } 
 
+   public FrameLimits getChatFrameLimits ()
+   {
+       return this.chatLimits;
+   } 
 }
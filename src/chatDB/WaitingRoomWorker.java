@@ -6,9 +6,8 @@
 package chatDB;
 
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Class to define a worker thread used to create and handle 
@@ -18,7 +17,9 @@ import java.util.Map;
  * <br><br>
  * The handling of <code>WaitingRoomEvents</code> starts off with the 
  * deserialization of the byte string sent by the client. Next the command is 
- * dereferenced, matched and then executed. The thread continues to wait for 
+ * resolved to its opcode and executed by the handler in this worker's 
+ * <code>CommandTable</code>, further commands can be added to the table with 
+ * {@link #registerCommand registerCommand}. The thread continues to wait for 
  * <code>WaitingRoomEvent</code>s and processes them until this server is 
  * shutdown.
  * 
@@ -38,37 +39,95 @@ public class WaitingRoomWorker extends Thread
     private final String LEAVE_CHT  = DataSerializer.LEAVE_CHT; 
     private final String SIGN_OFF   = DataSerializer.SIGN_OFF; 
     
-    // Queue of WaitRoomEvents to process 
-    private List<WaitRoomEvent> queue = new LinkedList<>();
+    // Bounded queue of WaitRoomEvents to process 
+    private WorkQueue<WaitRoomEvent> queue = null;
+    
+    // The handlers of the commands this worker executes, indexed by opcode
+    private CommandTable<WaitingRoom> commands = null;
 /*----------------------------------------------------------------------------*/
     
-    /* Method to process the command data and enqueue it into the list, so 
-     * that they can be handled by the selector thread (the waiting room thread). 
+    // Class constructors 
+    public WaitingRoomWorker()
+    {
+        this(WorkQueue.DEFAULT_CAPACITY, WorkQueue.DEFAULT_BATCH, WorkQueue.REJECT);
+    }
+    
+    /**
+     * Constructor for a worker with an event queue of the given size. 
+     * 
+     * @param capacity The most events that can wait to be handled
+     * @param batchSize The most events handled per wake up 
+     * @param policy What to do with events that arrive when the queue is full,
+     *        {@link WorkQueue#BLOCK BLOCK}, {@link WorkQueue#DROP DROP} or 
+     *        {@link WorkQueue#REJECT REJECT}. BLOCK only holds up producers
+     *        off the event loops, the loops are turned away like REJECT.
      */
-    public void processData (WaitingRoom wtrmThrd, SocketChannel soc, byte data[], int count)
+    public WaitingRoomWorker(int capacity, int batchSize, int policy)
     {
-        // Local Variable Declaration 
-        byte[] filteredReadBuff = null;
+        this.queue = new WorkQueue<>(capacity, batchSize, policy);
         
-        // Instansiate the sub buffer array with the amount of bytes read
-        filteredReadBuff = new byte[count];
-
-        /* Get the subset set of the read buffer that represents the data 
-         * just read */
-         System.arraycopy(data, 0, filteredReadBuff, 0, count);
-         
-        // Deserialize the data array passed converting into a map, 'associative array'
-        Map <String, String> postData = DataSerializer.deserializeData(filteredReadBuff);
+        // Let the client know when a command has no handler 
+        this.commands = new CommandTable<>((selThread, socket, vars) -> 
+                                    selThread.unSupportedCmd(socket, vars.get(CMD)));
+        
+        this.commands.register(CRT_CHT, (selThread, socket, vars) -> 
+                    selThread.createChatThread(socket, vars.get(CHAT_NAME)));
+        
+        // Deleting a chat isn't supported yet, the command is ignored
+        this.commands.register(DLT_CHT, (selThread, socket, vars) -> { });
+        
+        // Attempt to join a chat thread in progress
+        this.commands.register(JOIN_CHT, (selThread, socket, vars) -> 
+                    selThread.joinChatThread(vars.get(CHAT_NAME), socket));
+        
+        this.commands.register(LEAVE_CHT, (selThread, socket, vars) -> 
+                    selThread.leaveChatThread(vars.get(CHAT_NAME), socket));
         
-        /* Create sychronized lock over the queue so that it can't be changed 
-         * while a new waitRoomEvent is being added */
-        synchronized (queue)
+        this.commands.register(SIGN_OFF, (selThread, socket, vars) -> 
+                    selThread.logOff(socket));
+    }
+    
+    /**
+     * Method to add a command to those this worker executes, or replace the
+     * handler of one it already does.
+     * 
+     * @param command The command, as sent as the value of the CMD key
+     * @param handler The handler that executes the command
+     * 
+     * @return The opcode the command was given
+     */
+    public int registerCommand(String command, CommandHandler<WaitingRoom> handler)
+    {
+        return this.commands.register(command, handler);
+    }
+    
+    /**
+     * Getter for the queue of events waiting on this worker, so that its depth
+     * and drain batch sizes can be monitored.
+     * 
+     * @return The worker's event queue
+     */
+    public WorkQueue<WaitRoomEvent> getQueue()
+    {
+        return this.queue;
+    }
+    
+    /* Method to process the command data and enqueue it into the list, so 
+     * that they can be handled by the selector thread (the waiting room thread). 
+     * The command is viewed in place, the bytes it views are handed over to 
+     * this worker and mustn't be reused by the caller. Commands may also be 
+     * handed over by a chat room. 
+     */
+    public void processData (WaitingRoom wtrmThrd, SocketChannel soc, CommandView postData)
+    {
+        /* Add the new event to the queue, notifying the worker. Let the client
+         * know if the event was turned away by a full queue. */
+        if (!this.queue.offer(new WaitRoomEvent(wtrmThrd, soc, 
+                                                CommandRegistry.resolve(postData), 
+                                                postData)) 
+            && this.queue.getPolicy() != WorkQueue.DROP)
         {
-            // Add a new ChatDataEvent to the queue 
-            queue.add(new WaitRoomEvent(wtrmThrd, soc, postData));
-
-            // Notify the queue that there are new events 
-            queue.notify();
+            wtrmThrd.send(soc, WorkQueue.BUSY_RSP);
         }
     }
 
@@ -82,92 +141,29 @@ public class WaitingRoomWorker extends Thread
     public void run() 
     {
         // Local Variable Declaration 
-        WaitRoomEvent wrEvent; 
+        List<WaitRoomEvent> batch = new ArrayList<>();
 
         /* Start event loop taht will continually try to process worker 
          * events */
         while (true)
         {
-            // Block until data is available 
-            synchronized (queue)
-            {
-                // Force the execution to pause until the queue has an item
-                while (queue.isEmpty())
-                {
-                    try
-                    {
-                        // Force the queue to wait until it's notified
-                        queue.wait();
-                    }
-                    catch(InterruptedException e)
-                    {
-                        e.printStackTrace();
-                    }
-                }
+            /* Block until data is available, then take up to a batch worth of
+             * events off the queue at once */
+            this.queue.drainTo(batch);
 
-                // Pop off the last WaitRoomEvent from the event queue
-                wrEvent = (WaitRoomEvent) queue.remove(0);
-            }
-
-            /* Send the command back to the command parser to be executed in the 
-             * waiting room thread. */
-            this.executeCommand
-            (
-                wrEvent.getSocket(),wrEvent.getWaitingRoomThread(),
-                wrEvent.getVariables().get(CMD),
-                wrEvent.getVariables()
-            );                                
-        }
-    }    
-
-        /**
-     * Method to parse a command issued by the client to this server.
-     * 
-     * @param socket The SocketChannel over which the command to parse was sent.
-     * 
-     * @param parameters The command data
-     */
-    private void executeCommand(SocketChannel socket, WaitingRoom selThread, 
-                                String command, Map<String, String> vars) 
-    {
-        // Switch the command byte flag
-        switch( command )
-        {
-            case CRT_CHT: 
-            {
-                selThread.createChatThread(socket, vars.get(CHAT_NAME));
-                
-                break; 
-            }
-            case DLT_CHT:
-            {
-                break;
-            }
-            case JOIN_CHT:
-            {
-                // Attempt to join a chat thread in progress
-                selThread.joinChatThread(vars.get(CHAT_NAME), socket);
-                
-                break; 
-            }
-            case LEAVE_CHT:
-            {
-                selThread.leaveChatThread(vars.get(CHAT_NAME), socket);
-                
-                break;
-            }
-            case SIGN_OFF:
-            {
-                selThread.logOff(socket);
-                
-                break;
-            }
-            default:
+            // Handle each event in the order it arrived
+            for (WaitRoomEvent wrEvent : batch)
             {
-                selThread.unSupportedCmd(socket, command);
-                
-                break; 
+                // Hand the command to the handler of its opcode
+                this.commands.dispatch
+                (
+                    wrEvent.getOpcode(), wrEvent.getWaitingRoomThread(),
+                    wrEvent.getSocket(), wrEvent.getVariables()
+                );
             }
+            
+            // Empty the batch so it can be reused
+            batch.clear();
         }
     }
 }
@@ -0,0 +1,216 @@
+package chatDB;
+
+import java.util.List;
+
+/**
+ * Class to define the bounded queue of events handed from a selector thread to
+ * a worker thread. Events are held in a fixed size ring, so a flood of
+ * messages can't grow the heap without limit. The worker drains the queue in
+ * batches, each time it wakes up it takes up to a batch worth of events off
+ * the queue with one acquisition of the queue's lock.
+ * <br><br>
+ * What happens when an event is offered to a full queue is decided by the
+ * queue's overflow policy:
+ * <ul>
+ *      <li>BLOCK, the producer waits until the worker makes room. Only
+ *          producers off the event loops may be held up, a loop that waited
+ *          would stall every connection registered with it, so events a loop
+ *          offers to a full BLOCK queue are rejected instead</li>
+ *      <li>DROP, the event is silently thrown away</li>
+ *      <li>REJECT, the event is refused and the producer is expected to let
+ *          the client know with an error message</li>
+ * </ul>
+ *
+ * The queue keeps track of its depth, the size of the last batch drained and
+ * the amount of events it had to turn away, so that they can be monitored.
+ *
+ * @param <E> The type of event held in the queue
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class WorkQueue<E>
+{
+    // Overflow policies
+    public static final int BLOCK  = 1;
+    public static final int DROP   = 2;
+    public static final int REJECT = 3;
+
+    // Defaults used by the worker threads
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_BATCH    = 64;
+    
+    // Response sent to a client whose event was rejected by a full queue 
+    public static final Response BUSY_RSP = new Response()
+        .put(DataSerializer.ERRORED, true)
+        .put(DataSerializer.ERR_MSG, "The server is too busy to handle the request, try again");
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The slots events are held in
+    private final Object[] events;
+
+    // Index of the event at the head of the ring and the amount of events held
+    private int head = 0, count = 0;
+
+    // What to do with an event offered to a full queue
+    private final int policy;
+
+    // The most events taken off the queue per drain
+    private final int batchSize;
+
+    // Metrics
+    private volatile int lastBatch = 0, maxDepth = 0;
+    private volatile long overflowed = 0;
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for a new, empty queue.
+     *
+     * @param capacity The most events the queue holds
+     * @param batchSize The most events taken off the queue per drain
+     * @param policy The overflow policy, BLOCK, DROP or REJECT
+     */
+    public WorkQueue(int capacity, int batchSize, int policy)
+    {
+        this.events = new Object[capacity > 0 ? capacity : DEFAULT_CAPACITY];
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH;
+        this.policy = policy;
+    }
+
+    /**
+     * Method to add an event to the tail of the queue and wake up the worker.
+     * When the queue is full the event is handled by the queue's overflow
+     * policy.
+     *
+     * @param event The event to add
+     *
+     * @return true if the event was added, false if it was dropped or 
+     *         rejected, or turned away from a full BLOCK queue because it was
+     *         offered by an event loop
+     */
+    public synchronized boolean offer(E event)
+    {
+        /* Wait for room in the queue if producers are to be held up, unless 
+         * the producer is an event loop, which must never wait on a worker */
+        while (this.count == this.events.length && this.policy == BLOCK
+               && EventLoop.current() == null)
+        {
+            try
+            {
+                this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        // Turn the event away if there is no room for it
+        if (this.count == this.events.length)
+        {
+            this.overflowed++;
+
+            return false;
+        }
+
+        this.events[(this.head + this.count) % this.events.length] = event;
+        this.count++;
+
+        // Keep track of the deepest the queue has been
+        if (this.count > this.maxDepth)
+        {
+            this.maxDepth = this.count;
+        }
+
+        /* Notify the worker that there are new events. The worker only waits
+         * on an empty queue, so only the first event needs to wake it. */
+        if (this.count == 1)
+        {
+            this.notifyAll();
+        }
+
+        return true;
+    }
+
+    /**
+     * Method used by the worker to take a batch of events off the queue. The
+     * worker is blocked until at least one event is available.
+     *
+     * @param batch The list the events are added to, in the order they were
+     *        offered
+     *
+     * @return The amount of events taken off the queue
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized int drainTo(List<E> batch)
+    {
+        // Local Variable Declaration
+        int taken;
+
+        // Force the execution to pause until the queue has an item
+        while (this.count == 0)
+        {
+            try
+            {
+                // Force the queue to wait until it's notified
+                this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        // Take up to a batch worth of events, clearing their slots
+        taken = Math.min(this.count, this.batchSize);
+
+        for (int i = 0; i < taken; i++)
+        {
+            batch.add((E) this.events[this.head]);
+            this.events[this.head] = null;
+            this.head = (this.head + 1) % this.events.length;
+        }
+
+        this.count -= taken;
+        this.lastBatch = taken;
+
+        // Let any blocked producers know there is room again
+        if (this.policy == BLOCK)
+        {
+            this.notifyAll();
+        }
+
+        return taken;
+    }
+
+    // Metric getters
+    public synchronized int size()
+    {
+        return this.count;
+    }
+
+    public int capacity()
+    {
+        return this.events.length;
+    }
+
+    public int getPolicy()
+    {
+        return this.policy;
+    }
+
+    public int getLastBatchSize()
+    {
+        return this.lastBatch;
+    }
+
+    public int getMaxDepth()
+    {
+        return this.maxDepth;
+    }
+
+    public long getOverflowed()
+    {
+        return this.overflowed;
+    }
+}
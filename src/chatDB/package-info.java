@@ -25,20 +25,26 @@
  * thread will use the <code>DataSerializer</code> class. This class also defines
  * the commands and the error codes used by this server. 
  * <br><br>
- * The overall structure of the server thus is a series of selector threads 
- * through which a <code>SocketChannel</code> will move. At each selector thread
- * stage the selector thread will allow the client to send a command along with
- * the data to be processed by that command, and will then take action based on
- * that command's execution. The socket channel may be handed off to another 
- * selector thread stage, it may just wait in the current selector thread stage
- * or it may be disconnected from server altogether. The connection can be moved
- * bi-directionally through all the selector thread stages. This allows for 
- * multiple stages with a predictable outcome, or route for a connection as it 
- * works its way through the server. In this particular server's case the 
- * connection is routed through the "log-in" selector to the "waiting room" 
- * selector and finally to the "chat thread" selector. The connection is ushered 
- * back to the waiting room selector thread when the client issues the "log-off"
- * command. 
+ * The overall structure of the server thus is a series of stages through 
+ * which a <code>SocketChannel</code> will move. At each stage the client is 
+ * allowed to send a command along with the data to be processed by that 
+ * command, and the server will then take action based on that command's 
+ * execution. The socket channel may be handed off to another stage, it may
+ * just wait in the current stage or it may be disconnected from server 
+ * altogether. The connection can be moved bi-directionally through all the 
+ * stages. This allows for multiple stages with a predictable outcome, or 
+ * route for a connection as it works its way through the server. In this 
+ * particular server's case the connection is routed through the "log-in" 
+ * stage to the "waiting room" stage and finally to the "chat thread" stage.
+ * The connection is ushered back to the waiting room stage when the client 
+ * issues the "leave chat" command.
+ * <br><br>
+ * The stages don't run selector threads of their own. A fixed group of event 
+ * loop selector threads, one per processor, serves every connection, and a 
+ * connection stays registered with the loop that accepted it for its whole 
+ * life. The stage a connection is in is kept with the connection, moving it
+ * to another stage changes that one field rather than registering the 
+ * connection with another selector.
  * <br><br>
  * @author Ben Miller 
  * @version 1.0
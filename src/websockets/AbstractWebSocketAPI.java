@@ -1,6 +1,10 @@
 
 package websockets;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -37,6 +41,22 @@ public abstract class AbstractWebSocketAPI<T>
     
     // Magic string used to decode the Web-Socket key sent by the connecting client
     protected final String magicString = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    
+    /* SHA-1 digest of each thread that finishes handshakes. Looking up a new 
+     * digest for every connection is costly when thousands of clients 
+     * reconnect at once, and a digest can't be shared between threads. */
+    private static final ThreadLocal<MessageDigest> sha1 = ThreadLocal.withInitial(() ->
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(nsae);
+        }
+    });
 /*----------------------------------------------------------------------------*/    
     // Abstract Methods
     public abstract void connect(T clientConnection);
@@ -52,6 +72,29 @@ public abstract class AbstractWebSocketAPI<T>
     public void sendPing(){}
     public void disconnect(){}
     public void setClosingListener(WebsocketClosingHandler clsHndlr) {}
+    
+    /**
+     * Method to work out the {@code Sec-WebSocket-Accept} value the server 
+     * answers a client's {@code Sec-WebSocket-Key} with, the base64 encoded 
+     * SHA-1 hash of the key followed by the magic string. The calling 
+     * thread's own digest is used, so any amount of threads may call this at 
+     * the same time.
+     * 
+     * @param clientKey The key sent by the client
+     * 
+     * @return The accept value
+     */
+    protected String acceptKey(String clientKey)
+    {
+        // Local Variable Declaration 
+        MessageDigest digest = sha1.get();
+        
+        // The key and magic string are plain ascii, one byte to a char
+        digest.update(clientKey.getBytes(ISO_8859_1));
+        
+        return Base64.getEncoder().encodeToString(digest.digest(this.magicString
+                                                               .getBytes(ISO_8859_1)));
+    }
 /*----------------------------------------------------------------------------*/
     
 }
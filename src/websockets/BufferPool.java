@@ -0,0 +1,101 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class to define a pool of equally sized {@code ByteBuffer}s. Buffers are 
+ * leased from the pool, used and then released back into it, so that buffers
+ * needed over and over again (frame headers, read buffers) aren't allocated 
+ * and garbage collected for every message. 
+ * <br><br>
+ * The pool is safe to lease from and release to from any thread without 
+ * locking. It's bounded, buffers released into a full pool are simply left for
+ * the garbage collector, and leasing from an empty pool allocates a new buffer.
+ * 
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class BufferPool 
+{
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The buffers waiting to be leased 
+    private final ConcurrentLinkedQueue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+    
+    // The amount of buffers waiting in the pool
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    
+    // The capacity of every buffer in this pool 
+    private final int bufferSize;
+    
+    // The most buffers this pool will hold on to
+    private final int maxPooled;
+    
+    // Flag to indicate whether direct buffers are allocated 
+    private final boolean direct;
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for a new, empty pool.
+     * 
+     * @param bufferSize The capacity of every buffer leased from this pool
+     * @param maxPooled The most buffers kept in this pool waiting to be leased
+     * @param direct Flag to indicate whether direct buffers should be allocated
+     *        instead of heap buffers
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct)
+    {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+    
+    /**
+     * Method to lease a buffer from this pool. The buffer returned is cleared 
+     * and ready to be written into. 
+     * 
+     * @return A buffer from the pool, or a new buffer if the pool was empty
+     */
+    public ByteBuffer lease()
+    {
+        // Local Variable Declaration 
+        ByteBuffer buff = this.pooled.poll();
+        
+        // Allocate a new buffer when the pool has run dry 
+        if (buff == null)
+        {
+            return this.direct ? ByteBuffer.allocateDirect(this.bufferSize) 
+                               : ByteBuffer.allocate(this.bufferSize);
+        }
+        
+        this.pooledCount.decrementAndGet();
+        
+        return buff.clear();
+    }
+    
+    /**
+     * Method to hand a leased buffer back to this pool. The buffer must not be 
+     * used by the caller once it's been released. 
+     * 
+     * @param buff The buffer to release, buffers that didn't come from this 
+     *        pool are ignored
+     */
+    public void release(ByteBuffer buff)
+    {
+        // Only take back buffers that could have been leased from this pool
+        if (buff != null && buff.capacity() == this.bufferSize 
+                         && buff.isDirect() == this.direct && !buff.isReadOnly())
+        {
+            // Keep the buffer unless the pool is already full
+            if (this.pooledCount.incrementAndGet() <= this.maxPooled)
+            {
+                this.pooled.offer(buff);
+            }
+            else
+            {
+                this.pooledCount.decrementAndGet();
+            }
+        }
+    }
+}
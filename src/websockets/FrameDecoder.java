@@ -0,0 +1,512 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class to define an incremental decoder for the Websocket frames sent by a
+ * single client. TCP makes no promise that one read returns exactly one frame,
+ * a read may stop part way through a frame or may carry several frames at
+ * once. This decoder keeps the state of the frame being decoded between reads,
+ * so that it can be fed whatever bytes a read returned and pick up where it
+ * left off the next time.
+ * <br><br>
+ * Decoding moves through the following states for every frame:
+ * <ul>
+ *      <li>HEADER, the first two bytes holding the fin bit, opcode, mask bit
+ *          and payload length code</li>
+ *      <li>EXT_LENGTH, the 2 or 8 byte extended payload length (if any)</li>
+ *      <li>MASK, the 4 byte masking key</li>
+ *      <li>PAYLOAD, the masked payload bytes</li>
+ * </ul>
+ *
+ * Data frame payloads are unmasked into the connection's
+ * {@link PayloadBuffer PayloadBuffer} so that fragmented messages gather in
+ * one place. Control frames may arrive in between the fragments of a message,
+ * their payloads are kept apart in a small buffer of their own.
+ * <br><br>
+ * A message bigger than the decoder's stream threshold is streamed instead
+ * of gathered whole. Once a message is known to be over the threshold, from
+ * the length of one of its frames, its payload is handed over a chunk at a 
+ * time, whatever each read delivered, and the payload buffer is cleared in 
+ * between. A large message then never needs more memory than a read's worth
+ * of bytes. Streaming is off until a threshold is set, and while the caller
+ * has nowhere to hand the chunks, see {@link #setStreamable setStreamable}.
+ * <br><br>
+ * Every frame's length is checked against the decoder's 
+ * {@link FrameLimits FrameLimits} as soon as it's known, so a frame that's 
+ * too big is refused before any of its payload has been taken in.
+ * <br><br>
+ * The reserved bits of a frame must be unset, except for RSV1 on the first
+ * frame of a data message once the connection has agreed to the 
+ * permessage-deflate extension, which marks the message as compressed.
+ * <br><br>
+ * Fragments must follow one another the way RFC 6455 5.4 lays out. A
+ * continuation frame may only carry on a message that's been started, a new
+ * text or binary frame may only start a message once the last one has
+ * finished, and control frames may not be fragmented at all.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class FrameDecoder
+{
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // Decoder states
+    private static final int HEADER     = 0;
+    private static final int EXT_LENGTH = 1;
+    private static final int MASK       = 2;
+    private static final int PAYLOAD    = 3;
+
+    // Bit masks used to pick apart the frame header
+    private static final int FIN = 128, RSV = 112, RSV1 = 64, OPCODE = 15, 
+                             MASK_BIT = 128, PYLD_LENGTH = 127;
+
+    // The state the decoder is currently in
+    private int state = HEADER;
+
+    // Scratch space to gather header, extended length and mask bytes in
+    private final byte[] scratch = new byte[8];
+    private int scratchCount = 0, scratchNeeded = 2;
+
+    // Details of the frame currently being decoded
+    private boolean fin = false;
+    private byte opCode = 0, msgOpCode = 0;
+    
+    /* Whether a message has been started by a frame without its fin bit set
+     * and is waiting on continuation frames */
+    private boolean inMessage = false;
+    private long remaining = 0;
+    private final byte[] maskKeys = new byte[4];
+    private int maskDex = 0;
+    
+    // Whether the whole of the current frame has been decoded 
+    private boolean frameDone = false;
+    
+    /* Messages bigger than this are streamed, and whether the message being
+     * received is being streamed */
+    private long streamThreshold = Long.MAX_VALUE;
+    private boolean streaming = false;
+    
+    // Whether the caller can take a message a chunk at a time
+    private boolean streamable = true;
+    
+    /* The payload announced so far by the frames of the message being 
+     * received, and the most a frame and a message may carry */
+    private long messageLength = 0;
+    private FrameLimits limits = FrameLimits.DEFAULT;
+    
+    /* Whether messages may be compressed, and whether the message being 
+     * received is */
+    private boolean compressionAllowed = false, compressed = false;
+
+    // Buffers that payload bytes of data and control frames are unmasked into
+    private final PayloadBuffer payload;
+    private final PayloadBuffer controlPayload = new PayloadBuffer(125);
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for a new decoder that will gather data frame payloads into
+     * the buffer passed.
+     *
+     * @param payload The connection's payload buffer
+     */
+    public FrameDecoder(PayloadBuffer payload)
+    {
+        this.payload = payload;
+    }
+
+    /**
+     * Method to consume bytes from the buffer passed until either a complete
+     * frame has been decoded or the buffer runs dry. Call this method in a
+     * loop until it returns false, inspecting the decoder each time it
+     * returns true. Bytes left in the buffer when false is returned belong to
+     * a partial frame and have been remembered by this decoder.
+     * <br><br>
+     * While a message is being {@link #isStreaming() streamed} true is also
+     * returned when the buffer runs dry part way through a frame, so that the
+     * payload unmasked so far can be handed over as a chunk. The payload 
+     * buffer must be cleared before decoding goes on.
+     *
+     * @param in The buffer holding bytes read from the client, between its
+     *        position and limit.
+     *
+     * @return true if a complete frame was decoded, or a chunk of a streamed
+     *         message is ready, false if more bytes are needed.
+     *
+     * @throws Exception If the frame's mask bit is unset, if the payload
+     *         length is out of bounds, if the frame is over the decoder's
+     *         limits or if it's out of place in a fragmented message. These are fatal errors and the socket connection should
+     *         be closed.
+     */
+    public boolean decode(ByteBuffer in) throws Exception
+    {
+        // Keep going until a frame is done or there is nothing left to read
+        while (in.hasRemaining() || (this.state == PAYLOAD && this.remaining == 0))
+        {
+            switch (this.state)
+            {
+                case HEADER:
+                {
+                    // Wait for both header bytes to arrive
+                    if (this.gather(in))
+                    {
+                        this.parseHeader();
+                    }
+
+                    break;
+                }
+                case EXT_LENGTH:
+                {
+                    // Wait for all the bytes of the extended length
+                    if (this.gather(in))
+                    {
+                        this.parseExtendedLength();
+                    }
+
+                    break;
+                }
+                case MASK:
+                {
+                    // Wait for all four bytes of the masking key
+                    if (this.gather(in))
+                    {
+                        System.arraycopy(this.scratch, 0, this.maskKeys, 0, 4);
+                        this.maskDex = 0;
+                        this.state = PAYLOAD;
+
+                        /* Size the payload buffer for the whole frame at once, 
+                         * unless the frame is streamed through it */
+                        if (!this.isStreaming())
+                        {
+                            this.currentPayload().reserve(this.remaining);
+                        }
+                    }
+
+                    break;
+                }
+                case PAYLOAD:
+                {
+                    // Unmask as much of the payload as this read delivered
+                    int count = (int) Math.min(this.remaining, in.remaining());
+
+                    if (count > 0)
+                    {
+                        this.currentPayload().unmask(in, count, this.maskKeys, this.maskDex);
+                        this.maskDex = (this.maskDex + count) & 3;
+                        this.remaining -= count;
+                    }
+
+                    // The frame is done once its whole payload has been read
+                    if (this.remaining == 0)
+                    {
+                        this.frameDone = true;
+                        this.expect(HEADER, 2);
+
+                        return true;
+                    }
+
+                    /* Hand over what a streamed message has gathered so far 
+                     * once the read runs dry */
+                    if (this.isStreaming() && !in.hasRemaining() && this.payload.length() > 0)
+                    {
+                        this.frameDone = false;
+
+                        return true;
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Method to find out whether the last frame decoded finished a message.
+     * Control frames are never fragmented, so they always finish a message.
+     *
+     * @return true if the last frame decoded had its fin bit set
+     */
+    public boolean isFin()
+    {
+        return this.fin;
+    }
+
+    /**
+     * Method to find out whether the whole of the last frame was decoded, or
+     * just a chunk of a streamed one.
+     *
+     * @return true if the last frame decoded is complete
+     */
+    public boolean isFrameDone()
+    {
+        return this.frameDone;
+    }
+
+    /**
+     * Method to find out whether the message the last frame decoded belongs to
+     * is being streamed. The payload buffer then only holds the chunk of the 
+     * message received since it was last cleared. Control frames are never 
+     * streamed.
+     *
+     * @return true if the message is being streamed
+     */
+    public boolean isStreaming()
+    {
+        return this.streaming && !this.isControl();
+    }
+
+    /**
+     * Method to set the size above which a message is streamed rather than 
+     * gathered whole. Takes effect from the next message.
+     *
+     * @param threshold The size in bytes, Long.MAX_VALUE never streams
+     */
+    public void setStreamThreshold(long threshold)
+    {
+        this.streamThreshold = threshold >= 0 ? threshold : Long.MAX_VALUE;
+    }
+
+    public long getStreamThreshold()
+    {
+        return this.streamThreshold;
+    }
+
+    /**
+     * Method to set whether the caller can take a message a chunk at a time.
+     * A caller that can't has every message gathered whole, whatever the
+     * stream threshold, held to the decoder's limits. Takes effect from the
+     * next frame header.
+     *
+     * @param streamable Whether messages over the threshold may be streamed
+     */
+    public void setStreamable(boolean streamable)
+    {
+        this.streamable = streamable;
+    }
+
+    /**
+     * Method to set the most payload a frame and a message may carry, checked
+     * from the next frame header on.
+     *
+     * @param limits The limits, null for {@link FrameLimits#DEFAULT DEFAULT}
+     */
+    public void setLimits(FrameLimits limits)
+    {
+        this.limits = limits != null ? limits : FrameLimits.DEFAULT;
+    }
+
+    public FrameLimits getLimits()
+    {
+        return this.limits;
+    }
+    
+    /**
+     * Method to allow data messages to be sent compressed, with RSV1 set on 
+     * their first frame, once the permessage-deflate extension is agreed on.
+     * 
+     * @param allowed Whether RSV1 may be set
+     */
+    public void setCompressionAllowed(boolean allowed)
+    {
+        this.compressionAllowed = allowed;
+    }
+    
+    /**
+     * Method to find out whether the message the last frame decoded belongs to
+     * was compressed by the client. Control frames are never compressed.
+     * 
+     * @return true if RSV1 was set on the first frame of the message
+     */
+    public boolean isCompressed()
+    {
+        return this.compressed && !this.isControl();
+    }
+
+    /**
+     * Method to get the opcode of the message the last frame decoded belongs
+     * to. Continuation frames report the opcode of the frame that started
+     * their message.
+     *
+     * @return The opcode of the message
+     */
+    public byte getOpcode()
+    {
+        return this.isControl() ? this.opCode : this.msgOpCode;
+    }
+
+    /**
+     * Method to get the buffer holding the payload of the last frame decoded.
+     * For data frames this is the connection's payload buffer with all prior
+     * fragments of the message in front of it.
+     *
+     * @return The payload buffer the last frame was unmasked into
+     */
+    public PayloadBuffer getPayload()
+    {
+        return this.currentPayload();
+    }
+
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    /* Method to parse the two header bytes gathered in the scratch space. */
+    private void parseHeader() throws Exception
+    {
+        // Local Variable Declaration
+        int byte1 = this.scratch[0], byte2 = this.scratch[1], extended;
+        boolean rsv1 = (byte1 & RSV1) == RSV1;
+
+        // Pull the fin bit and opcode out of the first byte
+        this.fin = (byte1 & FIN) == FIN;
+        this.opCode = (byte) (byte1 & OPCODE);
+
+        // Make sure this frame was masked by the client
+        if ((byte2 & MASK_BIT) != MASK_BIT)
+        {
+            // Throw and error, all inbound frames must be maasked
+            throw new Exception("All incoming frames from a client must be masked",
+                                new Throwable( WebSocketSelectionKeyAPI.NO_MASK ));
+        }
+
+        /* Only RSV1 has a meaning, and only on the first frame of a data 
+         * message once compression has been agreed on */
+        if ((byte1 & RSV & ~RSV1) != 0 
+            || (rsv1 && (!this.compressionAllowed || this.opCode == 0 || this.isControl())))
+        {
+            throw new Exception("Frame has a reserved bit set",
+                                new Throwable( WebSocketSelectionKeyAPI.RSV_SET ));
+        }
+
+        // Control frames must never be fragmented
+        if (this.isControl() && !this.fin)
+        {
+            throw new Exception("Control frames must not be fragmented",
+                                new Throwable( WebSocketSelectionKeyAPI.BAD_FRAG ));
+        }
+
+        /* A continuation frame has to carry on a message in progress, and a
+         * new message can't start before the one in progress has finished */
+        if (!this.isControl() && (this.opCode == 0) != this.inMessage)
+        {
+            throw new Exception(this.inMessage 
+                                ? "New message started before the last one finished"
+                                : "Continuation frame without a message to continue",
+                                new Throwable( WebSocketSelectionKeyAPI.BAD_FRAG ));
+        }
+
+        // Data frames without their fin bit set leave the message open
+        if (!this.isControl())
+        {
+            this.inMessage = !this.fin;
+        }
+
+        /* Data frames that start a message set the opcode every continuation
+         * frame of that message will be treated with */
+        if (this.opCode != 0 && !this.isControl())
+        {
+            this.msgOpCode = this.opCode;
+            this.streaming = false;
+            this.messageLength = 0;
+            this.compressed = rsv1;
+        }
+
+        // Control payloads don't carry over between frames
+        if (this.isControl())
+        {
+            this.controlPayload.clear();
+        }
+
+        // Determine how many bytes the payload length figure takes up
+        extended = FrameLength.extendedBytes(byte2);
+
+        if (extended > 0)
+        {
+            this.expect(EXT_LENGTH, extended);
+        }
+        else
+        {
+            this.setLength(byte2 & PYLD_LENGTH);
+        }
+    }
+
+    /* Method to parse the 16 or 64 bit unsigned, big endian payload length
+     * gathered in the scratch space */
+    private void parseExtendedLength() throws Exception
+    {
+        this.setLength(FrameLength.decode(this.scratch, 0, this.scratchNeeded));
+    }
+
+    /* Method to take in the payload length of the current frame, deciding 
+     * whether its message is to be streamed before moving on to the mask */
+    private void setLength(long length) throws Exception
+    {
+        // Local Variable Declaration
+        long gathered = this.isControl() ? 0 : this.messageLength;
+
+        /* Refuse a frame over the limits before taking in any of its payload.
+         * Control frames carry at most 125 bytes. */
+        if (length > this.limits.getMaxFrame() 
+            || length > this.limits.getMaxMessage() - gathered
+            || (this.isControl() && length > FrameLength.MAX_7_BIT))
+        {
+            throw new Exception("Frame of " + length + " bytes is over the limit",
+                                new Throwable( WebSocketSelectionKeyAPI.MSG_TOO_BIG ));
+        }
+
+        /* Stream the message once it's known to be over the threshold, if the
+         * caller can take it a chunk at a time */
+        if (!this.isControl() && this.streamable 
+            && length > this.streamThreshold - gathered)
+        {
+            this.streaming = true;
+        }
+
+        /* A message that isn't streamed is gathered in an array, which can't 
+         * hold more than 2^31 - 1 bytes */
+        if (!this.isStreaming() && length > Integer.MAX_VALUE - 8 - gathered)
+        {
+            throw new Exception("Payload length is out of bounds: " + length,
+                                new Throwable( WebSocketSelectionKeyAPI.PY_LD_LGTH ));
+        }
+
+        if (!this.isControl())
+        {
+            this.messageLength += length;
+        }
+
+        this.remaining = length;
+        this.expect(MASK, 4);
+    }
+
+    /* Method to copy bytes from the buffer into the scratch space until the
+     * amount of bytes the current state needs has been gathered. */
+    private boolean gather(ByteBuffer in)
+    {
+        while (this.scratchCount < this.scratchNeeded && in.hasRemaining())
+        {
+            this.scratch[this.scratchCount++] = in.get();
+        }
+
+        return this.scratchCount == this.scratchNeeded;
+    }
+
+    /* Method to move the decoder to the given state, expecting the given
+     * amount of bytes to be gathered in that state */
+    private void expect(int nextState, int bytes)
+    {
+        this.state = nextState;
+        this.scratchCount = 0;
+        this.scratchNeeded = bytes;
+    }
+
+    // Close (8), ping (9) and pong (10) frames are control frames
+    private boolean isControl()
+    {
+        return (this.opCode & 8) == 8;
+    }
+
+    private PayloadBuffer currentPayload()
+    {
+        return this.isControl() ? this.controlPayload : this.payload;
+    }
+}
@@ -0,0 +1,196 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class to define the encoding of the payload length of a Websocket frame, as
+ * laid out by RFC 6455. The length is packed into the low 7 bits of the second
+ * header byte when it fits, otherwise those bits hold a length code and the 
+ * length follows as an unsigned, big endian number.
+ * <ul>
+ *      <li>0 to 125, the length itself, nothing follows</li>
+ *      <li>126, the length follows in the next 16 bits</li>
+ *      <li>127, the length follows in the next 64 bits, the most significant
+ *          bit of which must be 0</li>
+ * </ul>
+ *
+ * The high bit of the second header byte is the mask bit, set on every frame
+ * sent by a client and never on a frame sent by a server. A masked frame has 
+ * its 4 byte masking key right behind the length.
+ * <br><br>
+ * Every frame encoder and decoder in this package goes through this class, so
+ * that the length of a frame is read and written the same way everywhere.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public final class FrameLength
+{
+    // The largest length packed straight into the second header byte
+    public static final int MAX_7_BIT  = 125;
+    
+    // The largest length that follows in 16 bits
+    public static final int MAX_16_BIT = 65535;
+    
+    // Length codes saying an extended length follows
+    public static final int CODE_16_BIT = 126;
+    public static final int CODE_64_BIT = 127;
+    
+    // The size of the masking key that follows the length of a masked frame
+    public static final int MASK_SIZE = 4;
+    
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The mask bit and the length bits of the second header byte
+    private static final int MASK_BIT = 0b10000000, LENGTH_BITS = 0b01111111;
+/*----------------------------------------------------------------------------*/
+
+    // Not to be instantiated
+    private FrameLength()
+    {
+    }
+    
+    /**
+     * Method to find out how many bytes of extended length follow the second
+     * header byte of a frame.
+     * 
+     * @param byte2 The second header byte, or just its length code
+     * 
+     * @return 0, 2 or 8
+     */
+    public static int extendedBytes(int byte2)
+    {
+        switch (byte2 & LENGTH_BITS)
+        {
+            case CODE_16_BIT: return 2;
+            case CODE_64_BIT: return 8;
+            default:          return 0;
+        }
+    }
+    
+    /**
+     * Method to find out how many bytes of extended length a frame with the 
+     * given payload length needs. The smallest encoding that holds the length
+     * is always used.
+     * 
+     * @param length The length of the frame's payload
+     * 
+     * @return 0, 2 or 8
+     */
+    public static int extendedBytesFor(long length)
+    {
+        return length <= MAX_7_BIT ? 0 : length <= MAX_16_BIT ? 2 : 8;
+    }
+    
+    /**
+     * Method to find the size of the whole header of a frame with the given 
+     * payload length, the two header bytes, the extended length and, if the 
+     * frame is masked, the masking key.
+     * 
+     * @param length The length of the frame's payload
+     * @param masked Whether the frame carries a masking key
+     * 
+     * @return The size of the header in bytes, at most 14
+     */
+    public static int headerSize(long length, boolean masked)
+    {
+        return 2 + extendedBytesFor(length) + (masked ? MASK_SIZE : 0);
+    }
+    
+    /**
+     * Method to write the second header byte of a frame, along with the 
+     * extended length if one is needed, into an array.
+     * 
+     * @param dst The array the frame is being written into
+     * @param offset The index of the second header byte
+     * @param length The length of the frame's payload, 0 to 2^63 - 1
+     * @param masked Whether the mask bit should be set
+     * 
+     * @return The index just past the length, where the masking key or 
+     *         payload goes
+     */
+    public static int put(byte[] dst, int offset, long length, boolean masked)
+    {
+        // Local Variable Declaration 
+        int extended = extendedBytesFor(length);
+        
+        dst[offset++] = (byte) ((masked ? MASK_BIT : 0) | lengthCode(length));
+        
+        // Write the extended length high byte first
+        for (int i = extended - 1; i >= 0; i--)
+        {
+            dst[offset++] = (byte) (length >>> (i * 8));
+        }
+        
+        return offset;
+    }
+    
+    /**
+     * Method to write the second header byte of a frame, along with the 
+     * extended length if one is needed, at the position of a buffer. The 
+     * position is moved past the bytes written.
+     * 
+     * @param dst The buffer the frame is being written into
+     * @param length The length of the frame's payload, 0 to 2^63 - 1
+     * @param masked Whether the mask bit should be set
+     * 
+     * @return The buffer passed
+     */
+    public static ByteBuffer put(ByteBuffer dst, long length, boolean masked)
+    {
+        dst.put((byte) ((masked ? MASK_BIT : 0) | lengthCode(length)));
+        
+        if (length > MAX_16_BIT)
+        {
+            dst.putLong(length);
+        }
+        else if (length > MAX_7_BIT)
+        {
+            dst.putShort((short) length);
+        }
+        
+        return dst;
+    }
+    
+    /**
+     * Method to read an extended length, the unsigned, big endian number that
+     * follows a length code of 126 or 127.
+     * 
+     * @param src The array holding the extended length
+     * @param offset The index of its high byte
+     * @param count The amount of bytes in it, 2 or 8
+     * 
+     * @return The length of the frame's payload
+     * 
+     * @throws Exception If the most significant bit of a 64 bit length is 
+     *         set. This is a fatal error and the connection should be closed.
+     */
+    public static long decode(byte[] src, int offset, int count) throws Exception
+    {
+        // Local Variable Declaration 
+        long length = 0;
+        
+        // Concatenate the length bytes together, high byte first
+        for (int i = 0; i < count; i++)
+        {
+            length = (length << 8) | (src[offset + i] & 0xFF);
+        }
+        
+        // The most significant bit of a 64 bit length must be 0
+        if (length < 0)
+        {
+            throw new Exception("Payload length is out of bounds: " 
+                                + Long.toUnsignedString(length),
+                                new Throwable( WebSocketSelectionKeyAPI.PY_LD_LGTH ));
+        }
+        
+        return length;
+    }
+    
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    // Method to find the 7 bit length or length code for a payload length
+    private static int lengthCode(long length)
+    {
+        return length <= MAX_7_BIT ? (int) length 
+             : length <= MAX_16_BIT ? CODE_16_BIT : CODE_64_BIT;
+    }
+}
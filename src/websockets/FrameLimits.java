@@ -0,0 +1,54 @@
+package websockets;
+
+/**
+ * Class to define the most payload a connection may send, checked by the 
+ * {@link FrameDecoder FrameDecoder} as soon as a frame's header has been 
+ * read, before any of its payload is taken in. A frame whose payload is 
+ * bigger than the largest frame allowed, or that would take its message past
+ * the largest message allowed, fails the connection, it's sent a close frame 
+ * with status {@link WebSocketSelectionKeyAPI#CLOSE_TOO_BIG CLOSE_TOO_BIG} 
+ * and dropped. The memory a connection can tie up is bounded no matter what 
+ * lengths a client announces.
+ * <br><br>
+ * Each stage of the server reads its connections with limits of its own, 
+ * suited to the messages it expects. Limits are immutable so that a stage's 
+ * limits can be swapped while its selector thread is reading.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public final class FrameLimits
+{
+    // Limits used by callers that don't set their own
+    public static final FrameLimits DEFAULT = new FrameLimits(1024 * 1024, 1024 * 1024);
+    
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The largest frame payload and the largest message allowed, in bytes
+    private final long maxFrame, maxMessage;
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for a new set of limits.
+     *
+     * @param maxFrame The largest payload allowed in a single frame, 0 or less
+     *        for no limit
+     * @param maxMessage The largest payload allowed across all the frames of a
+     *        message, 0 or less for no limit
+     */
+    public FrameLimits(long maxFrame, long maxMessage)
+    {
+        this.maxFrame = maxFrame > 0 ? maxFrame : Long.MAX_VALUE;
+        this.maxMessage = maxMessage > 0 ? maxMessage : Long.MAX_VALUE;
+    }
+    
+    // Getters 
+    public long getMaxFrame()
+    {
+        return this.maxFrame;
+    }
+    
+    public long getMaxMessage()
+    {
+        return this.maxMessage;
+    }
+}
@@ -0,0 +1,478 @@
+package websockets;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Class to define the policy the headers of a Websocket upgrade request are
+ * held to. The policy is compiled once, at startup, from configuration into
+ * lookup tables that are checked straight against the bytes of the request as
+ * the {@link UpgradeRequest UpgradeRequest} parses it, in the one pass over
+ * each header line. Headers the server doesn't care about are skipped without
+ * a String ever being made of them.
+ * <br><br>
+ * The policy is made up of:
+ * <ul>
+ *      <li>origins, the values of the Origin header that are allowed, a
+ *          request without an Origin header is let through</li>
+ *      <li>hosts, the values of the Host header that are allowed, without
+ *          the port. A host may start with "*." to allow any subdomain.</li>
+ *      <li>versions, the values of Sec-WebSocket-Version that are
+ *          allowed</li>
+ *      <li>extensions, the extensions the server may agree to</li>
+ * </ul>
+ *
+ * Each is a comma separated list, "*" allows any value. Every lookup table is
+ * a perfect hash, a seed is searched for at compile time that sends each of
+ * the table's entries to a slot of its own, so a lookup hashes the bytes once
+ * and compares them against a single entry. Names and values are matched
+ * ignoring ascii case, so entries that only differ by case, or are listed
+ * twice, are kept once.
+ * <br><br>
+ * The policy is read from system properties named {@code websockets.origins},
+ * {@code websockets.hosts}, {@code websockets.versions} and
+ * {@code websockets.extensions}, or from a properties file named by the
+ * {@code websockets.policy} system property with the same keys. Operators can
+ * then change the policy without a rebuild. Keys that aren't set keep their
+ * defaults.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public final class HeaderPolicy
+{
+    // The headers the policy looks at, any other header is skipped
+    public static final int UNKNOWN    = -1;
+    public static final int HOST       = 0;
+    public static final int ORIGIN     = 1;
+    public static final int KEY        = 2;
+    public static final int VERSION    = 3;
+    public static final int PROTOCOL   = 4;
+    public static final int EXTENSIONS = 5;
+    public static final int HEADERS    = 6;
+
+    // Configuration keys
+    public static final String ORIGINS_KEY    = "websockets.origins";
+    public static final String HOSTS_KEY      = "websockets.hosts";
+    public static final String VERSIONS_KEY   = "websockets.versions";
+    public static final String EXTENSIONS_KEY = "websockets.extensions";
+    public static final String FILE_KEY       = "websockets.policy";
+
+    // Defaults, as the server has always run
+    public static final String DEFAULT_ORIGINS    = "http://localhost:4200, http://localhost";
+    public static final String DEFAULT_HOSTS      = "*";
+    public static final String DEFAULT_VERSIONS   = "13";
+    public static final String DEFAULT_EXTENSIONS = PerMessageDeflate.NAME;
+
+    // The policy compiled from the defaults
+    public static final HeaderPolicy DEFAULT = new HeaderPolicy(new Properties());
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    private static final String WLD_CRD = "*";
+
+    // The names of the headers looked at, indexed by their constant
+    private static final String[] NAMES =
+    {
+        "Host", "Origin", "Sec-WebSocket-Key", "Sec-WebSocket-Version",
+        "Sec-WebSocket-Protocol", "Sec-WebSocket-Extensions"
+    };
+    private static final ByteTable names = new ByteTable(NAMES);
+
+    // The values allowed, null where any value is allowed
+    private final ByteTable origins, hosts, versions;
+
+    // The domains any subdomain of is allowed, the ".example.com" of "*.example.com"
+    private final byte[][] hostSuffixes;
+
+    // The extensions the server may agree to, null if any
+    private final List<String> extensions;
+
+    // The versions allowed, sent to a client that asked for another
+    private final String versionList;
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor to compile a policy from the properties passed. Keys that
+     * aren't set keep their defaults.
+     *
+     * @param config The properties holding the policy
+     * 
+     * @throws IllegalArgumentException If a list's lookup table couldn't be 
+     *         built
+     */
+    public HeaderPolicy(Properties config)
+    {
+        // Local Variable Declaration
+        List<String> exact = new ArrayList<>(), suffixes = new ArrayList<>();
+        String[] list;
+
+        this.origins = compile(split(config.getProperty(ORIGINS_KEY, DEFAULT_ORIGINS)));
+        this.versions = compile(split(config.getProperty(VERSIONS_KEY, DEFAULT_VERSIONS)));
+        this.versionList = config.getProperty(VERSIONS_KEY, DEFAULT_VERSIONS).trim();
+
+        // Wildcard hosts are matched by their suffix, the rest exactly
+        list = split(config.getProperty(HOSTS_KEY, DEFAULT_HOSTS));
+
+        for (String host : list)
+        {
+            if (host.startsWith("*."))
+            {
+                suffixes.add(host.substring(1));
+            }
+            else
+            {
+                exact.add(host);
+            }
+        }
+
+        this.hosts = compile(exact.toArray(new String[0]));
+        this.hostSuffixes = new byte[suffixes.size()][];
+
+        for (int i = 0; i < this.hostSuffixes.length; i++)
+        {
+            this.hostSuffixes[i] = suffixes.get(i).toLowerCase(Locale.ROOT).getBytes(ISO_8859_1);
+        }
+
+        list = split(config.getProperty(EXTENSIONS_KEY, DEFAULT_EXTENSIONS));
+        this.extensions = List.of(list).contains(WLD_CRD) ? null : List.of(list);
+    }
+
+    /**
+     * Method to compile the policy from the system properties, or from the
+     * properties file the {@code websockets.policy} system property names.
+     * The defaults are used if the file can't be read.
+     *
+     * @return The policy
+     */
+    public static HeaderPolicy fromSystemProperties()
+    {
+        // Local Variable Declaration
+        Properties config = new Properties();
+        String file = System.getProperty(FILE_KEY);
+
+        if (file != null)
+        {
+            try (InputStream in = new FileInputStream(file))
+            {
+                config.load(in);
+            }
+            catch (IOException ioe)
+            {
+                ioe.printStackTrace();
+            }
+        }
+
+        // System properties win over the file
+        for (String key : new String[] {ORIGINS_KEY, HOSTS_KEY, VERSIONS_KEY, EXTENSIONS_KEY})
+        {
+            if (System.getProperty(key) != null)
+            {
+                config.setProperty(key, System.getProperty(key));
+            }
+        }
+
+        return new HeaderPolicy(config);
+    }
+
+    /**
+     * Method to find which of the headers the policy looks at a header name
+     * is, ignoring case.
+     *
+     * @param line The bytes holding the name
+     * @param offset The index of the first byte of the name
+     * @param length The amount of bytes in the name
+     *
+     * @return The header's constant, or UNKNOWN if the header isn't looked at
+     */
+    public static int headerOf(byte[] line, int offset, int length)
+    {
+        return names.indexOf(line, offset, length);
+    }
+
+    /**
+     * @param header A header's constant
+     *
+     * @return The header's name, as the standard spells it
+     */
+    public static String nameOf(int header)
+    {
+        return NAMES[header];
+    }
+
+    /**
+     * Method to check a header value against the policy. Only the Host,
+     * Origin and Sec-WebSocket-Version headers are held to it, any value of
+     * the other headers is allowed.
+     *
+     * @param header The header's constant
+     * @param line The bytes holding the value
+     * @param offset The index of the first byte of the value
+     * @param length The amount of bytes in the value
+     *
+     * @return true if the value is allowed
+     */
+    public boolean allows(int header, byte[] line, int offset, int length)
+    {
+        switch (header)
+        {
+            case HOST:    return this.allowsHost(line, offset, length);
+
+            case ORIGIN:  return this.origins == null
+                                 || this.origins.indexOf(line, offset, length) != UNKNOWN;
+
+            case VERSION: return this.versions == null
+                                 || this.versions.indexOf(line, offset, length) != UNKNOWN;
+
+            default:      return true;
+        }
+    }
+
+    /**
+     * @param extension The name of an extension
+     *
+     * @return true if the server may agree to the extension
+     */
+    public boolean allowsExtension(String extension)
+    {
+        return this.extensions == null || this.extensions.contains(extension);
+    }
+
+    /**
+     * @return The versions allowed, as a comma separated list
+     */
+    public String getVersions()
+    {
+        return this.versionList;
+    }
+
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    /* Method to check the host of a Host header, with its port dropped. An
+     * IPv6 address keeps its brackets. */
+    private boolean allowsHost(byte[] line, int offset, int length)
+    {
+        // Local Variable Declaration
+        int end = offset + length, hostEnd = end;
+
+        if (this.hosts == null)
+        {
+            return true;
+        }
+
+        // Drop the port, the last colon after any closing bracket
+        for (int i = end - 1; i >= offset && line[i] != ']'; i--)
+        {
+            if (line[i] == ':')
+            {
+                hostEnd = i;
+                break;
+            }
+        }
+
+        if (this.hosts.indexOf(line, offset, hostEnd - offset) != UNKNOWN)
+        {
+            return true;
+        }
+
+        // See if the host is a subdomain of one allowed
+        for (byte[] suffix : this.hostSuffixes)
+        {
+            if (hostEnd - offset > suffix.length
+                && ByteTable.equalsIgnoreCase(suffix, line, hostEnd - suffix.length,
+                                              suffix.length))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Method to split a comma separated list, dropping blanks
+    private static String[] split(String list)
+    {
+        // Local Variable Declaration
+        List<String> entries = new ArrayList<>();
+
+        for (String entry : list.split(","))
+        {
+            if (!entry.isBlank())
+            {
+                entries.add(entry.trim());
+            }
+        }
+
+        return entries.toArray(new String[0]);
+    }
+
+    // Method to compile a list of values, null if the list allows any value
+    private static ByteTable compile(String[] values)
+    {
+        return List.of(values).contains(WLD_CRD) ? null : new ByteTable(values);
+    }
+
+    /**
+     * Class to define a perfect hash table of byte strings, matched ignoring
+     * ascii case. The table is at least twice the size of its entries, seeds
+     * are tried until one sends every entry to a slot of its own. Entries 
+     * that are the same once lower cased are kept once, under the index of 
+     * the first, since no seed could ever split them.
+     */
+    private static final class ByteTable
+    {
+        /* The most seeds tried, and the most times the table is doubled, 
+         * before giving up on the entries */
+        private static final int MAX_SEEDS = 64 * 1024;
+        private static final int MAX_GROWTH = 4;
+
+        // The entries, lower cased, in the slot each hashes to
+        private final byte[][] slots;
+
+        // The index each entry was given, by slot
+        private final int[] indexes;
+
+        // The seed of the hash, and the mask the hash is cut down to a slot by
+        private final int seed, mask;
+
+        // Constructor to compile the table, each entry's index is its place in the array
+        ByteTable(String[] entries)
+        {
+            // Local Variable Declaration
+            Map<String, Integer> unique = new LinkedHashMap<>();
+            byte[][] keys;
+            int[] places;
+            int size, maxSize, s = 0, k = 0;
+            byte[][] slots;
+            byte[] key;
+
+            // Lower case the entries, keeping the first of any that are the same
+            for (int i = 0; i < entries.length; i++)
+            {
+                key = entries[i].getBytes(ISO_8859_1);
+
+                for (int j = 0; j < key.length; j++)
+                {
+                    key[j] = lower(key[j]);
+                }
+
+                unique.putIfAbsent(new String(key, ISO_8859_1), i);
+            }
+
+            keys = new byte[unique.size()][];
+            places = new int[unique.size()];
+
+            for (Map.Entry<String, Integer> entry : unique.entrySet())
+            {
+                keys[k] = entry.getKey().getBytes(ISO_8859_1);
+                places[k++] = entry.getValue();
+            }
+
+            size = Integer.highestOneBit(Math.max(keys.length, 1) * 2) * 2;
+            maxSize = size << MAX_GROWTH;
+
+            // Try seeds until no two entries share a slot, growing if it takes long
+            while ((slots = place(keys, s, size - 1)) == null)
+            {
+                if (++s == MAX_SEEDS)
+                {
+                    throw new IllegalArgumentException("No perfect hash found for the "
+                                                       + keys.length + " entries "
+                                                       + unique.keySet());
+                }
+
+                if (s % 1024 == 0 && size < maxSize)
+                {
+                    size *= 2;
+                }
+            }
+
+            this.slots = slots;
+            this.seed = s;
+            this.mask = size - 1;
+            this.indexes = new int[size];
+
+            for (int i = 0; i < keys.length; i++)
+            {
+                this.indexes[hash(keys[i], 0, keys[i].length, s) & this.mask] = places[i];
+            }
+        }
+
+        // Method to find the index of an entry, UNKNOWN if it isn't in the table
+        int indexOf(byte[] data, int offset, int length)
+        {
+            // Local Variable Declaration
+            int slot = hash(data, offset, length, this.seed) & this.mask;
+
+            return this.slots[slot] != null
+                   && equalsIgnoreCase(this.slots[slot], data, offset, length)
+                   ? this.indexes[slot] : UNKNOWN;
+        }
+
+        // Method to place the keys with the seed given, null if two collide
+        private static byte[][] place(byte[][] keys, int seed, int mask)
+        {
+            // Local Variable Declaration
+            byte[][] slots = new byte[mask + 1][];
+            int slot;
+
+            for (byte[] key : keys)
+            {
+                slot = hash(key, 0, key.length, seed) & mask;
+
+                if (slots[slot] != null)
+                {
+                    return null;
+                }
+
+                slots[slot] = key;
+            }
+
+            return slots;
+        }
+
+        // Method to hash bytes, ignoring ascii case, FNV-1a mixed with the seed
+        private static int hash(byte[] data, int offset, int length, int seed)
+        {
+            // Local Variable Declaration
+            int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+
+            for (int i = offset; i < offset + length; i++)
+            {
+                h = (h ^ lower(data[i])) * 0x01000193;
+            }
+
+            return h ^ (h >>> 16);
+        }
+
+        // Method to compare a lower cased entry to bytes of any case
+        static boolean equalsIgnoreCase(byte[] entry, byte[] data, int offset, int length)
+        {
+            if (entry.length != length)
+            {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++)
+            {
+                if (entry[i] != lower(data[offset + i]))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static byte lower(byte b)
+        {
+            return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+        }
+    }
+}
@@ -25,7 +25,8 @@ public class HeaderStandards
         entry("Upgrade", List.of("")),
         entry("Accept-Encoding", List.of("gzip, deflate, br")),
         entry("Accept-Language", List.of("en-US,en;q=0.9")),
-        entry("Sec-WebSocket-Extensions", List.of("permessage-deflate; client_max_window_bits")),
+        entry("Sec-WebSocket-Extensions", List.of("permessage-deflate; client_max_window_bits", WLD_CRD)),
+        entry("Sec-WebSocket-Protocol", List.of(WLD_CRD)),
         entry("Sec-WebSocket-Version", List.of("13", WLD_CRD))
     );    
     
@@ -0,0 +1,181 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class to define a bounded ring of the frames waiting to be written to a
+ * single client. One ring is kept per connection in that connection's
+ * {@link WebSocketData WebSocketData}, which is attached to the connection's
+ * {@code SelectionKey}, so frames are queued and written without looking the
+ * connection up in a map shared by every connection of a selector thread.
+ * <br><br>
+ * Any thread may add frames to the ring while the selector thread that owns
+ * the connection takes them off as they're written. The ring is guarded by its
+ * own lock, so threads only ever wait on other threads sending to the same
+ * connection. The ring has a fixed capacity, a client that stops reading can
+ * only hold on to that many frames before further frames are refused. The
+ * ring starts out with only a few slots and doubles them as frames back up,
+ * up to its capacity, so an idle connection holds next to nothing.
+ * <br><br>
+ * Once the connection is closed the ring should be {@link #free() freed},
+ * which drops the frames still waiting and refuses any frames added later.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class OutboundQueue
+{
+    // The amount of frames a ring holds unless told otherwise
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    // The amount of slots a ring starts out with
+    public static final int INITIAL_SLOTS = 8;
+    
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The slots frames are held in, null once the ring has been freed
+    private ByteBuffer[][] frames;
+
+    // The most frames the ring may hold
+    private final int capacity;
+
+    // Index of the frame at the head of the ring and the amount of frames held
+    private int head = 0, count = 0;
+/*----------------------------------------------------------------------------*/
+
+    // Class constructors
+    public OutboundQueue()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OutboundQueue(int capacity)
+    {
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.frames = new ByteBuffer[Math.min(INITIAL_SLOTS, this.capacity)][];
+    }
+
+    /**
+     * Method to add a frame to the tail of the ring.
+     *
+     * @param frame The frame to be written, as buffers for a gathering write
+     *
+     * @return true if the frame was added, false if the ring is full or has
+     *         been freed. The caller still owns a frame that wasn't added.
+     */
+    public synchronized boolean offer(ByteBuffer[] frame)
+    {
+        // Refuse the frame if there is no room left for it
+        if (this.frames == null || this.count == this.capacity)
+        {
+            return false;
+        }
+
+        // Double the slots if they're all taken, up to the capacity
+        if (this.count == this.frames.length)
+        {
+            this.grow();
+        }
+
+        this.frames[(this.head + this.count) % this.frames.length] = frame;
+        this.count++;
+
+        return true;
+    }
+
+    /**
+     * Method to get the frame at the head of the ring without removing it. A
+     * frame that is only partly written stays at the head until it's done.
+     *
+     * @return The frame at the head of the ring, or null if it's empty
+     */
+    public synchronized ByteBuffer[] peek()
+    {
+        return this.count == 0 ? null : this.frames[this.head];
+    }
+
+    /**
+     * Method to remove the frame at the head of the ring, once it has been
+     * completely written.
+     *
+     * @return The frame removed, or null if the ring is empty
+     */
+    public synchronized ByteBuffer[] poll()
+    {
+        // Local Variable Declaration
+        ByteBuffer[] frame;
+
+        if (this.count == 0)
+        {
+            return null;
+        }
+
+        // Take the frame out of its slot so it can be collected
+        frame = this.frames[this.head];
+        this.frames[this.head] = null;
+
+        this.head = (this.head + 1) % this.frames.length;
+        this.count--;
+
+        return frame;
+    }
+
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return this.count == 0;
+    }
+
+    public synchronized int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * Method to free the ring once its connection has closed. Frames still
+     * waiting are handed back so that the caller can release them, and any
+     * frame offered afterwards is refused.
+     *
+     * @return The frames that were never written, head first
+     */
+    public synchronized ByteBuffer[][] free()
+    {
+        // Local Variable Declaration
+        ByteBuffer[][] unsent = new ByteBuffer[this.count][];
+
+        // Nothing to hand back if the ring was already freed
+        if (this.frames != null)
+        {
+            for (int i = 0; i < unsent.length; i++)
+            {
+                unsent[i] = this.frames[(this.head + i) % this.frames.length];
+            }
+
+            this.frames = null;
+            this.head = this.count = 0;
+        }
+
+        return unsent;
+    }
+
+    /* Method to double the slots of the ring, up to its capacity. The frames
+     * held are copied over head first, so the head goes back to the first 
+     * slot. */
+    private void grow()
+    {
+        // Local Variable Declaration
+        ByteBuffer[][] grown = new ByteBuffer[Math.min(this.frames.length * 2, 
+                                                       this.capacity)][];
+
+        for (int i = 0; i < this.count; i++)
+        {
+            grown[i] = this.frames[(this.head + i) % this.frames.length];
+        }
+
+        this.frames = grown;
+        this.head = 0;
+    }
+}
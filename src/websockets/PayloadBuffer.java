@@ -0,0 +1,296 @@
+package websockets;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Class to define a growable buffer of primitive bytes used to accumulate the 
+ * payload of a message as its frames arrive from a client. One buffer is kept
+ * per connection in that connection's {@link WebSocketData WebSocketData} and 
+ * is reused for every message sent over the connection, so unmasking a frame 
+ * costs no allocation unless the buffer has to grow to fit a larger message.
+ * <br><br>
+ * Payload bytes are unmasked straight into the backing array. Once a message
+ * is complete the caller either hands a view of the accumulated bytes to 
+ * whoever is interested and then clears the buffer, or {@link #detach() 
+ * detaches} the backing array and hands the bytes over for good, so that the 
+ * message can travel on without being copied.
+ * <br><br>
+ * The first {@link #HEADROOM HEADROOM} bytes of the backing array are left
+ * free in front of the payload. A message relayed to other clients can then 
+ * have the header of its outbound frame written into the array right in front
+ * of the bytes being relayed, so the unmasked bytes are sent as they lie, as a
+ * single buffer.
+ * <br><br>
+ * Unmasking is done eight bytes at a time. The 4 byte mask key is repeated 
+ * across a long and XORed over the payload a long at a time, with only the 
+ * last few bytes of a run unmasked one by one.
+ * 
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class PayloadBuffer 
+{
+    /* The bytes left free at the front of the backing array, enough for the
+     * largest header of a frame sent by the server */
+    public static final int HEADROOM = 10;
+    
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The capacity a new buffer starts out with 
+    private static final int INITIAL_CAPACITY = 256;
+    
+    /* The most room made up front for a frame, the length is sent by the 
+     * client so bigger frames are only grown into as their bytes arrive */
+    private static final int MAX_RESERVE = 1024 * 1024;
+    
+    /* View of a byte array as longs at any byte offset, in little endian 
+     * order so that the first byte of the array is the low byte of the long */
+    private static final VarHandle LONGS 
+        = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    // The backing array the payload bytes are unmasked into, after the headroom
+    private byte[] data;
+    
+    // The amount of payload bytes currently held in the backing array 
+    private int length = 0;
+    
+    /* Buffer over the backing array handed out by view(), rewrapped only when
+     * the array changes */
+    private ByteBuffer view = null;
+/*----------------------------------------------------------------------------*/
+
+    // Class constructors 
+    public PayloadBuffer() 
+    {
+        this(INITIAL_CAPACITY);
+    }
+    
+    public PayloadBuffer(int capacity)
+    {
+        this.data = new byte[HEADROOM + (capacity > 0 ? capacity : INITIAL_CAPACITY)];
+    }
+    
+    /**
+     * Method to unmask a run of masked payload bytes and append them to the 
+     * end of this buffer. Each byte is XORed with the mask key byte at its 
+     * position in the payload modulo 4. 
+     * 
+     * @param src The array holding the masked payload bytes
+     * @param srcDex The index of the first masked byte in the src array
+     * @param count The amount of bytes to unmask
+     * @param maskKeys The 4 byte masking key sent in the frame header
+     */
+    public void unmask(byte[] src, int srcDex, int count, byte[] maskKeys)
+    {
+        // Make sure there is room for the bytes about to be unmasked 
+        this.ensureCapacity(this.length + count);
+        
+        // Bulk copy the masked bytes over, then unmask them in place
+        System.arraycopy(src, srcDex, this.data, HEADROOM + this.length, count);
+        xorMask(this.data, HEADROOM + this.length, count, maskKeys, 0);
+        
+        this.length += count;
+    }
+
+    /**
+     * Method to unmask a run of masked payload bytes taken from a
+     * {@code ByteBuffer} and append them to the end of this buffer. Since a
+     * frame's payload may arrive over several reads the position of the first
+     * byte within the mask key has to be passed in. The source buffer's
+     * position is advanced past the bytes consumed.
+     *
+     * @param src The buffer holding the masked payload bytes at its position
+     * @param count The amount of bytes to unmask
+     * @param maskKeys The 4 byte masking key sent in the frame header
+     * @param maskDex The index into the mask key of the first byte unmasked
+     */
+    public void unmask(ByteBuffer src, int count, byte[] maskKeys, int maskDex)
+    {
+        // Local Variable Declaration
+        int start = HEADROOM + this.length;
+
+        // Make sure there is room for the bytes about to be unmasked
+        this.ensureCapacity(this.length + count);
+
+        // Bulk copy the masked bytes over, then unmask them in place
+        src.get(this.data, start, count);
+        xorMask(this.data, start, count, maskKeys, maskDex);
+
+        this.length += count;
+    }
+
+    /**
+     * Method to get a read only view over the bytes held in this buffer. The 
+     * view shares the backing array, so it is only valid until this buffer is 
+     * cleared or written to again.
+     * 
+     * @return A read only {@code ByteBuffer} positioned at the first payload 
+     *         byte with its limit at the last.
+     */
+    public ByteBuffer slice()
+    {
+        return ByteBuffer.wrap(this.data, HEADROOM, this.length).slice().asReadOnlyBuffer();
+    }
+    
+    /**
+     * Method to decode the bytes held in this buffer to a {@code String}
+     * without copying them out of the backing array first.
+     * 
+     * @param charset The charset used to decode the payload bytes
+     * 
+     * @return The decoded payload
+     */
+    public String toString(Charset charset)
+    {
+        return new String(this.data, HEADROOM, this.length, charset);
+    }
+    
+    /**
+     * Method to get a buffer over the bytes held in this buffer, laid out the
+     * same way as the buffer {@link #detach() detach} returns. The same 
+     * buffer is handed out every time, so getting it costs no allocation, and
+     * it's only valid until this buffer is cleared or written to again.
+     * 
+     * @return A buffer positioned at the first payload byte with its limit at
+     *         the last, backed by this buffer's array. The headroom lies in 
+     *         front of the buffer's position.
+     */
+    public ByteBuffer view()
+    {
+        // Only wrap the backing array again if it has changed
+        if (this.view == null || this.view.array() != this.data)
+        {
+            this.view = ByteBuffer.wrap(this.data);
+        }
+        
+        this.view.clear().limit(HEADROOM + this.length).position(HEADROOM);
+        
+        return this.view;
+    }
+    
+    /**
+     * Method to hand the bytes held in this buffer over to the caller without
+     * copying them. The backing array is given up along with the bytes and a 
+     * new, empty one is started for the next message, so the buffer returned 
+     * stays valid for as long as the caller needs it.
+     * 
+     * @return A buffer positioned at the first payload byte with its limit at
+     *         the last, backed by the array the bytes were unmasked into. The
+     *         headroom lies in front of the buffer's position.
+     */
+    public ByteBuffer detach()
+    {
+        // Local Variable Declaration 
+        ByteBuffer bytes = ByteBuffer.wrap(this.data, HEADROOM, this.length);
+        
+        this.data = new byte[HEADROOM + INITIAL_CAPACITY];
+        this.length = 0;
+        
+        return bytes;
+    }
+    
+    /**
+     * Method to make room for the given amount of bytes to be appended, so 
+     * that the payload of a frame whose length is known up front is unmasked
+     * into an array of the right size, instead of one grown and copied as the
+     * bytes arrive. At most {@link #MAX_RESERVE MAX_RESERVE} bytes are made
+     * room for.
+     * 
+     * @param count The amount of bytes about to be appended
+     */
+    public void reserve(long count)
+    {
+        this.ensureCapacity(this.length + (int) Math.min(count, MAX_RESERVE));
+    }
+    
+    /**
+     * Reset the length of this buffer to zero, so that it's ready to 
+     * accumulate the next message. The backing array is kept for reuse.
+     */
+    public void clear()
+    {
+        this.length = 0;
+    }
+    
+    // Getters 
+    public byte[] array()
+    {
+        return this.data;
+    }
+    
+    // The index of the first payload byte in the backing array
+    public int arrayOffset()
+    {
+        return HEADROOM;
+    }
+    
+    public int length()
+    {
+        return this.length;
+    }
+    
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    /* Method to unmask count bytes of the array in place, starting at offset, 
+     * the first of which lines up with the mask key byte at maskDex. The key 
+     * is rotated to start at maskDex and repeated across a long, so every 
+     * long of the run lines up with the key the same way, since 8 is a 
+     * multiple of the key's width. The bytes left over past the last whole 
+     * long are unmasked one at a time. */
+    private static void xorMask(byte[] data, int offset, int count, byte[] maskKeys, int maskDex)
+    {
+        // Local Variable Declaration 
+        long mask = 0;
+        int i = 0;
+        
+        // Repeat the rotated key across the long, low byte first
+        for (int j = 7; j >= 0; j--)
+        {
+            mask = (mask << 8) | (maskKeys[(maskDex + j) & 3] & 0xFF);
+        }
+        
+        // Unmask a long at a time while whole longs are left 
+        for (; i <= count - 8; i += 8)
+        {
+            LONGS.set(data, offset + i, (long) LONGS.get(data, offset + i) ^ mask);
+        }
+        
+        // Unmask the tail a byte at a time 
+        for (; i < count; i++)
+        {
+            data[offset + i] ^= maskKeys[(maskDex + i) & 3];
+        }
+    }
+    
+    /* Method to grow the backing array so that it can hold at least the 
+     * minimum amount of bytes passed. The array is doubled in size until it's
+     * big enough, so growing is rare once a connection has warmed up. */
+    private void ensureCapacity(int minCapacity)
+    {
+        // Local Variable Declaration 
+        int newCapacity = this.data.length;
+        byte[] grown;
+        
+        // Leave the headroom in front of the payload
+        minCapacity += HEADROOM;
+        
+        // Only grow when the bytes won't fit
+        if (minCapacity > this.data.length)
+        {
+            // Double the capacity until it fits, guarding against overflow 
+            while (newCapacity < minCapacity && newCapacity > 0)
+            {
+                newCapacity <<= 1;
+            }
+            
+            newCapacity = newCapacity > 0 ? newCapacity : Integer.MAX_VALUE - 8;
+            
+            // Copy the bytes accumulated so far over to the larger array 
+            grown = new byte[newCapacity];
+            System.arraycopy(this.data, 0, grown, 0, HEADROOM + this.length);
+            this.data = grown;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class to define the permessage-deflate extension (RFC 7692) as agreed on
+ * with a single client. The payload of a compressed message is raw DEFLATE
+ * data flushed with a sync flush, with the empty block the flush ends with,
+ * {@code 00 00 FF FF}, left off. The first frame of a compressed message has
+ * its RSV1 bit set, messages without it are sent as they are.
+ * <br><br>
+ * The server never takes over the context of its own compressor from one
+ * message to the next, it always answers with
+ * {@code server_no_context_takeover}. Every message the server sends is then
+ * compressed on its own, the same way for every client, so a message sent to
+ * a whole chat room is compressed just once and the compressed frame shared
+ * by every member that agreed to the extension. It also lets any thread
+ * compress a message for a connection, in any order.
+ * <br><br>
+ * Whether the client keeps its compressor's context between messages is
+ * decided per connection. When it does, the connection holds an
+ * {@code Inflater} for its whole life, and messages compress better. When it
+ * doesn't, the server answers with {@code client_no_context_takeover} and an
+ * {@code Inflater} is only leased from the pool for as long as it takes to
+ * inflate a message, so idle connections hold no compression state at all.
+ * {@code Deflater}s are always leased from the pool for a single message.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class PerMessageDeflate
+{
+    // The name the extension is negotiated by during the handshake
+    public static final String NAME = "permessage-deflate";
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // Extension parameters
+    private static final String SERVER_NO_CTX   = "server_no_context_takeover";
+    private static final String CLIENT_NO_CTX   = "client_no_context_takeover";
+    private static final String SERVER_MAX_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_BITS = "client_max_window_bits";
+
+    /* The window java.util.zip always compresses with, 2^15 bytes. Offers
+     * asking the server for a smaller window can't be accepted. */
+    private static final String MAX_BITS = "15";
+
+    // The empty block a sync flush ends with, left off the compressed payload
+    private static final byte[] TAIL = { 0, 0, (byte) 0xFF, (byte) 0xFF };
+
+    // The most compressors and decompressors of each kind kept pooled
+    private static final int MAX_POOLED = 256;
+
+    // The size of the pieces a streamed message is inflated into
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    // Pools of raw DEFLATE compressors and decompressors, with their counts
+    private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+    private static final AtomicInteger pooledInflaters = new AtomicInteger();
+
+    // Whether the client keeps its compressor's context between messages
+    private final boolean clientContextTakeover;
+
+    // Whether the client's offer named the server's window size
+    private final boolean serverMaxBits;
+
+    /* The decompressor held for the connection's life when the client keeps
+     * its context, and the one inflating the message being received */
+    private Inflater inflater = null, current = null;
+
+    // The bytes a streamed message has been inflated into so far
+    private long inflated = 0;
+    private byte[] chunk = null;
+/*----------------------------------------------------------------------------*/
+
+    // Class constructor, see negotiate
+    private PerMessageDeflate(boolean clientContextTakeover, boolean serverMaxBits)
+    {
+        this.clientContextTakeover = clientContextTakeover;
+        this.serverMaxBits = serverMaxBits;
+    }
+
+    /**
+     * Method to pick the first permessage-deflate offer the server can accept
+     * from those listed in a client's {@code Sec-WebSocket-Extensions} header.
+     * Offers with parameters the server doesn't know, or that ask it for a
+     * window smaller than 2^15 bytes, are passed over.
+     *
+     * @param offers The value of the header, a comma separated list of
+     *        extensions each followed by its parameters, may be null
+     * @param clientContextTakeover Whether the server lets the client keep
+     *        its context between messages, if the client offered to drop it
+     *        it's dropped regardless
+     *
+     * @return The extension as agreed on, or null if no offer was accepted
+     */
+    public static PerMessageDeflate negotiate(String offers, boolean clientContextTakeover)
+    {
+        // Local Variable Declaration
+        String[] params, param;
+        boolean accepted, keepContext, maxBits;
+
+        if (offers == null)
+        {
+            return null;
+        }
+
+        for (String offer : offers.split(","))
+        {
+            params = offer.split(";");
+
+            if (!NAME.equals(params[0].trim()))
+            {
+                continue;
+            }
+
+            accepted = true;
+            keepContext = clientContextTakeover;
+            maxBits = false;
+
+            // Check each parameter of the offer
+            for (int i = 1; i < params.length && accepted; i++)
+            {
+                param = params[i].split("=", 2);
+
+                switch (param[0].trim())
+                {
+                    // The server never keeps its context anyway
+                    case SERVER_NO_CTX: break;
+
+                    case CLIENT_NO_CTX: keepContext = false; break;
+
+                    // Only the full window can be honoured
+                    case SERVER_MAX_BITS:
+                    {
+                        maxBits = true;
+                        accepted = param.length == 2
+                                   && MAX_BITS.equals(param[1].trim().replace("\"", ""));
+                        break;
+                    }
+
+                    // A message compressed with any window can be inflated
+                    case CLIENT_MAX_BITS: break;
+
+                    default: accepted = false;
+                }
+            }
+
+            if (accepted)
+            {
+                return new PerMessageDeflate(keepContext, maxBits);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The extension as agreed on, the value of the
+     *         {@code Sec-WebSocket-Extensions} header sent back to the client
+     */
+    public String getResponse()
+    {
+        return NAME + "; " + SERVER_NO_CTX
+             + (this.clientContextTakeover ? "" : "; " + CLIENT_NO_CTX)
+             + (this.serverMaxBits ? "; " + SERVER_MAX_BITS + "=" + MAX_BITS : "");
+    }
+
+    public boolean isClientContextTakeover()
+    {
+        return this.clientContextTakeover;
+    }
+
+    /**
+     * Method to compress a message the way it's sent to every client that
+     * agreed to the extension. Room is left in front of the compressed bytes
+     * for the frame header to be written into.
+     *
+     * @param headroom The bytes to leave free in front of the compressed bytes
+     * @param payload The buffers holding the message, each between its
+     *        position and limit, which aren't moved
+     *
+     * @return A buffer positioned at the first compressed byte with its limit
+     *         at the last, the headroom lies in front of its position
+     */
+    public static ByteBuffer deflate(int headroom, ByteBuffer... payload)
+    {
+        // Local Variable Declaration
+        Deflater deflater = deflaters.poll();
+        int length = 0, total = 0, count;
+        byte[] out;
+
+        if (deflater == null)
+        {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        else
+        {
+            pooledDeflaters.decrementAndGet();
+        }
+
+        for (ByteBuffer part : payload)
+        {
+            total += part.remaining();
+        }
+
+        // Room for the message to not compress at all, plus the block headers
+        out = new byte[headroom + total + (total >>> 4) + 64];
+
+        try
+        {
+            for (ByteBuffer part : payload)
+            {
+                deflater.setInput(part.duplicate());
+
+                while (!deflater.needsInput())
+                {
+                    out = ensureRoom(out, headroom + length);
+                    length += deflater.deflate(out, headroom + length,
+                                               out.length - headroom - length,
+                                               Deflater.NO_FLUSH);
+                }
+            }
+
+            // Flush everything out, until the deflater leaves room to spare
+            do
+            {
+                out = ensureRoom(out, headroom + length);
+                count = deflater.deflate(out, headroom + length,
+                                         out.length - headroom - length,
+                                         Deflater.SYNC_FLUSH);
+                length += count;
+            }
+            while (headroom + length == out.length);
+        }
+        finally
+        {
+            // The context is never taken over, start the next message afresh
+            deflater.reset();
+
+            if (pooledDeflaters.incrementAndGet() <= MAX_POOLED)
+            {
+                deflaters.offer(deflater);
+            }
+            else
+            {
+                pooledDeflaters.decrementAndGet();
+                deflater.end();
+            }
+        }
+
+        // Leave off the empty block the flush ended with
+        return ByteBuffer.wrap(out, headroom, length - TAIL.length);
+    }
+
+    /**
+     * Method to inflate a whole compressed message. The message is inflated
+     * into an array with {@link PayloadBuffer#HEADROOM PayloadBuffer.HEADROOM}
+     * bytes free in front of it, the same as a message that wasn't compressed.
+     *
+     * @param data The array holding the compressed message
+     * @param offset The index of its first byte
+     * @param length The amount of compressed bytes
+     * @param maxLength The most bytes the message may inflate to
+     *
+     * @return A buffer positioned at the first byte of the message with its
+     *         limit at the last
+     *
+     * @throws Exception If the message inflates to more than maxLength bytes
+     *         or isn't valid DEFLATE data. These are fatal errors and the
+     *         socket connection should be closed.
+     */
+    public ByteBuffer inflate(byte[] data, int offset, int length, long maxLength)
+            throws Exception
+    {
+        // Local Variable Declaration
+        Inflater inflater = this.begin();
+        byte[] out = new byte[PayloadBuffer.HEADROOM
+                              + (int) Math.min(maxLength, length * 4L + 64)];
+        int count = 0, n;
+
+        try
+        {
+            // Inflate the message and then the empty block left off its end
+            for (int pass = 0; pass < 2; pass++)
+            {
+                if (pass == 0)
+                {
+                    inflater.setInput(data, offset, length);
+                }
+                else
+                {
+                    inflater.setInput(TAIL);
+                }
+
+                do
+                {
+                    out = ensureRoom(out, PayloadBuffer.HEADROOM + count);
+                    n = inflate(inflater, out, PayloadBuffer.HEADROOM + count);
+                    count += n;
+
+                    checkLength(count, maxLength);
+                }
+                while (n > 0);
+            }
+        }
+        finally
+        {
+            this.end();
+        }
+
+        return ByteBuffer.wrap(out, PayloadBuffer.HEADROOM, count);
+    }
+
+    /**
+     * Method to inflate a chunk of a streamed compressed message, handing
+     * what it inflates to to the stream handler in pieces. The chunks of a
+     * message have to be passed in order, the last with last set.
+     *
+     * @param data The array holding the chunk
+     * @param offset The index of its first byte
+     * @param length The amount of compressed bytes in the chunk
+     * @param last Whether this is the last chunk of the message
+     * @param maxLength The most bytes the whole message may inflate to
+     * @param opcode The opcode of the message, passed on to the handler
+     * @param streamHndlr The handler the inflated pieces are passed to, the
+     *        pieces are dropped if it's null
+     *
+     * @throws Exception If the message inflates to more than maxLength bytes
+     *         or isn't valid DEFLATE data. These are fatal errors and the
+     *         socket connection should be closed.
+     */
+    public void inflate(byte[] data, int offset, int length, boolean last, long maxLength,
+                        byte opcode, WebsocketStreamHandler streamHndlr) throws Exception
+    {
+        // Local Variable Declaration
+        Inflater inflater = this.begin();
+        int n;
+
+        if (this.chunk == null)
+        {
+            this.chunk = new byte[CHUNK_SIZE];
+        }
+
+        try
+        {
+            for (int pass = 0; pass < (last ? 2 : 1); pass++)
+            {
+                if (pass == 0)
+                {
+                    inflater.setInput(data, offset, length);
+                }
+                else
+                {
+                    inflater.setInput(TAIL);
+                }
+
+                // Hand each piece over as soon as it's inflated
+                while ((n = inflate(inflater, this.chunk, 0)) > 0)
+                {
+                    this.inflated += n;
+                    checkLength(this.inflated, maxLength);
+
+                    if (streamHndlr != null)
+                    {
+                        streamHndlr.handleChunk(ByteBuffer.wrap(this.chunk, 0, n)
+                                                .asReadOnlyBuffer(), opcode, false);
+                    }
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            this.end();
+
+            throw ex;
+        }
+
+        if (last)
+        {
+            this.end();
+
+            if (streamHndlr != null)
+            {
+                streamHndlr.handleChunk(ByteBuffer.allocate(0), opcode, true);
+            }
+        }
+    }
+
+    /**
+     * Method to let go of the compression state of a connection that has been
+     * closed, handing its decompressor back to the pool.
+     */
+    public void release()
+    {
+        this.end();
+
+        if (this.inflater != null)
+        {
+            releaseInflater(this.inflater);
+            this.inflater = null;
+        }
+    }
+
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    /* Method to get the decompressor for the message being received, the
+     * connection's own if the client keeps its context, otherwise one leased
+     * from the pool until the message is done */
+    private Inflater begin()
+    {
+        if (this.current == null)
+        {
+            if (this.clientContextTakeover)
+            {
+                if (this.inflater == null)
+                {
+                    this.inflater = leaseInflater();
+                }
+
+                this.current = this.inflater;
+            }
+            else
+            {
+                this.current = leaseInflater();
+            }
+
+            /* A client may end a message with a final block, the next message
+             * then starts a new stream */
+            if (this.current.finished())
+            {
+                this.current.reset();
+            }
+        }
+
+        return this.current;
+    }
+
+    /* Method to finish with the message being received, handing a leased
+     * decompressor back to the pool */
+    private void end()
+    {
+        if (this.current != null && !this.clientContextTakeover)
+        {
+            releaseInflater(this.current);
+        }
+
+        this.current = null;
+        this.inflated = 0;
+    }
+
+    /* Method to inflate into the array from offset to its end, returning the
+     * amount of bytes inflated, 0 once the input has run out */
+    private static int inflate(Inflater inflater, byte[] out, int offset) throws Exception
+    {
+        try
+        {
+            return inflater.finished() ? 0
+                   : inflater.inflate(out, offset, out.length - offset);
+        }
+        catch (DataFormatException dfe)
+        {
+            throw new Exception("Compressed message is malformed: " + dfe.getMessage(),
+                                new Throwable( WebSocketSelectionKeyAPI.BAD_DEFLATE ));
+        }
+    }
+
+    // Method to fail a message that inflates to more than it's allowed to
+    private static void checkLength(long length, long maxLength) throws Exception
+    {
+        if (length > maxLength)
+        {
+            throw new Exception("Message inflates to over " + maxLength + " bytes",
+                                new Throwable( WebSocketSelectionKeyAPI.MSG_TOO_BIG ));
+        }
+    }
+
+    // Method to double the array if there's no room left past the index given
+    private static byte[] ensureRoom(byte[] out, int used)
+    {
+        // Local Variable Declaration
+        byte[] grown;
+
+        if (used < out.length)
+        {
+            return out;
+        }
+
+        grown = new byte[out.length * 2];
+        System.arraycopy(out, 0, grown, 0, used);
+
+        return grown;
+    }
+
+    // Method to lease a raw DEFLATE decompressor from the pool
+    private static Inflater leaseInflater()
+    {
+        // Local Variable Declaration
+        Inflater inflater = inflaters.poll();
+
+        if (inflater == null)
+        {
+            return new Inflater(true);
+        }
+
+        pooledInflaters.decrementAndGet();
+
+        return inflater;
+    }
+
+    // Method to hand a decompressor back to the pool, reset for its next use
+    private static void releaseInflater(Inflater inflater)
+    {
+        inflater.reset();
+
+        if (pooledInflaters.incrementAndGet() <= MAX_POOLED)
+        {
+            inflaters.offer(inflater);
+        }
+        else
+        {
+            pooledInflaters.decrementAndGet();
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Class to define the state of a Websocket handshake that is still under way,
+ * held as a connection's key attachment until the client's HTTP upgrade
+ * request has arrived in full. A client may send its request over any amount
+ * of reads, so the request is parsed incrementally, straight from the bytes
+ * read, a line at a time as each line's CRLF arrives. The request is complete
+ * once the empty line ending the header block, {@code \r\n\r\n}, has been
+ * read.
+ * <br><br>
+ * Parsing moves through the following states:
+ * <ul>
+ *      <li>REQUEST_LINE, the method, request target and HTTP version</li>
+ *      <li>HEADERS, one {@code name: value} header field per line</li>
+ *      <li>DONE, the empty line has been read</li>
+ * </ul>
+ *
+ * Each header line is checked against the server's 
+ * {@link HeaderPolicy HeaderPolicy} as soon as it ends. Its name is looked up
+ * straight from the bytes, headers the policy doesn't look at are skipped 
+ * without a String being made, and the Host, Origin and version are checked 
+ * in place. Only the values the handshake goes on to use are kept.
+ * <br><br>
+ * The bytes of the line being read are gathered in a small array of the
+ * request's own, which is dropped once the request is done. A request line or
+ * header block bigger than {@link #MAX_SIZE MAX_SIZE} is refused, as is one
+ * that doesn't arrive before the request's deadline.
+ * <br><br>
+ * Once the request is done the response is worked out off the selector 
+ * thread, and kept here along with the connection's new websocket state until
+ * the selector thread writes it.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class UpgradeRequest
+{
+    // The most bytes the request line and headers together may take up
+    public static final int MAX_SIZE = 8 * 1024;
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // Parser states
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADERS      = 1;
+    private static final int DONE         = 2;
+
+    // Bytes of interest while parsing
+    private static final byte CR = '\r', LF = '\n', SP = ' ', HT = '\t', COLON = ':';
+
+    // The state the parser is currently in
+    private int state = REQUEST_LINE;
+
+    // The bytes of the line being read, and the amount of bytes read so far
+    private byte[] line = new byte[256];
+    private int lineLength = 0, total = 0;
+
+    // The parts of the request line
+    private String method = null, target = null;
+    private int major = 0, minor = 0;
+
+    // The policy the headers are held to
+    private final HeaderPolicy policy;
+
+    /* The values kept of the headers the policy looks at, indexed by the 
+     * policy's header constants, and a bit for each header that was sent */
+    private final String[] values = new String[HeaderPolicy.HEADERS];
+    private int sent = 0;
+
+    // The time, in System.nanoTime() terms, the request must be done by
+    private final long deadline;
+
+    // Bytes the client sent right behind its request, the start of its frames
+    private ByteBuffer pipelined = null;
+
+    /* The response to the request and the websocket state of the connection,
+     * null if the request was refused */
+    private volatile byte[] response = null;
+    private volatile WebSocketData socketData = null;
+/*----------------------------------------------------------------------------*/
+
+    /**
+     * Constructor for the state of a handshake that has just begun.
+     *
+     * @param timeout The milliseconds the client has to send its request
+     * @param policy The policy the request's headers are held to
+     */
+    public UpgradeRequest(long timeout, HeaderPolicy policy)
+    {
+        this.deadline = System.nanoTime() + timeout * 1_000_000L;
+        this.policy = policy;
+    }
+
+    /**
+     * Method to parse the bytes read from the client, a line at a time, until
+     * either the request is done or the bytes run out. Bytes past the end of
+     * the request are left in the buffer, they belong to the frames the
+     * client sent right behind it.
+     *
+     * @param in The buffer holding the bytes read from the client, between its
+     *        position and limit
+     *
+     * @return true once the whole request has been read
+     *
+     * @throws Exception If the request is malformed, too big or breaks the 
+     *         header policy. The client should be sent the response 
+     *         {@link WebSocketSelectionKeyAPI#refuse refuse} picks for the 
+     *         exception and the connection closed.
+     */
+    public boolean parse(ByteBuffer in) throws Exception
+    {
+        // Local Variable Declaration
+        byte b;
+
+        while (this.state != DONE && in.hasRemaining())
+        {
+            b = in.get();
+
+            if (++this.total > MAX_SIZE)
+            {
+                throw new Exception("Request headers are over " + MAX_SIZE + " bytes",
+                                    new Throwable( WebSocketSelectionKeyAPI.BAD_RQST ));
+            }
+
+            // A line ends at its LF, the CR in front of it is dropped
+            if (b == LF)
+            {
+                if (this.lineLength > 0 && this.line[this.lineLength - 1] == CR)
+                {
+                    this.lineLength--;
+                }
+
+                this.endLine();
+                this.lineLength = 0;
+
+                continue;
+            }
+
+            // Make room for the byte if the line is full
+            if (this.lineLength == this.line.length)
+            {
+                byte[] grown = new byte[this.line.length * 2];
+
+                System.arraycopy(this.line, 0, grown, 0, this.lineLength);
+                this.line = grown;
+            }
+
+            this.line[this.lineLength++] = b;
+        }
+
+        // The line buffer isn't needed once the request is done
+        if (this.state == DONE)
+        {
+            this.line = null;
+        }
+
+        return this.state == DONE;
+    }
+
+    /**
+     * Method to find out whether the client took too long to send its request.
+     *
+     * @param now The current time, from System.nanoTime()
+     *
+     * @return true if the request isn't done and its deadline has passed
+     */
+    public boolean isExpired(long now)
+    {
+        return this.state != DONE && now - this.deadline > 0;
+    }
+
+    public boolean isDone()
+    {
+        return this.state == DONE;
+    }
+
+    /**
+     * Method to keep the bytes left in the buffer once the request is done, 
+     * the frames the client sent without waiting for the response, until the
+     * connection is ready to decode them.
+     *
+     * @param in The buffer the request was parsed from, positioned just past
+     *        the request
+     */
+    public void keep(ByteBuffer in)
+    {
+        if (in.hasRemaining())
+        {
+            this.pipelined = ByteBuffer.allocate(in.remaining()).put(in).flip();
+        }
+    }
+
+    /**
+     * @return The bytes sent behind the request, or null if there weren't any
+     */
+    public ByteBuffer getPipelined()
+    {
+        return this.pipelined;
+    }
+
+    /**
+     * Method to keep the outcome of the request until it's sent.
+     *
+     * @param response The HTTP response to send the client
+     * @param state The websocket state of the connection, or null if the 
+     *        request was refused
+     */
+    public void setResult(byte[] response, WebSocketData state)
+    {
+        this.response = response;
+        this.socketData = state;
+    }
+
+    public byte[] getResponse()
+    {
+        return this.response;
+    }
+
+    public WebSocketData getState()
+    {
+        return this.socketData;
+    }
+
+    // Getters for the parts of the request line
+    public String getMethod()
+    {
+        return this.method;
+    }
+
+    public String getTarget()
+    {
+        return this.target;
+    }
+
+    /**
+     * Method to check the HTTP version of the request.
+     *
+     * @param major The major version the request must at least be
+     * @param minor The minor version the request must at least be, if its
+     *        major version is the same
+     *
+     * @return true if the request's version is at least major.minor
+     */
+    public boolean isAtLeast(int major, int minor)
+    {
+        return this.major > major || (this.major == major && this.minor >= minor);
+    }
+
+    /**
+     * Method to get the value of a header the handshake uses, with the white
+     * space around it trimmed. A header sent more than once has its values 
+     * joined by commas, in the order they were sent.
+     *
+     * @param header The header's constant, one of KEY, PROTOCOL or EXTENSIONS
+     *        in {@link HeaderPolicy HeaderPolicy}
+     *
+     * @return The value, or null if the header wasn't sent
+     */
+    public String getHeader(int header)
+    {
+        return this.values[header];
+    }
+
+    public HeaderPolicy getPolicy()
+    {
+        return this.policy;
+    }
+
+/*------------------------------ PRIVATE METHODS -----------------------------*/
+    // Method to parse the line just ended, in the light of the parser's state
+    private void endLine() throws Exception
+    {
+        if (this.state == REQUEST_LINE)
+        {
+            // Empty lines in front of the request line are ignored
+            if (this.lineLength > 0)
+            {
+                this.parseRequestLine();
+                this.state = HEADERS;
+            }
+        }
+        else if (this.lineLength == 0)
+        {
+            // The empty line ends the header block
+            this.checkRequired();
+            this.state = DONE;
+        }
+        else
+        {
+            this.parseHeader();
+        }
+    }
+
+    /* Method to split the request line into its method, target and version,
+     * separated by single spaces, for example "GET /chat HTTP/1.1" */
+    private void parseRequestLine() throws Exception
+    {
+        // Local Variable Declaration
+        int sp1 = this.indexOf(SP, 0, this.lineLength), sp2;
+
+        sp2 = sp1 < 0 ? -1 : this.indexOf(SP, sp1 + 1, this.lineLength);
+
+        if (sp1 <= 0 || sp2 <= sp1 + 1 || !this.parseVersion(sp2 + 1))
+        {
+            throw new Exception("Malformed request line",
+                                new Throwable( WebSocketSelectionKeyAPI.BAD_RQST ));
+        }
+
+        this.method = new String(this.line, 0, sp1, ISO_8859_1);
+        this.target = new String(this.line, sp1 + 1, sp2 - sp1 - 1, ISO_8859_1);
+    }
+
+    /* Method to parse the version at the end of the request line, which must
+     * read HTTP/ followed by a single digit major and minor version */
+    private boolean parseVersion(int start)
+    {
+        if (this.lineLength - start != 8
+            || this.line[start] != 'H' || this.line[start + 1] != 'T'
+            || this.line[start + 2] != 'T' || this.line[start + 3] != 'P'
+            || this.line[start + 4] != '/' || this.line[start + 6] != '.'
+            || !isDigit(this.line[start + 5]) || !isDigit(this.line[start + 7]))
+        {
+            return false;
+        }
+
+        this.major = this.line[start + 5] - '0';
+        this.minor = this.line[start + 7] - '0';
+
+        return true;
+    }
+
+    /* Method to split a header line over its first colon. The name must not be
+     * empty or have white space in it, white space around the value is
+     * dropped. Lines folded onto the next are refused. Headers the policy 
+     * doesn't look at are skipped, the rest are checked against it. */
+    private void parseHeader() throws Exception
+    {
+        // Local Variable Declaration
+        int colon = this.indexOf(COLON, 0, this.lineLength), start, end, header;
+        String value;
+
+        if (colon <= 0 || this.line[0] == SP || this.line[0] == HT
+            || this.line[colon - 1] == SP || this.line[colon - 1] == HT)
+        {
+            throw new Exception("Malformed header field",
+                                new Throwable( WebSocketSelectionKeyAPI.BAD_RQST ));
+        }
+
+        // Trim the white space around the value
+        start = colon + 1;
+        end = this.lineLength;
+
+        while (start < end && (this.line[start] == SP || this.line[start] == HT))
+        {
+            start++;
+        }
+
+        while (end > start && (this.line[end - 1] == SP || this.line[end - 1] == HT))
+        {
+            end--;
+        }
+
+        // Skip the headers the policy doesn't look at
+        header = HeaderPolicy.headerOf(this.line, 0, colon);
+
+        if (header == HeaderPolicy.UNKNOWN)
+        {
+            return;
+        }
+
+        this.sent |= 1 << header;
+
+        if (!this.policy.allows(header, this.line, start, end - start))
+        {
+            throw refused(header, false);
+        }
+
+        // Keep the values the handshake goes on to use
+        if (header == HeaderPolicy.KEY || header == HeaderPolicy.PROTOCOL 
+            || header == HeaderPolicy.EXTENSIONS)
+        {
+            value = new String(this.line, start, end - start, ISO_8859_1);
+
+            // Fields sent more than once are joined into a list
+            this.values[header] = this.values[header] == null 
+                                  ? value : this.values[header] + ", " + value;
+        }
+    }
+
+    /* Method to make sure the headers the policy requires were all sent, the 
+     * Host and the Websocket version */
+    private void checkRequired() throws Exception
+    {
+        for (int header : new int[] {HeaderPolicy.HOST, HeaderPolicy.VERSION})
+        {
+            if ((this.sent & (1 << header)) == 0)
+            {
+                throw refused(header, true);
+            }
+        }
+    }
+
+    /* Method to make the exception a header breaking the policy is refused 
+     * with, naming the header. A missing header is a bad request, an Origin
+     * that isn't allowed is forbidden and a version that isn't supported has
+     * the client told which are. */
+    private static Exception refused(int header, boolean missing)
+    {
+        // Local Variable Declaration
+        String name = HeaderPolicy.nameOf(header);
+
+        if (missing)
+        {
+            return new Exception(name + " header missing",
+                                 new Throwable( WebSocketSelectionKeyAPI.BAD_RQST ));
+        }
+
+        switch (header)
+        {
+            case HeaderPolicy.ORIGIN:
+                return new Exception(name + " not allowed",
+                                     new Throwable( WebSocketSelectionKeyAPI.FORBIDDEN ));
+
+            case HeaderPolicy.VERSION:
+                return new Exception(name + " not supported",
+                                     new Throwable( WebSocketSelectionKeyAPI.BAD_VERSION ));
+
+            default:
+                return new Exception(name + " not allowed",
+                                     new Throwable( WebSocketSelectionKeyAPI.BAD_RQST ));
+        }
+    }
+
+    // Method to find a byte in the line, between from and to
+    private int indexOf(byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (this.line[i] == b)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -3,6 +3,7 @@ package websockets;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import static java.util.Map.entry;
         
 
@@ -16,20 +17,187 @@ public class WebSocketData
 {
     // Public Constants 
     public static final String OPCODE  = "OPCODE";
-    public static final String PY_LOAD = "PY_LOAD";
     
     /* Provide a public mapping of properties for this websocket. 
      * Allow wild card value type */
     private Map<String, Object> properties = new HashMap<>(Map.ofEntries
     (
-        entry(OPCODE, ""),
-        entry(PY_LOAD, new Byte[0])
+        entry(OPCODE, "")
     ));
+    
+    /* Primitive buffer the payload of the message currently being received is
+     * unmasked into. Reused for every message on this connection. */
+    private final PayloadBuffer payload = new PayloadBuffer();
+    
+    /* Incremental decoder that remembers where this connection's last read 
+     * left off in the frame being received */
+    private final FrameDecoder decoder = new FrameDecoder(this.payload);
+    
+    // Bounded ring of the frames waiting to be written to this connection 
+    private final OutboundQueue outbound = new OutboundQueue();
+    
+    /* Application object hung on this connection, such as the chat room the 
+     * connection is a member of. Volatile since the connection moves between
+     * selector threads. */
+    private volatile Object attachment = null;
+    
+    /* Flag set while a request to flip this connection to write readiness is
+     * waiting to be run by its selector thread */
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    
+    /* The subprotocol agreed on during the handshake, null if the client 
+     * didn't ask for one the server speaks */
+    private volatile String protocol = null;
+    
+    /* The permessage-deflate extension as agreed on during the handshake,
+     * null if the connection's messages aren't compressed */
+    private volatile PerMessageDeflate deflate = null;
+    
+    /* Position of the selector thread this connection is registered with, 
+     * among the threads of a server that runs more than one, -1 until the 
+     * server sets it */
+    private volatile int loop = -1;
 /*----------------------------------------------------------------------------*/    
 
     // Class constructor 
     public WebSocketData() {}
     
+    /**
+     * Method to get the buffer that accumulates the payload of the message 
+     * currently being received over this connection. 
+     * 
+     * @return The connection's payload buffer
+     */
+    public PayloadBuffer getPayload()
+    {
+        return this.payload;
+    }
+    
+    /**
+     * Method to get the frame decoder that holds the decoding state of this
+     * connection between reads.
+     * 
+     * @return The connection's frame decoder
+     */
+    public FrameDecoder getDecoder()
+    {
+        return this.decoder;
+    }
+    
+    /**
+     * Method to get the ring of frames waiting to be written to this 
+     * connection.
+     * 
+     * @return The connection's outbound queue
+     */
+    public OutboundQueue getOutbound()
+    {
+        return this.outbound;
+    }
+    
+    /**
+     * Method to hang an application object on this connection, much the same 
+     * way an object is attached to a {@code SelectionKey}. Since this 
+     * websocket state is itself the key's attachment, this lets the server 
+     * keep its own state with the connection, such as the stage of the 
+     * server it's in.
+     * 
+     * @param obj The object to attach, may be {@code null}
+     * 
+     * @return The previously attached object, if any
+     */
+    public Object attach(Object obj)
+    {
+        Object prev = this.attachment;
+        
+        this.attachment = obj;
+        
+        return prev;
+    }
+    
+    /**
+     * Method to get the application object hung on this connection, it's up
+     * to the caller to cast it to the type it attached.
+     * 
+     * @return The attached object or {@code null} if there isn't one
+     */
+    public Object attachment()
+    {
+        return this.attachment;
+    }
+    
+    /**
+     * Method to mark that a request to flip this connection to write readiness
+     * is about to be queued. Only the first caller wins until the request is 
+     * cleared, so requests for a connection are never queued twice.
+     * 
+     * @return true if the caller should queue the request, false if one is 
+     *         already waiting
+     */
+    public boolean requestWrite()
+    {
+        return this.writeRequested.compareAndSet(false, true);
+    }
+    
+    /**
+     * Method to clear the outstanding write request, called by the selector 
+     * thread once it has run the request.
+     */
+    public void clearWriteRequest()
+    {
+        this.writeRequested.set(false);
+    }
+    
+    /**
+     * Method to get the subprotocol agreed on with the client during the 
+     * handshake, through the {@code Sec-WebSocket-Protocol} header.
+     * 
+     * @return The name of the subprotocol or {@code null} if there isn't one
+     */
+    public String getProtocol()
+    {
+        return this.protocol;
+    }
+    
+    public void setProtocol(String protocol)
+    {
+        this.protocol = protocol;
+    }
+    
+    /**
+     * Method to get the permessage-deflate extension agreed on with the client
+     * during the handshake, through the {@code Sec-WebSocket-Extensions} 
+     * header.
+     * 
+     * @return The extension or {@code null} if messages aren't compressed
+     */
+    public PerMessageDeflate getDeflate()
+    {
+        return this.deflate;
+    }
+    
+    public void setDeflate(PerMessageDeflate deflate)
+    {
+        this.deflate = deflate;
+    }
+    
+    /**
+     * Method to get the position of the selector thread this connection is 
+     * registered with, so a server running several can find it without 
+     * asking each one.
+     * 
+     * @return The position set by the server, or -1 if it never set one
+     */
+    public int getLoop()
+    {
+        return this.loop;
+    }
+    
+    public void setLoop(int loop)
+    {
+        this.loop = loop;
+    }
+    
     /**
      * Method to set a property for a give property name key. The current value 
      * for the given property name key will be returned. 
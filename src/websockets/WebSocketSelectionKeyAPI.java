@@ -3,23 +3,23 @@ package websockets;
 
 import chatDB.RecptionRoom;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 /**
+ * Websocket API for connections held in a {@code Selector}. The API keeps no 
+ * state of its own, everything it knows about a connection is kept in the 
+ * {@link WebSocketData WebSocketData} attached to the connection's 
+ * {@code SelectionKey} once its {@link #handshake handshake} is done. Any 
+ * amount of selector threads may therefore frame and unframe data through the
+ * singleton at the same time without waiting on one another. When a connection is moved to a
+ * different selector its attachment must be moved along with it.
  *
  * @author Ben
  */
@@ -29,17 +29,88 @@ public final class WebSocketSelectionKeyAPI extends AbstractWebSocketAPI <Select
     // The singleton instance of this class 
     private static final WebSocketSelectionKeyAPI theAPI = new WebSocketSelectionKeyAPI();
 /*---------------------------- PRIVATE DATA MEMBERS --------------------------*/  
-    // Private Constants
-    private static final String RQS_METHOD  = "RQS_METHOD";
-    private static final String RQS_VERSION = "RQS_VERSION";
-    private static final String RQS_STANDRD = "RQS_STANDRD";
-    
     // Exceptoin strings
     public static final String NO_MASK    = "NoMaskException";
     public static final String PY_LD_LGTH = "PayloadLengthOutOfBounds";
+    public static final String MSG_TOO_BIG = "MessageTooBigException";
+    public static final String RSV_SET     = "ReservedBitSetException";
+    public static final String BAD_FRAG    = "BadFragmentationException";
+    public static final String BAD_DEFLATE = "MalformedDeflateException";
+    public static final String BAD_RQST    = "BadRequestException";
+    public static final String FORBIDDEN   = "ForbiddenOriginException";
+    public static final String BAD_VERSION = "UnsupportedVersionException";
+    
+    // Outcomes of reading a connection's handshake
+    public static final int HANDSHAKE_FAILED  = -1;
+    public static final int HANDSHAKE_PENDING = 0;
+    public static final int HANDSHAKE_DONE    = 1;
+    public static final int HANDSHAKE_READ    = 2;
+    
+    // Response sent to a client whose handshake can't be taken on right now
+    private static final String BUSY_HDR = "HTTP/1.1 503 Service Unavailable\r\n"
+                                         + "Retry-After: 1\r\n\r\n";
+    
+    // Responses sent to a client whose request breaks the header policy
+    private static final String FORBIDDEN_HDR = "HTTP/1.1 403 Forbidden\r\n"
+                                              + "Description: ";
+    private static final String BAD_VERSION_HDR = "HTTP/1.1 426 Upgrade Required\r\n"
+                                                + "Sec-WebSocket-Version: ";
+    
+    // Close frame status codes 
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+    public static final int CLOSE_TOO_BIG        = 1009;
+    
+    // Frame opcodes 
+    public static final byte OP_TEXT   = 1;
+    public static final byte OP_BINARY = 2;
+    public static final byte OP_CLOSE  = 8;
+    public static final byte OP_PING   = 9;
+    public static final byte OP_PONG   = 10;
+    
+    /* Reserved bit set in the first byte of the first frame of a message 
+     * compressed by the permessage-deflate extension, OR'd into the opcode */
+    public static final byte RSV1 = 0b01000000;
+    
+    /* Outbound frame headers are at most 10 bytes, 2 header bytes and 8 bytes
+     * of extended payload length. Server frames are never masked. */
+    private static final int MAX_HDR_SIZE = 10;
+    
+    // Pool of the small buffers outbound frame headers are written into
+    private static final BufferPool hdrPool = new BufferPool(MAX_HDR_SIZE, 4096, false);
+    
+    /* The milliseconds a client has to send its upgrade request once it's 
+     * been accepted */
+    private static volatile long handshakeTimeout = 10_000;
+    
+    /* The policy upgrade requests are held to, compiled once from the system
+     * properties and the file they name */
+    private static volatile HeaderPolicy headerPolicy = HeaderPolicy.fromSystemProperties();
+    
+    /* Size of the direct buffers frames are read into. Large enough to take in
+     * a burst of frames with one read. */
+    public static final int READ_BUFF_SIZE = 32 * 1024;
+    
+    /* The most reads made on a connection per readiness event, so that one 
+     * busy client can't starve the rest of a selector's connections */
+    public static final int MAX_READS = 16;
+    
+    // Pool of the direct buffers frames are read into
+    private static final BufferPool readPool = new BufferPool(READ_BUFF_SIZE, 64, true);
+    
+    // The subprotocols the server speaks, offered by clients at handshake
+    private static final Set<String> subprotocols = ConcurrentHashMap.newKeySet();
     
-    // Byte buffer to hold header data exchanged during connection handshake
-    private static ByteBuffer headerBuff = ByteBuffer.allocate(600); // DIRECT???
+    /* Size above which messages are streamed to the caller in chunks rather 
+     * than gathered whole, given to each connection as it's accepted */
+    private static volatile long streamThreshold = Long.MAX_VALUE;
+    
+    /* Whether permessage-deflate is agreed to when a client offers it, and 
+     * whether clients may keep their compressor's context between messages */
+    private static volatile boolean deflateEnabled = true, clientContextTakeover = true;
+    
+    /* Messages smaller than this are sent uncompressed, the savings wouldn't
+     * be worth the work */
+    private static volatile int deflateThreshold = 256;
     
 /*----------------------------------------------------------------------------*/
     
@@ -62,72 +133,314 @@ public final class WebSocketSelectionKeyAPI extends AbstractWebSocketAPI <Select
     }
     
     /**
-     * Staging method for finishing up a connection that has been accepted by
-     * this server.The method parse the headers sent by the client, validate 
-     * them and then complete the TCP handshake that will establish the 
-     * connection with the server. 
+     * Method to add a subprotocol to those the server speaks. A client that
+     * lists the subprotocol in its {@code Sec-WebSocket-Protocol} header is
+     * told it was chosen, and the choice is kept in the connection's 
+     * {@link WebSocketData#getProtocol() WebSocketData}. Subprotocols should 
+     * be added before the server starts accepting connections.
+     * 
+     * @param protocol The name of the subprotocol
+     */
+    public void addSubprotocol(String protocol)
+    {
+        subprotocols.add(protocol);
+    }
+    
+    /**
+     * Method to set the size above which a message is streamed, handed to the
+     * {@link WebsocketStreamHandler WebsocketStreamHandler} passed to 
+     * {@link #unFrame(ByteBuffer, SelectionKey, WebsocketMessageHandler, 
+     * WebsocketStreamHandler) unFrame} a chunk at a time as it arrives rather
+     * than gathered whole. Applies to connections accepted from then on. 
+     * Streaming is off by default, and messages read without a stream handler
+     * are never streamed.
+     * 
+     * @param threshold The size in bytes, Long.MAX_VALUE never streams
+     */
+    public void setStreamThreshold(long threshold)
+    {
+        streamThreshold = threshold;
+    }
+    
+    /**
+     * Method to set whether the permessage-deflate extension is agreed to when
+     * a client offers it. Applies to connections accepted from then on.
+     * 
+     * @param enabled Whether messages may be compressed
+     * @param contextTakeover Whether a client may keep its compressor's 
+     *        context from one message to the next, which compresses better 
+     *        but has the server hold a decompressor for the connection's life
+     */
+    public void setDeflate(boolean enabled, boolean contextTakeover)
+    {
+        deflateEnabled = enabled;
+        clientContextTakeover = contextTakeover;
+    }
+    
+    /**
+     * Method to set the size below which messages are sent uncompressed, even
+     * to connections that agreed to the permessage-deflate extension.
+     * 
+     * @param threshold The size in bytes
+     */
+    public void setDeflateThreshold(int threshold)
+    {
+        deflateThreshold = threshold;
+    }
+    
+    /**
+     * Method to set how long a client has to send its upgrade request once 
+     * it's been accepted. Applies to connections accepted from then on.
+     * 
+     * @param millis The timeout in milliseconds
+     */
+    public void setHandshakeTimeout(long millis)
+    {
+        handshakeTimeout = millis;
+    }
+    
+    /**
+     * Method to set the policy the headers of upgrade requests are held to. 
+     * Applies to connections accepted from then on.
+     * 
+     * @param policy The compiled policy
+     */
+    public void setHeaderPolicy(HeaderPolicy policy)
+    {
+        headerPolicy = policy;
+    }
+    
+    /**
+     * Method to begin the handshake of a connection that has just been 
+     * accepted by this server. Nothing is read here, the connection is given 
+     * an {@link UpgradeRequest UpgradeRequest} as its key attachment, which 
+     * gathers the client's request over as many reads as it takes. The caller
+     * should register the key for read readiness and pass it to 
+     * {@link #handshake handshake} whenever it's readable, until the handshake
+     * is done.
      * 
      * @param clientKey The SelectionKey associated with the web socket trying
      *        to connect to this server.
      */
     @Override
-    public synchronized void connect(SelectionKey clientKey)
+    public void connect(SelectionKey clientKey)
     { 
+        clientKey.attach(new UpgradeRequest(handshakeTimeout, headerPolicy));
+    }
+    
+    /**
+     * Method to read the upgrade request of a connection whose handshake is 
+     * under way. The bytes read are parsed as they arrive. Only the selector
+     * thread reads here, the work of answering the request is left to
+     * {@link #prepareUpgrade prepareUpgrade}, which any thread may run, and 
+     * the response is sent by {@link #completeHandshake completeHandshake}.
+     * 
+     * @param clientKey The SelectionKey of the connection, holding the 
+     *        {@link UpgradeRequest UpgradeRequest} given by 
+     *        {@link #connect connect}
+     * @param readBuffer A cleared buffer to read into
+     * 
+     * @return HANDSHAKE_READ once the whole request has been read, 
+     *         HANDSHAKE_PENDING if more of the request is needed or 
+     *         HANDSHAKE_FAILED if the request was bad or the client went 
+     *         away, the connection should then be closed
+     */
+    public int handshake(SelectionKey clientKey, ByteBuffer readBuffer)
+    {
         // Local Variable Declaration 
-        Map<String, String> headers = new HashMap<>(); 
-        String headerString = "", rqsMethod = "", socKey = "";
-        float rqsVersion = 0;
+        UpgradeRequest request = (UpgradeRequest) clientKey.attachment();
+        SocketChannel sc = (SocketChannel) clientKey.channel();
+        int bytesRead = 0, reads = 0;
         
-        // Read headers from socket client
-        headerString = receiveHeaders(clientKey);
-        
-        // Parse and validate the headers if the headerString could be read
-        if(!headerString.equals(null))
+        try
         {
-            headers = parseAndValidateHeaders(headerString);
-        
-            // Extract the HTTP method and version used in this connection request
-            rqsMethod = headers.get(RQS_METHOD);
-            rqsVersion = Float.parseFloat(headers.get(RQS_VERSION));
-            socKey = headers.get("Sec-WebSocket-Key");
+            // Parse what the client has sent until the request is complete
+            do
+            {
+                readBuffer.clear();
+                bytesRead = sc.read(readBuffer);
+                readBuffer.flip();
+                
+                if (request.parse(readBuffer))
+                {
+                    // Hold on to any frames sent behind the request 
+                    request.keep(readBuffer);
+                    
+                    return HANDSHAKE_READ;
+                }
+            }
+            while (bytesRead > 0 && ++reads < MAX_READS);
         }
+        catch (IOException ioe)
+        {
+            // The client went away part way through its request
+            return HANDSHAKE_FAILED;
+        }
+        catch (Exception ex)
+        {
+            this.refuse(sc, request.getPolicy(), ex);
+            
+            return HANDSHAKE_FAILED;
+        }
+        
+        return bytesRead == -1 ? HANDSHAKE_FAILED : HANDSHAKE_PENDING;
+    }
+    
+    /**
+     * Method to work out the answer to an upgrade request that has been read
+     * in full. The request's headers have already been held to the header 
+     * policy as they were read, here the subprotocol and extensions are 
+     * agreed on and the response, with its SHA-1 accept key, 
+     * is encoded. This is the costly part of a handshake and may be run by 
+     * any thread, nothing is written to the connection. The response and the
+     * connection's new websocket state are kept in its 
+     * {@link UpgradeRequest UpgradeRequest} until the selector thread sends 
+     * them with {@link #completeHandshake completeHandshake}.
+     * 
+     * @param clientKey The SelectionKey of the connection, for which 
+     *        {@link #handshake handshake} returned HANDSHAKE_READ
+     */
+    public void prepareUpgrade(SelectionKey clientKey)
+    {
+        // Local Variable Declaration 
+        UpgradeRequest request = (UpgradeRequest) clientKey.attachment();
+        String secKey = request.getHeader(HeaderPolicy.KEY);
+        WebSocketData state = new WebSocketData();
         
-        /* Make sure the header contained the GET method has a version higher 
+        /* Make sure the request used the GET method, has a version of at least
          * 1.1 and that the socket key exists */ 
-        if (!headerString.equals(null) && rqsMethod.equals(new String("GET")) && 
-            rqsVersion >= 1.1 && socKey != null)
+        if (!"GET".equals(request.getMethod()) || !request.isAtLeast(1, 1) 
+            || secKey == null)
         {
-            // Complete handshake, by sending response header confirming connection terms
-            finishConnection(headers, clientKey);
+            request.setResult((this.BAD_RQST_HDR 
+                             + "Malformed request. The connection request must "
+                             + "use a 'GET' method, must have a version of at "
+                             + "least 1.1 and have 'Sec-WebSocket-Key'. Please "
+                             + "check your headers\r\n\r\n").getBytes(UTF_8), null);
             
-            // Add the socket to the map of sockets by the name passed 
-            this.sockets.put(clientKey, new WebSocketData()); 
+            return;
         }
-        else
+        
+        // Pick the first subprotocol offered that the server speaks 
+        state.setProtocol(this.chooseSubprotocol(request.getHeader(HeaderPolicy.PROTOCOL)));
+        
+        // Stream messages over the threshold set for the server 
+        state.getDecoder().setStreamThreshold(streamThreshold);
+        
+        /* Agree to compress messages if the client offered to and the policy
+         * allows it */
+        if (deflateEnabled && request.getPolicy().allowsExtension(PerMessageDeflate.NAME))
         {
-            // Send a Bad Request HTTP response 
-            SocketChannel sc = (SocketChannel) clientKey.channel();
-            
-            try 
-            {
-                // Build a response header for the error 
-                byte rsp[] = (this.BAD_RQST_HDR 
-                           + "Malformed request. The connection request must "
-                           + "use a 'GET' method, must have a version greater "
-                           + "than 1.1 and have 'Sec-WebSocket-Key'. Please"
-                           + "check your headers"
-                           +  "\\r\\n").getBytes("UTF-8");
-            
-                // Send the response error header to the client
-                sc.write(ByteBuffer.wrap(rsp));
-            } 
-            catch (IOException ex) 
-            {
-                Logger.getLogger(RecptionRoom.class.getName()).log(Level.SEVERE, null, ex);
-            }
+            state.setDeflate(PerMessageDeflate.negotiate(request.getHeader(HeaderPolicy.EXTENSIONS), 
+                                                         clientContextTakeover));
+            state.getDecoder().setCompressionAllowed(state.getDeflate() != null);
+        }
+        
+        // Encode the response header confirming the connection terms
+        request.setResult(this.buildResponse(secKey, state.getProtocol(), 
+                              state.getDeflate() != null ? state.getDeflate().getResponse() 
+                                                         : null), 
+                          state);
+    }
+    
+    /**
+     * Method run by the selector thread to finish a handshake once its 
+     * response has been worked out by {@link #prepareUpgrade prepareUpgrade}.
+     * The response is written to the client and, if the upgrade was agreed 
+     * to, the connection's key is given its {@link WebSocketData 
+     * WebSocketData} as its attachment. The response is small and the socket
+     * has sent nothing before it, so it goes out with a single write.
+     * 
+     * @param clientKey The SelectionKey of the connection
+     * @param readBuffer A buffer the bytes the client sent behind its request
+     *        are put in, between its position and limit, they should be 
+     *        unframed
+     * 
+     * @return HANDSHAKE_DONE if the connection is established, otherwise 
+     *         HANDSHAKE_FAILED and the connection should be closed
+     */
+    public int completeHandshake(SelectionKey clientKey, ByteBuffer readBuffer)
+    {
+        // Local Variable Declaration 
+        UpgradeRequest request = (UpgradeRequest) clientKey.attachment();
+        ByteBuffer rsp;
+        
+        // The request was never answered if working out the answer failed
+        if (request.getResponse() == null)
+        {
+            return HANDSHAKE_FAILED;
+        }
+        
+        rsp = ByteBuffer.wrap(request.getResponse());
+        
+        try
+        {
+            // Write the response header back to the connection client. That's it!
+            ((SocketChannel) clientKey.channel()).write(rsp);
+        }
+        catch (IOException ioe)
+        {
+            return HANDSHAKE_FAILED;
+        }
+        
+        if (request.getState() == null || rsp.hasRemaining())
+        {
+            return HANDSHAKE_FAILED;
+        }
+        
+        /* Attach the connection's websocket data to its key in place of the 
+         * handshake state, so that the state of the connection travels with 
+         * the key */
+        clientKey.attach(request.getState()); 
+        
+        // Hand back the frames sent behind the request to be decoded 
+        readBuffer.clear();
+        
+        if (request.getPipelined() != null)
+        {
+            readBuffer.put(request.getPipelined());
+        }
+        
+        readBuffer.flip();
+        
+        return HANDSHAKE_DONE;
+    }
+    
+    /**
+     * Method to turn away a client whose handshake can't be taken on, when 
+     * the server is too busy, telling it to try again shortly. The 
+     * connection should be closed afterwards.
+     * 
+     * @param clientKey The SelectionKey of the connection
+     */
+    public void rejectHandshake(SelectionKey clientKey)
+    {
+        try 
+        {
+            ((SocketChannel) clientKey.channel()).write(ByteBuffer.wrap(BUSY_HDR.getBytes(UTF_8)));
+        } 
+        catch (IOException ioe) 
+        {
+            // The connection is being closed either way
         }
     }
     
+    /**
+     * Method to find out whether a connection's handshake has taken longer 
+     * than it's allowed to, see {@link #setHandshakeTimeout 
+     * setHandshakeTimeout}. Such a connection should be closed.
+     * 
+     * @param clientKey The SelectionKey of the connection
+     * @param now The current time, from System.nanoTime()
+     * 
+     * @return true if the handshake is still under way and past its deadline
+     */
+    public boolean isHandshakeExpired(SelectionKey clientKey, long now)
+    {
+        return clientKey.attachment() instanceof UpgradeRequest 
+               && ((UpgradeRequest) clientKey.attachment()).isExpired(now);
+    }
+    
     /**
      * Method to encapsulate a byte array into a proper Websocket frame. The 
      * method allows the data byte array to be broken up into multiple web 
@@ -141,168 +454,71 @@ public final class WebSocketSelectionKeyAPI extends AbstractWebSocketAPI <Select
      * @param opcode Determines what type of data the frame(s) should be 
      *        interpreted as by the receiver. 1 for text (string) and 2 for 
      *        binary data. Defaults to 1 if > 2. 
-     * @param frameDataSize The size of an individual frame. This size must be 
-     *        between 0 and 2^31 - 1 (since Java uses 32 bit signed integers).
-     *        This value will default to 2^31 - 1 (Integer.MAX_VALUE). 
+     * @param frameDataSize The most payload bytes put in an individual frame. 
+     *        This size must be between 1 and 2^31 - 1 (since Java uses 32 bit
+     *        signed integers). This value will default to 2^31 - 1 
+     *        (Integer.MAX_VALUE). Each frame's header carries the length of 
+     *        its own payload. 
      * @param framesHndlr Lambda called with frames created. This lambda is 
      *        expected to handle frames once they have been created. 
+     * 
+     * @deprecated Every frame is copied into an array of its own. Use 
+     *             {@link #frame(ByteBuffer, byte) frame}, which writes only 
+     *             the header and leaves the payload where it is. The frames 
+     *             made here are no longer masked, a server must never mask 
+     *             the frames it sends.
      */
+    @Deprecated
     @Override
-    public synchronized void frame(byte[] data, byte opcode, int frameDataSize, WebsocketFramedDataHandler framesHndlr) 
+    public void frame(byte[] data, byte opcode, int frameDataSize, WebsocketFramedDataHandler framesHndlr) 
     {
         // Local Variable Declaration 
-        byte byte1 = (byte) 0b11111111; byte byte2 = (byte) 0b11111111,
-        frames[][], mask[] = new byte[4]; 
-        int partFrameDataSize = 0, frameCount = 0, frameDex = 0, dataDex = 0, 
-            pyldByteCount = 0, dataLength = data.length, thisFrameSize = 0; 
-        final int BIT_16_PYLD = 65535, BIT_7_PYLD = 125;
+        byte frames[][]; 
+        int frameCount = 0, frameDex = 0, dataDex = 0, thisFrameSize = 0; 
         
-        /* The frame size must be a valid number that is less than the maximum 
-         * allowed and greater than -1 if it's not force it into maximum allowed */
-        frameDataSize = frameDataSize <= Integer.MAX_VALUE && frameDataSize > -1 
-                  ? frameDataSize : Integer.MAX_VALUE;
+        /* The frame size must be a valid number greater than 0, if it's not 
+         * force it into maximum allowed */
+        frameDataSize = frameDataSize > 0 ? frameDataSize : Integer.MAX_VALUE;
         
         /* Calculate the frame count from desired frame size payload byte array 
-         * passed */
-        frameCount = data.length / frameDataSize;
+         * passed, adding in the last potentially partial frame. An empty 
+         * payload still takes one frame. */
+        frameCount = data.length / frameDataSize 
+                   + (data.length % frameDataSize == 0 ? 0 : 1);
+        frameCount = Math.max(frameCount, 1);
         
-        // Capture the pay load length of the last partial frame (if any)
-        partFrameDataSize = data.length % frameDataSize; 
+        // Default the opcode to text if it isn't a data opcode 
+        opcode = opcode > 2 || opcode < 0 ? 1 : opcode; 
         
-        // Make sure to add in the last potentially partial frame
-        frameCount += partFrameDataSize == 0 ? 0 : 1; 
-        
-        // Set the opcode on the last 4 bits 
-        byte1 &= opcode > 2 ? 1 : opcode; 
-        
-        /* Set the fin bit for the first frame in the sequence of frames. Assume
-         * reserved bit flags wont be used for now. */
-        byte1 ^= frameCount > 1 ? 0b00000000 : 0b10000000;
-        
-        // Set reserved flag bits
-                
         // Instansiate the array of frame arrays 
-        frames = new byte[frameCount][0]; 
-      
-        /* If the frame count is only one and partialFrameSize is greater than 0 
-         * then the partialFrameSize should be used to determine the length of 
-         * the frame buffer since there is only enough data for a frame with a 
-         * partial payload. */
-        thisFrameSize = frameCount == 1 && partFrameDataSize > 0 
-                                         ? partFrameDataSize : frameDataSize;
+        frames = new byte[frameCount][]; 
+        
         // Loop through and build each frame one by one 
         for (int i = 0; i < frameCount; i++)
         {
-            // Determine the length code
-            if (thisFrameSize <= BIT_7_PYLD)
-            {
-                /* If the desired frame is less than or equal to the 7 bit 
-                 * payload size then the payload length number will fit into the 
-                 * final 7 bits of the second byte of the frame. Go ahead and 
-                 * create that byte by anding the desired frame size with -128 
-                 * (0b10000000), this will manipulate the lower 7 bits of the 
-                 * byte, while leaving the top bit as 1. The top bit is the mask
-                 * bit, which will tell the reciever we're sending this frame 
-                 * with a masked payload. No additional byte space in the frame 
-                 * will be needed. */
-                byte2 &= (-128 + thisFrameSize);                
-            }
-            else if (thisFrameSize <= BIT_16_PYLD)
-            {
-                /* If the desired frame payload length is between 125 and 65535
-                 * then the payload code of 126 will be put in the lower 7 bits
-                 * of the second byte this will indicate to the receiver that 
-                 * the length of the payload is stored in the next 16 bits 
-                 * (2 bytes).*/
-                byte2 &= 0b11111110;
-                //byte2 &= 0b01111110;
-                
-                /* Indicate that the final frame will need space to pack the 
-                 * bytes of this number */
-                pyldByteCount = 2;
-            }
-            else 
-            {
-                /* If the desired payload length is between 2^16 and 2^64 - 1 
-                 * (2^32 - 1 for Java arrays) then payload code 127 will be 
-                 * stored in the lower 7 bits of the second byte to indicate 
-                 * this. The reciever will know to look in the 64 bits (8 bytes)
-                 * for the unsigned integer indicating the payload length. */
-                byte2 &= 0b11111111;
-                //byte2 &= 0b01111111;
-                
-                /* Indicate that the final frame will need to allocate space to
-                 * pack all 8 bytes in. */
-                pyldByteCount = 8;
-            }
-            
-            // Set the size of the frame 
-            frames[i] = new byte[2 + pyldByteCount + mask.length + thisFrameSize];
-            
-            /* Pack the first and second bytes, with the fin bit, reserved bits, 
-             * opcode, mask bit and payload length/code */
-            frames[i][frameDex = 0] = byte1; // Restart the frame index
-            frames[i][++frameDex]   = byte2;
-           
-            // Generate Mask key 
-            mask[0] = 50; 
-            mask[1] = 123;
-            mask[2] = 100;
-            mask[3] = 36;
+            /* Each frame carries a full frame's worth of the data, except the
+             * last which carries whatever is left */
+            thisFrameSize = Math.min(frameDataSize, data.length - dataDex);
             
-            /* The next set of bytes to add to the frame are the bytes that 
-             * comprise payload length. The payload length number could be 1 
-             * byte, 2 bytes, or 8 bytes wide and needs to put in the correct 
-             * order with low byte of the payload length number put in the low 
-             * byte position (last byte) in the frame payload length position. 
-             * Therefore, set the position of the frame index to the position 
-             * where the low byte of the payload length should go unless the 
-             * payload length is 0 meaning the payload length was less than 125.*/
-            frameDex += pyldByteCount; 
+            // Set the size of the frame, server frames carry no mask key 
+            frames[i] = new byte[FrameLength.headerSize(thisFrameSize, false) + thisFrameSize];
             
-            /* Loop bacwards through current frame adding the bytes of 
-             * the extedended payload length in lowest to highest order to the 
-             * frame array. */
-            for (int j = 0; j < pyldByteCount; j++)
-            {
-                // Set in the frame array (255 = 0b11111111)
-                frames[i][frameDex - j] = (byte) (dataLength & 255); 
-                
-                // Shift the next byte off the length of bytes in the frame 
-                dataLength >>>= 8; 
-            }
+            /* Pack the first byte. Only the first frame carries the opcode, 
+             * the rest are continuation frames (0), and only the last frame 
+             * has the fin bit set. Assume reserved bit flags wont be used for 
+             * now. */
+            frames[i][0] = (byte) ((i == frameCount - 1 ? 0b10000000 : 0) 
+                                 | (i == 0 ? opcode : 0));
             
-            /* Pack each byte of the mask key into the frame */
-            for (byte key : mask)
-            {
-                frames[i][++frameDex] = key;
-            }
-            
-            /* Now the byte data in the array passed can be added to the frame.
-             * Loop through the payload data and copy it over to the frame. This
-             * concludes the forming of one frame. */
-            for (int j = 0; j < thisFrameSize; j++)
-            {
-                frames[i][++frameDex] = (byte) ((data[dataDex++] ^ mask[j % 4])); 
-            }
-            
-            /* Check whether the next frame is the last one or not. If it is 
-             * then set the opcode to zero, 'continuation' */
-            if ((opcode != 0b00000000) && (i < frameCount))
-            {
-                // Set the bottom nibble of the first byte 
-                byte1 &= 0b11110000;   
-            }
+            /* Pack this frame's own payload length into the second byte, 
+             * followed by the extended length if it's needed. The mask bit is 
+             * left unset. */
+            frameDex = FrameLength.put(frames[i], 1, thisFrameSize, false);
             
-            // Check to see if the last frame is about to be processed
-            if (i == (frameCount - 1))
-            {
-                // Flip the fin bit in the first byte, preserving all other bits 
-                byte1 &= 0b11111111;
-                
-                // Change the size used to determine the frame payload data size 
-                thisFrameSize = partFrameDataSize;
-            }
+            /* Now the byte data in the array passed can be added to the frame,
+             * as is. This concludes the forming of one frame. */
+            System.arraycopy(data, dataDex, frames[i], frameDex, thisFrameSize);
+            dataDex += thisFrameSize;
         }
 
         // Invoke the call back to pass the framed byte arrays back 
@@ -310,436 +526,758 @@ public final class WebSocketSelectionKeyAPI extends AbstractWebSocketAPI <Select
     }
     
     /**
-     * Method to parse a frame sent by a client.The method takes in a Lambda
-     * expression ({@link #WebsocketDataHandler WebsocketStringDataHandler}) 
-     * that will handle the payload data send in the frame. The payload could be 
-     * either a string of characters or bytes. 
+     * Method to frame up a payload as a single, unmasked Websocket frame ready
+     * to be sent to a client. Only the frame header is written, into a small
+     * buffer leased from a pool, the payload is neither copied nor masked. The
+     * header and payload are returned together so that they can be sent with 
+     * one gathering write, {@code SocketChannel.write(ByteBuffer[])}. Once the
+     * frame has been completely written it should be handed back through 
+     * {@link #release release} so that the header buffer can be reused.
      * 
-     * @param frame The byte array containing the bytes that make up the frame
-     * @param strHndlr The 
-     *        {@link #WebsocketStringDataHandler WebsocketStringDataHandler} lambda
-     *        expression to handle the parsed payload.
-     * @param clientKey The {@code SelectionKey} of socket over which this frame 
-     *        is coming. This key is also how this connection is being tracked
-     *        by this API.
-     * @param byteHndlr
-     * 
-     * @throws Exception If the frame's mask bit is unset or if the 
-     *         payload length is out of bounds. These are fatal errors and the socket
-     *         connection should be closed.
+     * @param payload The bytes to send between the buffer's position and 
+     *        limit. The buffer is used as is and must not be changed until the
+     *        frame has been written.
+     * @param opcode Determines what type of data the frame should be 
+     *        interpreted as by the receiver, {@link #OP_TEXT OP_TEXT} or 
+     *        {@link #OP_BINARY OP_BINARY} for data frames.
      * 
-     * @TODO If the caller doesn't pass a payload handler should an error be 
-     *       thrown or should just nothing happen? Right now nothing happens
+     * @return The frame as a header buffer followed by the payload buffer
      */
-    @Override
-    public synchronized void unFrame( byte[] frame, SelectionKey clientKey, 
-       WebsocketStringDataHandler strHndlr, WebsocketByteDataHandler byteHndlr ) throws Exception
+    public ByteBuffer[] frame(ByteBuffer payload, byte opcode)
     {
         // Local Variable Declaration 
-        int dataDex = 0; long total = 0, payloadLength = 0;
+        ByteBuffer header = this.putHeader(hdrPool.lease(), payload.remaining(), opcode);
         
-        boolean fin = false, rsv1 = false, rsv2 = false, rsv3 = false, mask = false;
-        
-        byte aByte = 0x0, opCode = 0x0, maskKeys[] = new byte[4];
-        
-        ArrayList<Object> payload = new ArrayList<>();
-        
-        final BigInteger PYLD_HGH_BIT = new BigInteger("-9223372036854775808", 10);        
-        final byte FIN = (byte)128, RSV_1 = (byte)64, RSV_2 = (byte)32, 
-                   RSV_3 = (byte)16, OPCODE = (byte)15, MASK = (byte)128, 
-                   PYLD_LENGTH = (byte)127;
+        return new ByteBuffer[] { header.flip(), payload };
+    }
+    
+    /**
+     * Method to frame up a payload as a single, unmasked Websocket frame that
+     * can be sent to many connections without the payload being copied. The 
+     * payload may be spread over several buffers, they are sent one after 
+     * another by the same gathering write as the header. The header is written
+     * into a read only buffer of its own instead of one leased from the pool,
+     * so the frame is never taken back by {@link #release release}. Each 
+     * connection should be sent its own {@link #duplicate duplicate} of the 
+     * frame.
+     * 
+     * @param opcode Determines what type of data the frame should be 
+     *        interpreted as by the receiver.
+     * @param payload The buffers holding the payload, each between its 
+     *        position and limit. They are used as is and must not be changed
+     *        while the frame is in use.
+     * 
+     * @return The frame as a header buffer followed by read only views of the
+     *         payload buffers
+     */
+    public ByteBuffer[] share(byte opcode, ByteBuffer... payload)
+    {
+        // Local Variable Declaration 
+        ByteBuffer[] frame = new ByteBuffer[payload.length + 1];
+        long length = 0;
         
-        // Get the first byte
-        aByte = frame[dataDex];
+        for (int i = 0; i < payload.length; i++)
+        {
+            frame[i + 1] = payload[i].asReadOnlyBuffer();
+            length += payload[i].remaining();
+        }
         
-        // Use a flag to determine wheather the fin bit was set
-        fin = (aByte & FIN) == FIN ? true : false;
+        frame[0] = this.putHeader(ByteBuffer.allocate(MAX_HDR_SIZE), length, opcode)
+                       .flip().asReadOnlyBuffer();
         
-        // Use flags to determine which reserve bits were set 
-        rsv1 = (aByte & RSV_1) == RSV_1; 
-        rsv2 = (aByte & RSV_2) == RSV_2; 
-        rsv3 = (aByte & RSV_3) == RSV_3;
+        return frame;
+    }
+    
+    /**
+     * Method to frame up a payload in place, writing the frame header into 
+     * the bytes of the payload's backing array that lie right in front of it.
+     * The frame is the header and payload as one buffer, nothing is copied or
+     * allocated besides the buffer object. This is meant for relaying a 
+     * message unmasked by {@link #unFrame(ByteBuffer, SelectionKey, 
+     * WebsocketMessageHandler) unFrame}, whose bytes always have 
+     * {@link PayloadBuffer#HEADROOM PayloadBuffer.HEADROOM} bytes free in 
+     * front of them, or anything parsed out of such a message, since the 
+     * bytes in front of the relayed part have already been read.
+     * <br><br>
+     * The bytes in front of the payload are overwritten, the caller must be 
+     * done with them. Like {@link #share share} the frame may be sent to many
+     * connections, each as its own {@link #duplicate duplicate}, and is never
+     * taken back by {@link #release release}.
+     * 
+     * @param payload The bytes to send between the buffer's position and 
+     *        limit. It must be a writable buffer backed by an array.
+     * @param opcode Determines what type of data the frame should be 
+     *        interpreted as by the receiver.
+     * 
+     * @return The frame as a single read only buffer, or null if there isn't
+     *         room for the header in front of the payload, see 
+     *         {@link #share share} for that case
+     */
+    public ByteBuffer[] frameInPlace(ByteBuffer payload, byte opcode)
+    {
+        // Local Variable Declaration 
+        int length = payload.remaining(), start, hdrSize;
         
-        // Use a flag to determine the opcode
-        opCode = (byte) (aByte & OPCODE); 
+        // The header takes 2 bytes, plus 2 or 8 for an extended length
+        hdrSize = FrameLength.headerSize(length, false);
         
-        // Get the second byte from the buffer 
-        aByte = frame[++dataDex];
+        if (!payload.hasArray() || payload.isReadOnly())
+        {
+            return null;
+        }
         
-        // Determine whether the mask bit was set using a flag
-        mask = (aByte & MASK) == MASK ? true : false;
+        // Index in the backing array of the first byte of the payload
+        start = payload.arrayOffset() + payload.position();
         
-        // Make sure this frame was masked by the client 
-        if (!mask)
+        if (start < hdrSize)
         {
-            // Throw and error, all inbound frames must be maasked
-            throw new Exception("All incoming frames from a client must be masked", 
-                                new Throwable( NO_MASK ));
+            return null;
         }
         
-        // Determine the payload length using the payload flag.
-        payloadLength = aByte & PYLD_LENGTH;
+        // Write the header over the bytes in front of the payload
+        this.putHeader(ByteBuffer.wrap(payload.array(), start - hdrSize, hdrSize), 
+                       length, opcode);
         
-        // Determine how many bytes the payload length figure takes up in the frame
-        if (payloadLength == 126)
+        return new ByteBuffer[] 
+        { 
+            ByteBuffer.wrap(payload.array(), start - hdrSize, hdrSize + length)
+                      .asReadOnlyBuffer() 
+        };
+    }
+    
+    /**
+     * Method to frame up a payload compressed by the permessage-deflate 
+     * extension, as a single frame that can be sent to every connection that
+     * agreed to the extension. The server never keeps its compressor's 
+     * context between messages, so the payload is compressed once, the same 
+     * for every connection. Like {@link #share share} each connection should
+     * be sent its own {@link #duplicate duplicate} of the frame.
+     * 
+     * @param opcode Determines what type of data the frame should be 
+     *        interpreted as by the receiver.
+     * @param payload The buffers holding the payload, each between its 
+     *        position and limit, which aren't moved
+     * 
+     * @return The frame as a single read only buffer, or null if the payload 
+     *         is under the {@link #setDeflateThreshold deflate threshold} or 
+     *         doesn't get any smaller, it should then be sent as is
+     */
+    public ByteBuffer[] shareDeflated(byte opcode, ByteBuffer... payload)
+    {
+        // Local Variable Declaration 
+        ByteBuffer deflated;
+        long length = 0;
+        
+        for (ByteBuffer part : payload)
         {
-            // Initialize total to 16 bit two byte combo
-            total = 255; 
-            
-            /* If the payload length is 126 then the payload length is contained
-             * in the next 16 bits. Get the first byte's worth (high byte) of
-             * the number, and store it in total*/
-            total &= frame[++dataDex];
-            
-            /* Shift the total up by eight bits. Zeros will be shifted in from 
-             * the rigth */
-            total <<= 8;
-            
-            /* Concatenate the second byte (low byte) with the total using a 
-             * bitwise XOR */
-            total ^= frame[++dataDex];
-            
-            // Store the payload length for furture use 
-            payloadLength = (int) total;
+            length += part.remaining();
         }
-        else if (payloadLength == 127)
+        
+        if (length < deflateThreshold)
         {
-            // Intialiaze the total 
-            total = 0;
-            
-            /* If the payload length was 127 the payload length is contained in
-             * the next 64 bits (8 bytes). Loop through those bytes, 
-             * concatenating them together to get the actual payload length.*/
-            for (int i = 0; i < 8; i++)
-            {
-                // Concatenate the next byte from the frame 
-                total ^= frame[++dataDex];
-                
-                // Shift the last byte over to make room for the next byte 
-                total <<= 8; 
-            }
-            
-            // Check to see if the total contained 0 for the most significant bit
-            payloadLength = ((total & PYLD_HGH_BIT.longValueExact()) == 1  ? -1 : total);
+            return null;
         }
-        if (payloadLength < 0 || ( payloadLength > Long.MAX_VALUE ))
+        
+        // Leave room in front of the compressed bytes for the header 
+        deflated = PerMessageDeflate.deflate(MAX_HDR_SIZE, payload);
+        
+        if (deflated.remaining() >= length)
         {
-            /* If the payload length was negative or was greater than the 
-             * maximum allowed payload length then throw an exception */
-            throw new Exception("Payload length is out of bounds: " 
-                                + payloadLength, 
-                                new Throwable( PY_LD_LGTH ));
+            return null;
         }
         
-        /* Next parse the the demasking key form the next 32 bit (4 bytes).*/
-        for (int i = 0; i < maskKeys.length; i++)
+        return this.frameInPlace(deflated, (byte) (opcode | RSV1));
+    }
+    
+    /**
+     * Method to make a copy of a frame made by {@link #share share} for one
+     * connection. The copy holds a {@code duplicate()} of each of the frame's 
+     * buffers, they share the bytes but keep their own position, so each 
+     * connection is written independently.
+     * 
+     * @param frame The shared frame
+     * 
+     * @return The connection's own view of the frame
+     */
+    public static ByteBuffer[] duplicate(ByteBuffer[] frame)
+    {
+        // Local Variable Declaration 
+        ByteBuffer[] views = new ByteBuffer[frame.length];
+        
+        for (int i = 0; i < frame.length; i++)
         {
-            // Capture the bytes 
-            maskKeys[i] = frame[++dataDex];
+            views[i] = frame[i].duplicate();
         }
         
-        /* Get the payload data saved in the data mapping for this connection 
-         * and put it in a new ArrayList, so that it can be concatenated with 
-         * the payload being read from this frame.*/
-        payload = new ArrayList<>(Arrays.<Object>asList(sockets.get(clientKey)
-                     .<Object[]>getProperty(WebSocketData.PY_LOAD)));
-                
-        /* Decrypt and store the payload data. This data will be used by the the
-         * server how it sees fit. The decryption is done byte by byte from what
-         * is left of the frame. Data messages (datagrams) that span multiple 
-         * frames will be added to the current payload here. */
-        for (int i = 0; i < payloadLength; i++)
-        {   
-            /* To unmask the each byte from the payload each byte from the 
-             * frame is XORed with a byte from the mask key array. That byte is
-             * at the loop index modulos with the amount of bytes in the mask 
-             * key array. Because Java bitwise operators can return negative 
-             * (signed) integers get the absolute value of the unmasked byte. */
-             payload.add((byte)(frame[++dataDex] ^ maskKeys[i % maskKeys.length]));
+        return views;
+    }
+    
+    /**
+     * Method to encode a payload as one complete, unmasked Websocket frame held
+     * in a single buffer. Unlike {@link #frame(ByteBuffer, byte) frame} the 
+     * payload is copied, once, behind the header so that the frame can be sent
+     * to many connections. Each connection should be given its own 
+     * {@code duplicate()} of the buffer returned, duplicates share the bytes 
+     * but keep their own position. Frames encoded by this method are never 
+     * passed to {@link #release release}.
+     * 
+     * @param payload The bytes to send between the buffer's position and limit
+     * @param opcode Determines what type of data the frame should be 
+     *        interpreted as by the receiver.
+     * 
+     * @return A read only buffer holding the whole frame
+     */
+    public ByteBuffer encode(ByteBuffer payload, byte opcode)
+    {
+        // Local Variable Declaration 
+        ByteBuffer[] frame = this.frame(payload, opcode);
+        ByteBuffer encoded = ByteBuffer.allocate(frame[0].remaining() 
+                                                 + payload.remaining());
+        
+        // Copy the header and then the payload into the shared frame
+        encoded.put(frame[0]).put(payload.duplicate()).flip();
+        
+        // The header has been copied, its buffer can go back into the pool
+        this.release(frame);
+        
+        return encoded.asReadOnlyBuffer();
+    }
+    
+    /**
+     * Method to hand a frame created by {@link #frame(ByteBuffer, byte) frame}
+     * back once it has been completely written, so that its header buffer can
+     * be reused. The frame must not be used after it's been released.
+     * 
+     * @param frame The frame that was written
+     */
+    public void release(ByteBuffer[] frame)
+    {
+        hdrPool.release(frame[0]);
+    }
+    
+    /**
+     * Method to see whether a frame has been completely written. Every buffer
+     * of the frame has to be checked, not just the last, since the last may
+     * be empty, such as the payload of an empty message, while the header 
+     * ahead of it is only partly written.
+     * 
+     * @param frame The frame being written
+     * 
+     * @return true if none of the frame's buffers have bytes remaining
+     */
+    public static boolean isWritten(ByteBuffer[] frame)
+    {
+        for (ByteBuffer buff : frame)
+        {
+            if (buff.hasRemaining())
+            {
+                return false;
+            }
         }
         
-        /* Store the payload array in the data wrapper associated with the 
-         * client connection */
-        this.sockets.get(clientKey).<Object[]>setProperty(
-            WebSocketData.PY_LOAD, payload.toArray()
-        );
+        return true;
+    }
+    
+    /**
+     * Method to lease a direct buffer for frames to be read into. Direct 
+     * buffers save the channel copying the bytes through a temporary buffer of 
+     * its own on every read. The buffer should be held only for one read 
+     * cycle, and handed back with {@link #releaseReadBuffer releaseReadBuffer}
+     * as soon as the bytes read have been decoded.
+     * 
+     * @return A cleared buffer of {@link #READ_BUFF_SIZE READ_BUFF_SIZE} bytes
+     */
+    public ByteBuffer leaseReadBuffer()
+    {
+        return readPool.lease();
+    }
+    
+    /**
+     * Method to hand a buffer leased by {@link #leaseReadBuffer leaseReadBuffer}
+     * back for reuse. The buffer must not be used after it's been released.
+     * 
+     * @param buff The read buffer
+     */
+    public void releaseReadBuffer(ByteBuffer buff)
+    {
+        readPool.release(buff);
+    }
+    
+    /**
+     * Method to let go of the websocket state of a connection that has been 
+     * closed. The connection's outbound queue is freed, the frames that were 
+     * never written are released and any frame sent afterwards is refused. 
+     * 
+     * @param clientKey The {@code SelectionKey} of the closed connection
+     */
+    public void disconnect(SelectionKey clientKey)
+    {
+        // Local Variable Declaration 
+        WebSocketData state;
         
-        // Process the payload data according to the frame's fin bit and opcode
-        if (fin)
+        // Connections that never finished the handshake have no state
+        if (clientKey.attachment() instanceof WebSocketData)
         {
-            /* If the fin bit is set to 1 then this was the last frame in the 
-             * data gram, proceed by checking the opcode to see what to do with 
-             * the delivered data gram. */
-            if (opCode == 0)
+            state = (WebSocketData) clientKey.attachment();
+            
+            // Free the queue and release the frames stuck in it
+            for (ByteBuffer[] frame : state.getOutbound().free())
             {
-                /* If the opcode is 0, but the fin bit is 1 then the message is
-                 * complete, get the opcode stored on the socket object for this
-                 * connection. Continue processing the gathered message based on
-                 * opcode.*/
-                opCode = (byte) this.sockets.get(clientKey)
-                                    .<Object>getProperty(WebSocketData.OPCODE);
+                this.release(frame);
             }
             
+            // Hand the connection's decompressor back to the pool
+            if (state.getDeflate() != null)
+            {
+                state.getDeflate().release();
+            }
+        }
+    }
+    
+    /**
+     * Method to parse a frame sent by a client. The bytes passed are wrapped
+     * and handed to {@link #unFrame(ByteBuffer, SelectionKey, 
+     * WebsocketStringDataHandler, WebsocketByteDataHandler) unFrame}, so they
+     * may hold a partial frame or several frames.
+     * 
+     * @param frame The byte array containing the bytes that make up the frame
+     * @param clientKey The {@code SelectionKey} of socket over which this frame 
+     *        is coming. This key is also how this connection is being tracked
+     *        by this API.
+     * @param strHndlr Lambda to handle text messages
+     * @param byteHndlr Lambda to handle binary messages
+     * 
+     * @throws Exception If the frame's mask bit is unset or if the 
+     *         payload length is out of bounds. These are fatal errors and the socket
+     *         connection should be closed.
+     */
+    @Override
+    public void unFrame( byte[] frame, SelectionKey clientKey, 
+       WebsocketStringDataHandler strHndlr, WebsocketByteDataHandler byteHndlr ) throws Exception
+    {
+        this.unFrame(ByteBuffer.wrap(frame), clientKey, strHndlr, byteHndlr);
+    }
+    
+    /**
+     * Method to parse the frames sent by a client. The buffer passed may hold 
+     * any amount of bytes read from the client, a frame split across reads is
+     * picked up where the last read left off and several frames coalesced into
+     * one read are decoded one after another. The method takes in Lambda 
+     * expressions ({@link #WebsocketDataHandler WebsocketStringDataHandler})
+     * that will be called once for every complete message decoded. The payload
+     * could be either a string of characters or bytes. 
+     * 
+     * @param frames The buffer holding the bytes read from the client between 
+     *        its position and limit. All of them are consumed.
+     * @param clientKey The {@code SelectionKey} of socket over which this frame 
+     *        is coming. This key is also how this connection is being tracked
+     *        by this API.
+     * @param strHndlr The 
+     *        {@link #WebsocketStringDataHandler WebsocketStringDataHandler} lambda
+     *        expression to handle the parsed payload.
+     * @param byteHndlr
+     * 
+     * @throws Exception If the frame's mask bit is unset or if the 
+     *         payload length is out of bounds. These are fatal errors and the socket
+     *         connection should be closed.
+     * 
+     * @TODO If the caller doesn't pass a payload handler should an error be 
+     *       thrown or should just nothing happen? Right now nothing happens
+     */
+    public void unFrame( ByteBuffer frames, SelectionKey clientKey, 
+       WebsocketStringDataHandler strHndlr, WebsocketByteDataHandler byteHndlr ) throws Exception
+    {
+        this.unFrame(frames, clientKey, (payload, opCode) ->
+        {
             // If the opcode is 1 then the payload is expected to be text based
-            if (opCode == 1)
+            if (opCode == OP_TEXT && strHndlr != null)
             {
-                /* Invoke the payload handler (if passed) passing the message to 
-                 * this method's caller */
-                if (strHndlr != null)
-                {   
-                    // Unbox the Object array to primitive byte[] for return to caller
-                    byte rawData[] = this.unboxByteArray(
-                        /* Clear the payload kept by the property mapper, as the
-                         * current byte string is passed to this method caller */
-                        this.sockets.get(clientKey).<Object[]>setProperty(WebSocketData
-                                              .PY_LOAD, new Object[0])
-                    );
-                    
-                    // Pass the byte array as a String back
-                    strHndlr.handleStringData( new String(rawData, "UTF-8"));
-                    
-                } // ELSE THROW AN ERROR?                
+                // Decode the payload straight from the buffer as a String
+                strHndlr.handleStringData( UTF_8.decode(payload).toString() );
             }
             // If the opcode was 2 then the payload is a byte string
-            else if (opCode == 2)
+            else if (opCode == OP_BINARY && byteHndlr != null)
             {
-                /* Invoke the payload handler passed (if passed) passing the 
-                 * bytes along */
-                if (byteHndlr != null)
+                // Pass a view of the payload bytes back 
+                byteHndlr.handleByteData( payload.asReadOnlyBuffer() );
+            }
+        });
+    }
+    
+    /**
+     * Method to parse the frames sent by a client, handing every complete data
+     * message to the handler passed as raw bytes. The bytes were unmasked 
+     * straight into the array of the buffer handed over, they are neither 
+     * decoded nor copied again. A handler that {@link 
+     * WebsocketMessageHandler#keeping keeps} its messages is handed the 
+     * buffer for good, so a message can travel on from here as the one 
+     * buffer, any other is lent a view that is reused for the next message.
+     * See {@link #unFrame(ByteBuffer, SelectionKey, 
+     * WebsocketStringDataHandler, WebsocketByteDataHandler) unFrame} for how 
+     * the bytes read are decoded.
+     * 
+     * @param frames The buffer holding the bytes read from the client between 
+     *        its position and limit. All of them are consumed.
+     * @param clientKey The {@code SelectionKey} of socket over which this frame 
+     *        is coming.
+     * @param msgHndlr Lambda called with each complete text or binary message
+     *        along with its opcode.
+     * 
+     * @throws Exception If the frame's mask bit is unset or if the 
+     *         payload length is out of bounds. These are fatal errors and the socket
+     *         connection should be closed.
+     */
+    public void unFrame( ByteBuffer frames, SelectionKey clientKey, 
+                         WebsocketMessageHandler msgHndlr ) throws Exception
+    {
+        this.unFrame(frames, clientKey, null, msgHndlr, null);
+    }
+    
+    /**
+     * Method to parse the frames sent by a client, refusing any frame over the
+     * limits passed as soon as its header has been read. See 
+     * {@link #unFrame(ByteBuffer, SelectionKey, FrameLimits, 
+     * WebsocketMessageHandler, WebsocketStreamHandler) unFrame}.
+     * 
+     * @param frames The buffer holding the bytes read from the client between 
+     *        its position and limit. All of them are consumed.
+     * @param clientKey The {@code SelectionKey} of socket over which this frame 
+     *        is coming.
+     * @param limits The most payload a frame and a message may carry
+     * @param msgHndlr Lambda called with each complete text or binary message
+     *        along with its opcode.
+     * 
+     * @throws Exception If the frame's mask bit is unset, if the payload 
+     *         length is out of bounds or over the limits. These are fatal 
+     *         errors, the client should be sent a close frame with the status 
+     *         {@link #closeStatusOf closeStatusOf} the exception and the socket
+     *         connection should be closed.
+     */
+    public void unFrame( ByteBuffer frames, SelectionKey clientKey, FrameLimits limits,
+                         WebsocketMessageHandler msgHndlr ) throws Exception
+    {
+        this.unFrame(frames, clientKey, limits, msgHndlr, null);
+    }
+    
+    /**
+     * Method to parse the frames sent by a client, streaming messages over the
+     * connection's stream threshold. See {@link #unFrame(ByteBuffer, 
+     * SelectionKey, FrameLimits, WebsocketMessageHandler, 
+     * WebsocketStreamHandler) unFrame}.
+     * 
+     * @param frames The buffer holding the bytes read from the client between 
+     *        its position and limit. All of them are consumed.
+     * @param clientKey The {@code SelectionKey} of socket over which this frame 
+     *        is coming.
+     * @param msgHndlr Lambda called with each complete text or binary message
+     *        along with its opcode.
+     * @param streamHndlr Lambda called with each chunk of a streamed message.
+     *        If it's null no message is streamed, every message is gathered 
+     *        whole and handed to the message handler, held to the limits.
+     * 
+     * @throws Exception If the frame's mask bit is unset or if the 
+     *         payload length is out of bounds. These are fatal errors and the socket
+     *         connection should be closed.
+     */
+    public void unFrame( ByteBuffer frames, SelectionKey clientKey, 
+                         WebsocketMessageHandler msgHndlr, 
+                         WebsocketStreamHandler streamHndlr ) throws Exception
+    {
+        this.unFrame(frames, clientKey, null, msgHndlr, streamHndlr);
+    }
+    
+    /**
+     * Method to parse the frames sent by a client, handing every complete data
+     * message to the message handler, or a chunk at a time to the stream 
+     * handler if the message is bigger than the connection's stream threshold
+     * (see {@link #setStreamThreshold setStreamThreshold}). A streamed message
+     * is never gathered whole, each chunk is only valid for the handler's 
+     * call. Every frame is checked against the limits passed as soon as its 
+     * header has been read, before any of its payload is taken in. See 
+     * {@link #unFrame(ByteBuffer, SelectionKey, WebsocketMessageHandler) 
+     * unFrame} for the rest.
+     * 
+     * @param frames The buffer holding the bytes read from the client between 
+     *        its position and limit. All of them are consumed.
+     * @param clientKey The {@code SelectionKey} of socket over which this frame 
+     *        is coming.
+     * @param limits The most payload a frame and a message may carry, null for
+     *        {@link FrameLimits#DEFAULT FrameLimits.DEFAULT}
+     * @param msgHndlr Lambda called with each complete text or binary message
+     *        along with its opcode.
+     * @param streamHndlr Lambda called with each chunk of a streamed message.
+     *        If it's null no message is streamed, every message is gathered 
+     *        whole and handed to the message handler, held to the limits.
+     * 
+     * @throws Exception If the frame's mask bit is unset, if the payload 
+     *         length is out of bounds or over the limits. These are fatal 
+     *         errors, the client should be sent a close frame with the status 
+     *         {@link #closeStatusOf closeStatusOf} the exception and the socket
+     *         connection should be closed.
+     */
+    public void unFrame( ByteBuffer frames, SelectionKey clientKey, FrameLimits limits,
+                         WebsocketMessageHandler msgHndlr, 
+                         WebsocketStreamHandler streamHndlr ) throws Exception
+    {
+        // Local Variable Declaration 
+        WebSocketData state = (WebSocketData) clientKey.attachment();
+        FrameDecoder decoder = state.getDecoder();
+        PayloadBuffer payload; byte opCode = 0x0; boolean last;
+        
+        /* Hold the frames read to the caller's limits, and only stream 
+         * messages if the caller has somewhere to hand the chunks */
+        decoder.setLimits(limits);
+        decoder.setStreamable(streamHndlr != null);
+        
+        // Decode frames until the bytes read run out
+        while (decoder.decode(frames))
+        {
+            /* Chunks of a streamed message are handed over as they arrive, the
+             * payload buffer is cleared so the next chunk starts at its front */
+            if (decoder.isStreaming())
+            {
+                payload = decoder.getPayload();
+                last = decoder.isFrameDone() && decoder.isFin();
+                
+                // Compressed chunks are inflated on their way to the handler
+                if (decoder.isCompressed())
+                {
+                    state.getDeflate().inflate(payload.array(), payload.arrayOffset(), 
+                                               payload.length(), last, 
+                                               decoder.getLimits().getMaxMessage(), 
+                                               decoder.getOpcode(), streamHndlr);
+                }
+                else if (streamHndlr != null && (last || payload.length() > 0))
                 {
-                    // Unbox the Object array to primitive byte[] for return to caller
-                    byte rawData[] = this.unboxByteArray(
-                        /* Clear the payload kept by the property mapper, as the
-                         * current byte string is passed to this method caller */
-                        this.sockets.get(clientKey).<Object[]>setProperty(WebSocketData
-                                              .PY_LOAD, new Object[0])
-                    );
+                    streamHndlr.handleChunk(payload.slice(), decoder.getOpcode(), last);
+                }
+                
+                payload.clear();
+                
+                continue;
+            }
+            
+            /* A zero fin bit means that this was not the last frame in the 
+             * frame sequence. The decoder keeps the payload gathered so far and
+             * the opcode of the first frame, wait for the rest to arrive. */
+            if (!decoder.isFin())
+            {
+                continue;
+            }
+            
+            /* If the fin bit is set to 1 then this was the last frame in the 
+             * data gram, proceed by checking the opcode to see what to do with 
+             * the delivered data gram. */
+            opCode = decoder.getOpcode();
+            payload = decoder.getPayload();
+            
+            // Text and binary messages are handed over along with their bytes
+            if (opCode == OP_TEXT || opCode == OP_BINARY)
+            {
+                /* A compressed message is inflated into a buffer of its own, 
+                 * held to the same limit as the message was on the wire */
+                if (decoder.isCompressed())
+                {
+                    ByteBuffer inflated = state.getDeflate().inflate(payload.array(), 
+                                              payload.arrayOffset(), payload.length(), 
+                                              decoder.getLimits().getMaxMessage());
                     
-                    // Pass the byte array back
-                    byteHndlr.handleByteData( rawData );
+                    payload.clear();
                     
-                } // ELESE THROW AN ERROR?                
+                    if (msgHndlr != null)
+                    {
+                        msgHndlr.handleMessage(inflated, opCode);
+                    }
+                    
+                    continue;
+                }
+                
+                /* A handler that keeps its messages is handed the payload for
+                 * good, the decoder starts a new buffer for the next message.
+                 * Any other handler is lent a view of the payload in place. */
+                if (msgHndlr != null && msgHndlr.keepsMessage())
+                {
+                    msgHndlr.handleMessage(payload.detach(), opCode);
+                    
+                    continue;
+                }
+                else if (msgHndlr != null)
+                {
+                    msgHndlr.handleMessage(payload.view(), opCode);
+                } // ELSE THROW AN ERROR?
             }
             // If the opcode is 8 then the client wants to close the connection 
-            else if (opCode == 8)
+            else if (opCode == OP_CLOSE)
             {
                 // Echo the frame back to the client 
                 
                 // Close the socket connection 
             }
-            else if (opCode == 9)
+            else if (opCode == OP_PING)
             {
                 // Send the ping data back to the client as a pong 
                 
             }
-            else if (opCode == 10)
+            else if (opCode == OP_PONG)
             {
                 // Handle pong frame
                 System.out.println("We got a pong frame");
             }
-        }
-        else if (opCode != 0)
-        {
-            /* A zero fin bit means that this was not the last frame in the 
-             * frame sequence. Save the opcode from the first frame, so 
-             * that the other frames are delt with in the same way. Filter out 
-             * any zero opCodes, so that the saved opcode is not overwritten. 
-             * THIS NEEDS TO BE TESTED. */
-            this.sockets.get(clientKey).setProperty(WebSocketData.OPCODE, 
-                    Byte.toString(opCode));
+            
+            /* The message is complete and has been handed off, clear the 
+             * payload buffer so it's ready for the next message */
+            payload.clear();
         }
     }   
     
-/*------------------------------ PRIVATE METHODS -----------------------------*/
     /**
-     * Method to read in the raw HTTP headers from the socket client during the
-     * initial connection process.  
-     * 
-     * @param clientKey The key representing the client connection in this 
-     *        selector thread's selector.
+     * Method to tell a client why its connection is being failed, by sending
+     * it a close frame with the status passed. The frame is written straight 
+     * to the channel, once, by the selector thread that owns the connection, 
+     * ahead of any frames still queued. It's a last word before the caller 
+     * closes the connection, so if the socket can't take it the frame is 
+     * simply lost.
      * 
-     * @return The raw serialized string representation of the client socket 
-     *         headers
+     * @param clientKey The {@code SelectionKey} of the connection being failed
+     * @param status The close status code, such as 
+     *        {@link #CLOSE_TOO_BIG CLOSE_TOO_BIG}
      */
-    private String receiveHeaders (SelectionKey clientKey)
+    public void sendClose(SelectionKey clientKey, int status)
     {
         // Local Variable Declaration 
-        int bytesRead = 0; byte[] trimedHeader;
-        String rawHeaders = null; SocketChannel clientSC; 
+        ByteBuffer frame = this.putHeader(ByteBuffer.allocate(4), 2, OP_CLOSE);
         
-        try 
-        {
-            // Get the socket channel from the key passed 
-            clientSC = (SocketChannel)clientKey.channel();
-
-            // Clear the buffer before each read
-            headerBuff.clear();
-
-            // Read the header in from the socket channel
-            bytesRead = clientSC.read(headerBuff);
-
-            // Initialize the header byte array to the amount of bytes read
-            trimedHeader = new byte[bytesRead];
-
-            // Trim off any white space 
-            System.arraycopy(headerBuff.array(), 0, trimedHeader, 0, bytesRead);
-
-            // Convert bytes to String for parsing 
-            rawHeaders = new String(trimedHeader, Charset.forName("UTF-8"));
-
-            // Trim trailing whitespace 
-            rawHeaders = rawHeaders.trim();
-        }
-        catch(IOException ioe)
+        // The payload of the close frame is the 16 bit status code
+        frame.putShort((short) status).flip();
+        
+        try
         {
-            ioe.printStackTrace();
+            ((SocketChannel) clientKey.channel()).write(frame);
         }
-        finally
+        catch (IOException ioe)
         {
-            return rawHeaders;
+            // The connection is being closed either way
         }
     }
     
     /**
-     * Method to parse the serialized headers sent by the client. The method 
-     * also validates them against the standards found in 
-     * {@link #HeaderStandards HeaderStandards}. If the standard doesn't exist 
-     * in the mapping then no entry is made. If the value is invalid then the 
-     * empty String ("") is mapped to the valid standard name. 
+     * Method to find the close status a connection should be failed with for
+     * an exception thrown by {@link #unFrame(ByteBuffer, SelectionKey, 
+     * FrameLimits, WebsocketMessageHandler, WebsocketStreamHandler) unFrame}.
      * 
-     * @param serialHeaders The raw serialized header String.
+     * @param ex The exception thrown 
      * 
-     * @return The mapping of header keys to header values as extracted from the
-     *         serialHeaders string. 
-     * @TODO FIND OUT WHY "(\\/ )" REGEX ISN'T PARSING THE ' ' OUT OF GET METHOD HEADER
-     *       TRY "( \\/ )"
+     * @return {@link #CLOSE_TOO_BIG CLOSE_TOO_BIG} for a frame over the 
+     *         limits, {@link #CLOSE_PROTOCOL_ERROR CLOSE_PROTOCOL_ERROR} for
+     *         anything else
      */
-    private Map<String, String> parseAndValidateHeaders(String serialHeaders)
+    public static int closeStatusOf(Exception ex)
     {
-        // Local Variable Declaration 
-        Stream<String> headerEntries; String firstHeaderEntry, firstHeaderEntryKV[];
-        Map<String, String> validatedHeaders = new HashMap<>();
-        class Wrapper { String[] headerKV; }; Wrapper accessor = new Wrapper();  
-        int firstCRLF = 0;
-        
-        // Find the first CRLF
-        firstCRLF = serialHeaders.indexOf("\r\n"); 
-        
-        // Extract the first header entry
-        firstHeaderEntry = serialHeaders.substring(0, firstCRLF);
-        
-        // Capture the rest of the headers 
-        serialHeaders = serialHeaders.substring((firstCRLF + 2));
-
-        // Split the method from the standard and version 
-        firstHeaderEntryKV = firstHeaderEntry.split("(\\/)");
-        
-        // Make sure there was three element parsed from the first line 
-        if (firstHeaderEntryKV.length == 3)
-        {
-            // Put the method in the map, trim off white space (should be filtered from regEx)
-            validatedHeaders.put(RQS_METHOD, firstHeaderEntryKV[0].trim());
-
-            // Put the standard into the map
-            validatedHeaders.put(RQS_STANDRD, firstHeaderEntryKV[1]);
-            
-            // Put the version into the map
-            validatedHeaders.put(RQS_VERSION, firstHeaderEntryKV[2]);
-        }
-        
-        // Get a stream over the rest of the headers in the serialheaders passed
-        headerEntries = serialHeaders.lines();
-        
-        // Loop through the rest of line header entries
-        headerEntries.forEach((entry) ->
-        {
-            // Split each line along thier natural delimiters
-            accessor.headerKV = entry.split("(: )");
-            
-            // Make sure a key value pair was just parsed
-            if (accessor.headerKV.length == 2)
-            {
-                // Check in with the validation standard for each entry
-                if (HeaderStandards.checkStandard(accessor.headerKV[0]))
-                {
-                    /* Determine the header value based on wether the value is 
-                     * valid according to the standard. Wildcards (*) allowed */
-                    String headerValue = 
-                        HeaderStandards.check(accessor.headerKV[0], accessor.headerKV[1]) || 
-                        HeaderStandards.check(accessor.headerKV[0], HeaderStandards.WLD_CRD)
-                            ? accessor.headerKV[1] : "";
-                    
-                    // Put the value with it's header in the map
-                    validatedHeaders.put(accessor.headerKV[0], headerValue.trim());
-                }
-            }
-        });
-        
-        return validatedHeaders;
+        return ex.getCause() != null && MSG_TOO_BIG.equals(ex.getCause().getMessage())
+               ? CLOSE_TOO_BIG : CLOSE_PROTOCOL_ERROR;
     }
     
+/*------------------------------ PRIVATE METHODS -----------------------------*/
     /**
-     * Method to complete the hand shake process between this server and a web
-     * socket client. Sends back the response header
-     * 
-     * @param headers Mapping of header keys (names) and header values.
+     * Method to write the header of an unmasked frame holding the whole 
+     * payload into the buffer passed.
      * 
-     * @param clientKey The SelectionKey that represents the client socket 
-     *        trying to connect
+     * @param header The buffer the header is written into, at least 
+     *        {@link #MAX_HDR_SIZE MAX_HDR_SIZE} bytes
+     * @param length The length of the payload
+     * @param opcode The opcode of the frame
      * 
-     * @TODO Add response header for a bad request when an IOException is caught
+     * @return The header buffer, positioned just past the header
      */
-    private void finishConnection(Map<String, String> headers, SelectionKey clientKey)
+    private ByteBuffer putHeader(ByteBuffer header, long length, byte opcode)
     {
-        // Local Variable Declaration
-        String SWSKey;
-        byte[] rsp; 
-        SocketChannel sc = null; 
+        /* The fin bit is always set, the whole payload goes in one frame. RSV1
+         * passes through for compressed payloads. */
+        header.put((byte) (0b10000000 | (opcode & 0b01001111)));
+        
+        /* Pack the payload length into the second byte when it fits in 7 bits,
+         * otherwise put the length code in the second byte followed by the 16 
+         * or 64 bit length, high byte first. The mask bit is left unset. */
+        return FrameLength.put(header, length, false);
+    }
+    
+    /* Method to answer a client whose upgrade request was refused, best 
+     * effort since the connection is closed right after. An origin the policy
+     * doesn't allow is Forbidden, a version it doesn't speak is answered with
+     * the versions it does, anything else is a Bad Request. */
+    private void refuse(SocketChannel sc, HeaderPolicy policy, Exception ex)
+    {
+        // Local Variable Declaration 
+        String cause = ex.getCause() != null ? ex.getCause().getMessage() : null, 
+               response;
+        
+        if (FORBIDDEN.equals(cause))
+        {
+            response = FORBIDDEN_HDR + ex.getMessage() + "\r\n\r\n";
+        }
+        else if (BAD_VERSION.equals(cause))
+        {
+            response = BAD_VERSION_HDR + policy.getVersions() + "\r\n\r\n";
+        }
+        else
+        {
+            response = this.BAD_RQST_HDR + ex.getMessage() + "\r\n\r\n";
+        }
         
         try 
         {
-            // Get the socketchannel from the key representing the connecting client 
-            sc = (SocketChannel) clientKey.channel();
-            
-            // Get the Sec-WebSocketData-Key
-            SWSKey = headers.get("Sec-WebSocket-Key");
-
-            // Build response header to send to client to complete handshake
-            rsp = (this.HND_SHK_HDR
-                + Base64.getEncoder().encodeToString(MessageDigest
-                .getInstance("SHA-1").digest((SWSKey + this.magicString)
-                .getBytes("UTF-8"))) + "\r\n\r\n").getBytes("UTF-8");
-
-            // Write the response header back to the connection client. That's it!
-            sc.write(ByteBuffer.wrap(rsp));
+            sc.write(ByteBuffer.wrap(response.getBytes(UTF_8)));
         } 
-        catch (IOException ex) 
-        {            
-            ex.printStackTrace();
-        } 
-        catch (NoSuchAlgorithmException ex) 
+        catch (IOException ioe) 
         {
-            Logger.getLogger(RecptionRoom.class.getName()).log(Level.SEVERE, null, ex);
+            Logger.getLogger(RecptionRoom.class.getName()).log(Level.SEVERE, null, ioe);
         }
     }
     
     /**
-     * Method to unbox a {@code Byte[]} wrapper object to a primitive 
-     * {@code byte[]}. 
+     * Method to pick the subprotocol of a connection from those offered by the
+     * client, in the client's order of preference.
+     * 
+     * @param offered The value of the {@code Sec-WebSocket-Protocol} header, a
+     *        comma separated list, may be null
      * 
-     * @param unboxByteArray The array who's values will individually be unboxed.
+     * @return The first subprotocol offered that the server speaks, or null
      */
-    private byte[] unboxByteArray (Object [] box)
+    private String chooseSubprotocol(String offered)
     {
-        // Local Variable Declaration 
-        byte[] unboxed = new byte[box.length];
-        
-        // Loop through boxed array and convert 
-        for (int i = 0; i < box.length; i++)
+        if (offered != null)
         {
-            unboxed[i] = (byte) box[i];
+            for (String protocol : offered.split(","))
+            {
+                if (subprotocols.contains(protocol.trim()))
+                {
+                    return protocol.trim();
+                }
+            }
         }
         
-        return unboxed;
+        return null;
+    }
+    
+    /**
+     * Method to encode the response that completes the hand shake process 
+     * between this server and a web socket client. 
+     * 
+     * @param clientKey The value of the client's Sec-WebSocket-Key header
+     * 
+     * @param protocol The subprotocol chosen for the connection, null if none
+     * 
+     * @param extensions The extensions agreed on for the connection, null if
+     *        none
+     * 
+     * @return The response header
+     */
+    private byte[] buildResponse(String clientKey, String protocol, String extensions)
+    {
+        return (this.HND_SHK_HDR
+             + this.acceptKey(clientKey) + "\r\n"
+             + (protocol != null ? "Sec-WebSocket-Protocol: " + protocol + "\r\n" : "")
+             + (extensions != null ? "Sec-WebSocket-Extensions: " + extensions + "\r\n" : "")
+             + "\r\n").getBytes(UTF_8);
     }
-}
+}
\ No newline at end of file
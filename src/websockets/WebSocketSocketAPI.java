@@ -3,16 +3,11 @@ package websockets;
 
 import chatDB.RecptionRoom;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Base64;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -138,9 +133,11 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
      * @param opcode Determines what type of data the frame(s) should be 
      *        interpreted as by the receiver. 1 for text (string) and 2 for 
      *        binary data. Defaults to 1 if > 2. 
-     * @param frameDataSize The size of an individual frame. This size must be 
-     *        between 0 and 2^31 - 1 (since Java uses 32 bit signed integers).
-     *        This value will default to 2^31 - 1 (Integer.MAX_VALUE). 
+     * @param frameDataSize The most payload bytes put in an individual frame. 
+     *        This size must be between 1 and 2^31 - 1 (since Java uses 32 bit
+     *        signed integers). This value will default to 2^31 - 1 
+     *        (Integer.MAX_VALUE). Each frame's header carries the length of 
+     *        its own payload. 
      * @param framesHndlr Lambda called with frames created. This lambda is 
      *        expected to handle frames once they have been created. 
      */
@@ -148,131 +145,57 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
     public synchronized void frame(byte[] data, byte opcode, int frameDataSize, WebsocketFramedDataHandler framesHndlr) 
     {
         // Local Variable Declaration 
-        byte byte1 = (byte) 0b11111111; byte byte2 = (byte) 0b11111111,
-        frames[][], mask[] = new byte[4]; 
-        int partFrameDataSize = 0, frameCount = 0, frameDex = 0, dataDex = 0, 
-            pyldByteCount = 0, dataLength = data.length, thisFrameSize = 0; 
-        final int BIT_16_PYLD = 65535, BIT_7_PYLD = 125;
+        byte frames[][], mask[] = new byte[4]; 
+        int frameCount = 0, frameDex = 0, dataDex = 0, thisFrameSize = 0; 
         
-        /* The frame size must be a valid number that is less than the maximum 
-         * allowed and greater than -1 if it's not force it into maximum allowed */
-        frameDataSize = frameDataSize <= Integer.MAX_VALUE && frameDataSize > -1 
-                  ? frameDataSize : Integer.MAX_VALUE;
+        /* The frame size must be a valid number greater than 0, if it's not 
+         * force it into maximum allowed */
+        frameDataSize = frameDataSize > 0 ? frameDataSize : Integer.MAX_VALUE;
         
         /* Calculate the frame count from desired frame size payload byte array 
-         * passed */
-        frameCount = data.length / frameDataSize;
+         * passed, adding in the last potentially partial frame. An empty 
+         * payload still takes one frame. */
+        frameCount = data.length / frameDataSize 
+                   + (data.length % frameDataSize == 0 ? 0 : 1);
+        frameCount = Math.max(frameCount, 1);
         
-        // Capture the pay load length of the last partial frame (if any)
-        partFrameDataSize = data.length % frameDataSize; 
+        // Default the opcode to text if it isn't a data opcode 
+        opcode = opcode > 2 || opcode < 0 ? 1 : opcode; 
         
-        // Make sure to add in the last potentially partial frame
-        frameCount += partFrameDataSize == 0 ? 0 : 1; 
-        
-        // Set the opcode on the last 4 bits 
-        byte1 &= opcode > 2 ? 1 : opcode; 
+        // Instansiate the array of frame arrays 
+        frames = new byte[frameCount][]; 
         
-        /* Set the fin bit for the first frame in the sequence of frames. Assume
-         * reserved bit flags wont be used for now. */
-        byte1 ^= frameCount > 1 ? 0b00000000 : 0b10000000;
+        // Generate Mask key 
+        mask[0] = 50; 
+        mask[1] = 123;
+        mask[2] = 100;
+        mask[3] = 36;
         
-        // Set reserved flag bits
-                
-        // Instansiate the array of frame arrays 
-        frames = new byte[frameCount][0]; 
-      
-        /* If the frame count is only one and partialFrameSize is greater than 0 
-         * then the partialFrameSize should be used to determine the length of 
-         * the frame buffer since there is only enough data for a frame with a 
-         * partial payload. */
-        thisFrameSize = frameCount == 1 && partFrameDataSize > 0 
-                                         ? partFrameDataSize : frameDataSize;
         // Loop through and build each frame one by one 
         for (int i = 0; i < frameCount; i++)
         {
-            // Determine the length code
-            if (thisFrameSize <= BIT_7_PYLD)
-            {
-                /* If the desired frame is less than or equal to the 7 bit 
-                 * payload size then the payload length number will fit into the 
-                 * final 7 bits of the second byte of the frame. Go ahead and 
-                 * create that byte by anding the desired frame size with -128 
-                 * (0b10000000), this will manipulate the lower 7 bits of the 
-                 * byte, while leaving the top bit as 1. The top bit is the mask
-                 * bit, which will tell the reciever we're sending this frame 
-                 * with a masked payload. No additional byte space in the frame 
-                 * will be needed. */
-                byte2 &= (-128 + thisFrameSize);                
-            }
-            else if (thisFrameSize <= BIT_16_PYLD)
-            {
-                /* If the desired frame payload length is between 125 and 65535
-                 * then the payload code of 126 will be put in the lower 7 bits
-                 * of the second byte this will indicate to the receiver that 
-                 * the length of the payload is stored in the next 16 bits 
-                 * (2 bytes).*/
-                byte2 &= 0b11111110;
-                //byte2 &= 0b01111110;
-                
-                /* Indicate that the final frame will need space to pack the 
-                 * bytes of this number */
-                pyldByteCount = 2;
-            }
-            else 
-            {
-                /* If the desired payload length is between 2^16 and 2^64 - 1 
-                 * (2^32 - 1 for Java arrays) then payload code 127 will be 
-                 * stored in the lower 7 bits of the second byte to indicate 
-                 * this. The reciever will know to look in the 64 bits (8 bytes)
-                 * for the unsigned integer indicating the payload length. */
-                byte2 &= 0b11111111;
-                //byte2 &= 0b01111111;
-                
-                /* Indicate that the final frame will need to allocate space to
-                 * pack all 8 bytes in. */
-                pyldByteCount = 8;
-            }
+            /* Each frame carries a full frame's worth of the data, except the
+             * last which carries whatever is left */
+            thisFrameSize = Math.min(frameDataSize, data.length - dataDex);
             
             // Set the size of the frame 
-            frames[i] = new byte[2 + pyldByteCount + mask.length + thisFrameSize];
+            frames[i] = new byte[FrameLength.headerSize(thisFrameSize, true) + thisFrameSize];
             
-            /* Pack the first and second bytes, with the fin bit, reserved bits, 
-             * opcode, mask bit and payload length/code */
-            frames[i][frameDex = 0] = byte1; // Restart the frame index
-            frames[i][++frameDex]   = byte2;
-           
-            // Generate Mask key 
-            mask[0] = 50; 
-            mask[1] = 123;
-            mask[2] = 100;
-            mask[3] = 36;
+            /* Pack the first byte. Only the first frame carries the opcode, 
+             * the rest are continuation frames (0), and only the last frame 
+             * has the fin bit set. Assume reserved bit flags wont be used for 
+             * now. */
+            frames[i][0] = (byte) ((i == frameCount - 1 ? 0b10000000 : 0) 
+                                 | (i == 0 ? opcode : 0));
             
-            /* The next set of bytes to add to the frame are the bytes that 
-             * comprise payload length. The payload length number could be 1 
-             * byte, 2 bytes, or 8 bytes wide and needs to put in the correct 
-             * order with low byte of the payload length number put in the low 
-             * byte position (last byte) in the frame payload length position. 
-             * Therefore, set the position of the frame index to the position 
-             * where the low byte of the payload length should go unless the 
-             * payload length is 0 meaning the payload length was less than 125.*/
-            frameDex += pyldByteCount; 
-            
-            /* Loop bacwards through current frame adding the bytes of 
-             * the extedended payload length in lowest to highest order to the 
-             * frame array. */
-            for (int j = 0; j < pyldByteCount; j++)
-            {
-                // Set in the frame array (255 = 0b11111111)
-                frames[i][frameDex - j] = (byte) (dataLength & 255); 
-                
-                // Shift the next byte off the length of bytes in the frame 
-                dataLength >>>= 8; 
-            }
+            /* Pack the mask bit and this frame's own payload length into the
+             * second byte, followed by the extended length if it's needed */
+            frameDex = FrameLength.put(frames[i], 1, thisFrameSize, true);
             
             /* Pack each byte of the mask key into the frame */
             for (byte key : mask)
             {
-                frames[i][++frameDex] = key;
+                frames[i][frameDex++] = key;
             }
             
             /* Now the byte data in the array passed can be added to the frame.
@@ -280,25 +203,7 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
              * concludes the forming of one frame. */
             for (int j = 0; j < thisFrameSize; j++)
             {
-                frames[i][++frameDex] = (byte) ((data[dataDex++] ^ mask[j % 4])); 
-            }
-            
-            /* Check whether the next frame is the last one or not. If it is 
-             * then set the opcode to zero, 'continuation' */
-            if ((opcode != 0b00000000) && (i < frameCount))
-            {
-                // Set the bottom nibble of the first byte 
-                byte1 &= 0b11110000;   
-            }
-            
-            // Check to see if the last frame is about to be processed
-            if (i == (frameCount - 1))
-            {
-                // Flip the fin bit in the first byte, preserving all other bits 
-                byte1 &= 0b11111111;
-                
-                // Change the size used to determine the frame payload data size 
-                thisFrameSize = partFrameDataSize;
+                frames[i][frameDex++] = (byte) ((data[dataDex++] ^ mask[j & 3])); 
             }
         }
 
@@ -341,15 +246,14 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
        WebsocketStringDataHandler strHndlr, WebsocketByteDataHandler byteHndlr ) throws Exception
     {
         // Local Variable Declaration 
-        int dataDex = 0; long total = 0, payloadLength = 0;
+        int dataDex = 0, extended = 0; long payloadLength = 0;
         
         boolean fin = false, rsv1 = false, rsv2 = false, rsv3 = false, mask = false;
         
         byte aByte = 0x0, opCode = 0x0, maskKeys[] = new byte[4];
         
-        ArrayList<Object> payload = new ArrayList<>();
+        PayloadBuffer payload;
         
-        final BigInteger PYLD_HGH_BIT = new BigInteger("-9223372036854775808", 10);        
         final byte FIN = (byte)128, RSV_1 = (byte)64, RSV_2 = (byte)32, 
                    RSV_3 = (byte)16, OPCODE = (byte)15, MASK = (byte)128, 
                    PYLD_LENGTH = (byte)127;
@@ -386,48 +290,20 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
         payloadLength = aByte & PYLD_LENGTH;
         
         // Determine how many bytes the payload length figure takes up in the frame
-        if (payloadLength == 126)
-        {
-            // Initialize total to 16 bit two byte combo
-            total = 255; 
-            
-            /* If the payload length is 126 then the payload length is contained
-             * in the next 16 bits. Get the first byte's worth (high byte) of
-             * the number, and store it in total*/
-            total &= frame[++dataDex];
-            
-            /* Shift the total up by eight bits. Zeros will be shifted in from 
-             * the rigth */
-            total <<= 8;
-            
-            /* Concatenate the second byte (low byte) with the total using a 
-             * bitwise XOR */
-            total ^= frame[++dataDex];
-            
-            // Store the payload length for furture use 
-            payloadLength = (int) total;
-        }
-        else if (payloadLength == 127)
+        extended = FrameLength.extendedBytes(aByte);
+        
+        if (extended > 0)
         {
-            // Intialiaze the total 
-            total = 0;
-            
-            /* If the payload length was 127 the payload length is contained in
-             * the next 64 bits (8 bytes). Loop through those bytes, 
-             * concatenating them together to get the actual payload length.*/
-            for (int i = 0; i < 8; i++)
-            {
-                // Concatenate the next byte from the frame 
-                total ^= frame[++dataDex];
-                
-                // Shift the last byte over to make room for the next byte 
-                total <<= 8; 
-            }
+            /* If the payload length is 126 or 127 then the payload length is 
+             * contained in the next 16 or 64 bits, an unsigned number with 
+             * the high byte first */
+            payloadLength = FrameLength.decode(frame, dataDex + 1, extended);
             
-            // Check to see if the total contained 0 for the most significant bit
-            payloadLength = ((total & PYLD_HGH_BIT.longValueExact()) == 1  ? -1 : total);
+            dataDex += extended;
         }
-        if (payloadLength < 0 || ( payloadLength > Long.MAX_VALUE ))
+        
+        // The payload has to fit in what's left of the frame after the mask
+        if (payloadLength > frame.length - dataDex - 1 - maskKeys.length)
         {
             /* If the payload length was negative or was greater than the 
              * maximum allowed payload length then throw an exception */
@@ -443,30 +319,16 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
             maskKeys[i] = frame[++dataDex];
         }
         
-        /* Get the payload data saved in the data mapping for this connection 
-         * and put it in a new ArrayList, so that it can be concatenated with 
-         * the payload being read from this frame. */
-        payload = new ArrayList<>(Arrays.<Object>asList(sockets.get(clientSoc)
-                     .<Object[]>getProperty(WebSocketData.PY_LOAD)));
+        /* Get the payload buffer kept for this connection, so that the payload
+         * being read from this frame is concatenated with the payload gathered
+         * from any prior frames of the same message.*/
+        payload = this.sockets.get(clientSoc).getPayload();
                 
-        /* Decrypt and store the payload data. This data will be used by the the
-         * server how it sees fit. The decryption is done byte by byte from what
-         * is left of the frame. Data messages (datagrams) that span multiple 
-         * frames will be added to the current payload here. */
-        for (int i = 0; i < payloadLength; i++)
-        {   
-            /* To unmask the each byte from the payload each byte from the 
-             * frame is XORed with a byte from the mask key array. That byte is
-             * at the loop index modulos with the amount of bytes in the mask 
-             * key array. */
-             payload.add((byte)(frame[++dataDex] ^ maskKeys[i % maskKeys.length]));
-        }
-        
-        /* Store the payload array in the data wrapper associated with the 
-         * client connection */
-        this.sockets.get(clientSoc).<Object[]>setProperty(
-            WebSocketData.PY_LOAD, payload.toArray()
-        );
+        /* Unmask the payload data straight into the connection's payload 
+         * buffer. This data will be used by the server how it sees fit. Data 
+         * messages (datagrams) that span multiple frames will be added to the 
+         * current payload here. */
+        payload.unmask(frame, dataDex + 1, (int) payloadLength, maskKeys);
         
         // Process the payload data according to the frame's fin bit and opcode
         if (fin)
@@ -491,16 +353,8 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
                  * this method's caller */
                 if (strHndlr != null)
                 {   
-                    // Unbox the Object array to primitive byte[] for return to caller
-                    byte rawData[] = this.unboxByteArray(
-                        /* Clear the payload kept by the property mapper, as the
-                         * current byte string is passed to this method caller */
-                        this.sockets.get(clientSoc).<Object[]>setProperty(WebSocketData
-                                              .PY_LOAD, new Object[0])
-                    );
-                    
-                    // Pass the byte array as a String back
-                    strHndlr.handleStringData( new String(rawData, "UTF-8"));
+                    // Decode the payload straight from the buffer as a String
+                    strHndlr.handleStringData( payload.toString(UTF_8) );
                     
                 } // ELSE THROW AN ERROR?                
             }
@@ -511,16 +365,8 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
                  * bytes along */
                 if (byteHndlr != null)
                 {
-                    // Unbox the Object array to primitive byte[] for return to caller
-                    byte rawData[] = this.unboxByteArray(
-                        /* Clear the payload kept by the property mapper, as the
-                         * current byte string is passed to this method caller */
-                        this.sockets.get(clientSoc).<Object[]>setProperty(WebSocketData
-                                              .PY_LOAD, new Object[0])
-                    );
-                    
-                    // Pass the byte array back
-                    byteHndlr.handleByteData( rawData );
+                    // Pass a view of the payload bytes back 
+                    byteHndlr.handleByteData( payload.slice() );
                     
                 } // ELESE THROW AN ERROR?                
             }
@@ -541,6 +387,10 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
                 // Handle pong frame
                 System.out.println("We got a pong frame");
             }
+            
+            /* The message is complete and has been handed off, clear the 
+             * payload buffer so it's ready for the next message */
+            payload.clear();
         }
         else if (opCode != 0)
         {
@@ -700,10 +550,8 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
             SWSKey = headers.get("Sec-WebSocket-Key");
 
             // Build response header to send to client to complete handshake
-            rsp = (this.HND_SHK_HDR
-                + Base64.getEncoder().encodeToString(MessageDigest
-                .getInstance("SHA-1").digest((SWSKey + this.magicString)
-                .getBytes("UTF-8"))) + "\r\n\r\n").getBytes("UTF-8");
+            rsp = (this.HND_SHK_HDR + this.acceptKey(SWSKey) + "\r\n\r\n")
+                .getBytes("UTF-8");
 
             // Write the response header back to the connection client. That's it!
             clientSoc.getOutputStream().write(rsp);
@@ -712,29 +560,5 @@ public final class WebSocketSocketAPI extends AbstractWebSocketAPI<Socket>
         {            
             ex.printStackTrace();
         } 
-        catch (NoSuchAlgorithmException ex) 
-        {
-            Logger.getLogger(RecptionRoom.class.getName()).log(Level.SEVERE, null, ex);
-        }
-    }
-    
-    /**
-     * Method to unbox a {@code Byte[]} wrapper object to a primitive 
-     * {@code byte[]}. 
-     * 
-     * @param unboxByteArray The array who's values will individually be unboxed.
-     */
-    private byte[] unboxByteArray (Object [] box)
-    {
-        // Local Variable Declaration 
-        byte[] unboxed = new byte[box.length];
-        
-        // Loop through boxed array and convert 
-        for (int i = 0; i < box.length; i++)
-        {
-            unboxed[i] = (byte) box[i];
-        }
-        
-        return unboxed;
     }
 }
@@ -1,13 +1,17 @@
 
 package websockets;
 
+import java.nio.ByteBuffer;
+
 /**
  * Functional interface to define the lambda signature for passing handler 
  * methods to the {@link #deFrame deFrame} and {@link #enFrame enFrame} methods
- * implemented by {@link #websockets.WebSocketImp WebSocketImp}. 
+ * implemented by {@link #websockets.WebSocketImp WebSocketImp}. The buffer 
+ * passed is a read only view over the connection's payload buffer and is only
+ * valid for the duration of the call, copy out anything that must be kept.
  * @author Ben
  */
 public interface WebsocketByteDataHandler
 {
-    public void handleByteData(byte[] data); 
+    public void handleByteData(ByteBuffer data); 
 }
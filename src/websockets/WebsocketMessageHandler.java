@@ -0,0 +1,58 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Functional interface to define the lambda signature for handling complete 
+ * data messages decoded by {@link WebSocketSelectionKeyAPI#unFrame(ByteBuffer,
+ * java.nio.channels.SelectionKey, WebsocketMessageHandler) unFrame}. Text and
+ * binary messages alike are passed as raw bytes, nothing is decoded. 
+ * <br><br>
+ * By default the buffer passed is a view of the connection's payload buffer, 
+ * which is reused for the next message, so it's only valid for the duration 
+ * of the call and nothing is allocated for the message. A handler that hands 
+ * the message on, such as to another thread, must {@link #keeping keep} it, 
+ * it's then handed a buffer that no longer belongs to the connection and may 
+ * be kept for as long as it's needed.
+ * 
+ * @author Ben Miller
+ * @version 1.0
+ */
+public interface WebsocketMessageHandler 
+{
+    public void handleMessage(ByteBuffer payload, byte opcode);
+    
+    /**
+     * @return true if the handler keeps the buffers it's passed past the call
+     */
+    public default boolean keepsMessage()
+    {
+        return false;
+    }
+    
+    /**
+     * Method to mark a handler as one that keeps the messages it's passed.
+     * 
+     * @param handler The handler
+     * 
+     * @return A handler passing every message on to the one passed, whose 
+     *         messages are handed over for good
+     */
+    public static WebsocketMessageHandler keeping(WebsocketMessageHandler handler)
+    {
+        return new WebsocketMessageHandler()
+        {
+            @Override
+            public void handleMessage(ByteBuffer payload, byte opcode)
+            {
+                handler.handleMessage(payload, opcode);
+            }
+            
+            @Override
+            public boolean keepsMessage()
+            {
+                return true;
+            }
+        };
+    }
+}
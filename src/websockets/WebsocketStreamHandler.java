@@ -0,0 +1,25 @@
+package websockets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Functional interface to define the lambda signature for handling the 
+ * payload of a large message a chunk at a time, as it arrives. Messages 
+ * bigger than a connection's stream threshold, see 
+ * {@link FrameDecoder#setStreamThreshold(long) setStreamThreshold}, are 
+ * handed over this way by {@link WebSocketSelectionKeyAPI#unFrame(ByteBuffer,
+ * java.nio.channels.SelectionKey, WebsocketMessageHandler, 
+ * WebsocketStreamHandler) unFrame} instead of being gathered whole.
+ * <br><br>
+ * The chunks of a message are passed in order, the last one with 
+ * {@code last} set. The chunk is a view of the connection's payload buffer 
+ * and is only valid until the handler returns, bytes that are needed longer
+ * have to be copied out.
+ * 
+ * @author Ben Miller
+ * @version 1.0
+ */
+public interface WebsocketStreamHandler 
+{
+    public void handleChunk(ByteBuffer chunk, byte opcode, boolean last);
+}
@@ -0,0 +1,287 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+
+/**
+ * Class to time the hot paths of the server. The project has no benchmark
+ * framework on its build path, so each benchmark is a plain program with a
+ * main method that uses this class to warm the code up, time it over a few
+ * rounds and count what it allocates. The benchmarks aren't part of the ant
+ * build, compile them against the server's classes and run them by hand:
+ * <pre>
+ *   javac -d build/bench -cp build/classes test/bench/*.java
+ *   java -cp build/bench:build/classes bench.PayloadBench
+ * </pre>
+ * The amount of rounds can be set with {@code -Dbench.rounds=N} and the
+ * amount of warm up rounds with {@code -Dbench.warmup=N}.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public final class Bench
+{
+    /**
+     * Interface for the code being timed.
+     */
+    public interface Task
+    {
+        /**
+         * Method to run the code being timed once.
+         *
+         * @param op The number of the run, from 0
+         *
+         * @return Any value worked out, it's kept so the work isn't optimized
+         *         away
+         *
+         * @throws Exception
+         */
+        long run(int op) throws Exception;
+    }
+
+/*---------------------------- PRIVATE DATA MEMBERS --------------------------*/
+    // The amount of rounds timed, and the amount run first to warm up
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 5);
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 5);
+
+    // Used to count the bytes the calling thread allocates
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Where the values worked out by the tasks are kept
+    private static volatile long sink = 0;
+/*----------------------------------------------------------------------------*/
+
+    // Class constructor, this class only has static methods
+    private Bench() {}
+
+    /**
+     * Method to time a task. The task is run for the warm up rounds, then
+     * for the rounds timed, each round running it the amount of times passed.
+     * The median round is printed on a line of its own.
+     *
+     * @param name What is being timed
+     * @param ops The amount of times the task is run each round
+     * @param task The task
+     *
+     * @return The operations per second of the median round
+     *
+     * @throws Exception If the task throws
+     */
+    public static double time(String name, int ops, Task task) throws Exception
+    {
+        // Local Variable Declaration
+        double[] rates = new double[ROUNDS];
+        long[] bytes = new long[ROUNDS];
+        long start, allocated, value = 0;
+        int median;
+
+        for (int round = 0; round < WARMUP; round++)
+        {
+            for (int op = 0; op < ops; op++)
+            {
+                value += task.run(op);
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            start = System.nanoTime();
+
+            for (int op = 0; op < ops; op++)
+            {
+                value += task.run(op);
+            }
+
+            rates[round] = ops * 1e9 / (System.nanoTime() - start);
+            bytes[round] = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        }
+
+        sink += value;
+
+        // Report the median round by rate, along with what it allocated
+        median = medianOf(rates);
+
+        System.out.printf("%-44s %14.0f ops/s %12.1f B/op%n", name,
+                          rates[median], (double) bytes[median] / ops);
+
+        return rates[median];
+    }
+
+    /**
+     * Method to print a line of a benchmark's results that isn't timed by
+     * {@link #time time}, such as a figure the benchmark worked out itself.
+     *
+     * @param name What was measured
+     * @param value The figure
+     * @param unit The unit of the figure
+     */
+    public static void report(String name, double value, String unit)
+    {
+        System.out.printf("%-44s %14.0f %s%n", name, value, unit);
+    }
+
+    /**
+     * Method to get the bytes allocated so far by every thread that's still
+     * running, used by benchmarks that spread their work across threads.
+     *
+     * @return The bytes allocated
+     */
+    public static long allocatedBytes()
+    {
+        // Local Variable Declaration
+        long total = 0;
+
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds()))
+        {
+            total += Math.max(0, bytes);
+        }
+
+        return total;
+    }
+
+    /**
+     * Method to build a frame the way a client sends it, masked.
+     *
+     * @param fin Whether the frame is the last of its message
+     * @param opcode The frame's opcode
+     * @param payload The unmasked payload
+     *
+     * @return The frame's bytes
+     */
+    public static byte[] clientFrame(boolean fin, int opcode, byte[] payload)
+    {
+        // Local Variable Declaration
+        byte[] mask = {0x37, (byte) 0xfa, 0x21, 0x3d};
+        int header = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+        byte[] frame = new byte[header + 4 + payload.length];
+        int dex = 0;
+
+        frame[dex++] = (byte) ((fin ? 0x80 : 0) | opcode);
+
+        if (payload.length < 126)
+        {
+            frame[dex++] = (byte) (0x80 | payload.length);
+        }
+        else if (payload.length < 65536)
+        {
+            frame[dex++] = (byte) (0x80 | 126);
+            frame[dex++] = (byte) (payload.length >>> 8);
+            frame[dex++] = (byte) payload.length;
+        }
+        else
+        {
+            frame[dex++] = (byte) (0x80 | 127);
+
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                frame[dex++] = (byte) ((long) payload.length >>> shift);
+            }
+        }
+
+        System.arraycopy(mask, 0, frame, dex, 4);
+        dex += 4;
+
+        for (int i = 0; i < payload.length; i++)
+        {
+            frame[dex + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+
+        return frame;
+    }
+
+    /**
+     * Method to make a key that isn't registered with any selector, to hang
+     * a connection's state on when driving the codec without a socket.
+     *
+     * @param attachment The object to attach to the key
+     *
+     * @return The key
+     */
+    public static SelectionKey keyOf(Object attachment)
+    {
+        // Local Variable Declaration
+        SelectionKey key = new DetachedKey();
+
+        key.attach(attachment);
+
+        return key;
+    }
+
+    /**
+     * Method to make a payload of the size passed out of printable bytes.
+     *
+     * @param size The amount of bytes
+     *
+     * @return The payload
+     */
+    public static byte[] payloadOf(int size)
+    {
+        // Local Variable Declaration
+        byte[] payload = new byte[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            payload[i] = (byte) ('a' + i % 26);
+        }
+
+        return payload;
+    }
+
+    // Method to find the round with the median rate
+    private static int medianOf(double[] rates)
+    {
+        // Local Variable Declaration
+        double[] sorted = rates.clone();
+
+        Arrays.sort(sorted);
+
+        for (int round = 0; round < rates.length; round++)
+        {
+            if (rates[round] == sorted[sorted.length / 2])
+            {
+                return round;
+            }
+        }
+
+        return 0;
+    }
+
+    /* Class to define a key that belongs to no selector, only its attachment
+     * is used */
+    private static final class DetachedKey extends SelectionKey
+    {
+        // The key's interest set
+        private int ops = OP_READ;
+
+        @Override
+        public SelectableChannel channel() { return null; }
+
+        @Override
+        public Selector selector() { return null; }
+
+        @Override
+        public boolean isValid() { return true; }
+
+        @Override
+        public void cancel() {}
+
+        @Override
+        public int interestOps() { return this.ops; }
+
+        @Override
+        public SelectionKey interestOps(int ops)
+        {
+            this.ops = ops;
+
+            return this;
+        }
+
+        @Override
+        public int readyOps() { return 0; }
+    }
+}
@@ -0,0 +1,119 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import websockets.WebSocketData;
+import websockets.WebSocketSelectionKeyAPI;
+
+/**
+ * Benchmark of many selector threads using the codec at once. Each thread
+ * stands in for a room's selector thread, with a connection of its own, and
+ * decodes a message from its client then frames a message back, over and
+ * over, through the one shared {@code WebSocketSelectionKeyAPI}. It's run
+ * once as the codec is now, keeping its decoding state with each connection,
+ * and once with every call made while holding the codec's monitor, the way
+ * {@code connect}, {@code frame} and {@code unFrame} used to be synchronized.
+ * <br><br>
+ * The rate printed is the messages decoded and framed each second by all the
+ * threads together. Lock free they should scale with the threads up to the
+ * amount of processors, under the monitor they can't.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class ContentionBench
+{
+    // The amounts of threads measured, and the messages each one handles
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int MESSAGES = Integer.getInteger("bench.messages", 500000);
+
+    // The codec shared by every thread
+    private static final WebSocketSelectionKeyAPI webSocs =
+        WebSocketSelectionKeyAPI.getInstance();
+
+    public static void main(String[] args) throws Exception
+    {
+        Bench.report("processors", Runtime.getRuntime().availableProcessors(), "");
+
+        // Warm both up before measuring anything
+        for (int i = 0; i < 5; i++)
+        {
+            hammer(2, MESSAGES / 2, false);
+            hammer(2, MESSAGES / 2, true);
+        }
+
+        for (int threads : THREADS)
+        {
+            Bench.report("per connection state, " + threads + " threads",
+                         hammer(threads, MESSAGES, false), "msg/s");
+            Bench.report("global monitor (before), " + threads + " threads",
+                         hammer(threads, MESSAGES, true), "msg/s");
+        }
+    }
+
+    /* Method to have the amount of threads passed each decode and frame the
+     * amount of messages passed at the same time, returns the messages
+     * handled each second by all of them */
+    private static double hammer(int threads, int messages, boolean locked)
+        throws Exception
+    {
+        // Local Variable Declaration
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        byte[] frame = Bench.clientFrame(true, 1, Bench.payloadOf(125));
+        long began;
+
+        for (int i = 0; i < threads; i++)
+        {
+            new Thread(() ->
+            {
+                // Local Variable Declaration
+                SelectionKey key = Bench.keyOf(new WebSocketData());
+                ByteBuffer frames = ByteBuffer.wrap(frame);
+
+                try
+                {
+                    start.await();
+
+                    for (int m = 0; m < messages; m++)
+                    {
+                        if (locked)
+                        {
+                            synchronized (webSocs)
+                            {
+                                echo(key, frames);
+                            }
+                        }
+                        else
+                        {
+                            echo(key, frames);
+                        }
+                    }
+                }
+                catch (Exception ex)
+                {
+                    ex.printStackTrace();
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        began = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        return (double) threads * messages * 1e9 / (System.nanoTime() - began);
+    }
+
+    // Method to decode the client's frame and frame its payload back
+    private static void echo(SelectionKey key, ByteBuffer frames) throws Exception
+    {
+        frames.clear();
+        webSocs.unFrame(frames, key, (payload, opcode) ->
+            webSocs.release(webSocs.frame(payload, opcode)));
+    }
+}
@@ -0,0 +1,174 @@
+package bench;
+
+import chatDB.RecptionRoom;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of the server taking a burst of reconnecting clients. A server is
+ * started on the loopback interface and as many clients as asked for, 50,000
+ * by default, connect as fast as a pool of client threads can open them. Each
+ * client sends its upgrade request, reads the answer and hangs up with a
+ * reset, so the burst isn't held up by ports waiting out their close. The
+ * handshakes completed a second are printed, along with the clients turned
+ * away, such as busy, and those that failed.
+ * <br><br>
+ * The cost the handshake workers took off the selector thread, working out
+ * the accept key, is also timed on its own, with a SHA-1 digest looked up for
+ * every handshake the way it used to be and with the digest each thread keeps.
+ * <br><br>
+ * The amount of clients can be set with {@code -Dbench.clients=N} and the
+ * amount of client threads with {@code -Dbench.threads=N}.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class HandshakeBench
+{
+    // The amount of clients in the burst, and the threads opening them
+    private static final int CLIENTS = Integer.getInteger("bench.clients", 50000);
+    private static final int THREADS = Integer.getInteger("bench.threads", 64);
+
+    // The magic string the client's key is hashed with
+    private static final String MAGIC = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    // The digest kept by each thread working out accept keys
+    private static final ThreadLocal<MessageDigest> sha1 = ThreadLocal.withInitial(() ->
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (Exception ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        PrintStream out = System.out;
+        String key = "dGhlIHNhbXBsZSBub25jZQ==";
+        RecptionRoom server;
+        InetSocketAddress address;
+        AtomicInteger next = new AtomicInteger(), upgraded = new AtomicInteger(),
+                      busy = new AtomicInteger(), failed = new AtomicInteger();
+        Thread[] clients = new Thread[THREADS];
+        long start, elapsed;
+
+        Bench.time("accept key, digest looked up (before)", 200000, op ->
+            acceptKey(MessageDigest.getInstance("SHA-1"), key).length());
+        Bench.time("accept key, digest kept per thread", 200000, op ->
+            acceptKey(sha1.get(), key).length());
+
+        /* Keep the server's logging out of the way, it logs every connection
+         * and every reset, even once the burst is over */
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(System.out);
+
+        server = new RecptionRoom("127.0.0.1", 0);
+        address = server.getAddress();
+        new Thread(server).start();
+        Thread.sleep(500);
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < clients.length; i++)
+        {
+            clients[i] = new Thread(() ->
+            {
+                while (next.getAndIncrement() < CLIENTS)
+                {
+                    try
+                    {
+                        if (handshake(address, key))
+                        {
+                            upgraded.incrementAndGet();
+                        }
+                        else
+                        {
+                            busy.incrementAndGet();
+                        }
+                    }
+                    catch (Exception ex)
+                    {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+            clients[i].start();
+        }
+
+        for (Thread client : clients)
+        {
+            client.join();
+        }
+
+        elapsed = System.nanoTime() - start;
+        System.setOut(out);
+
+        Bench.report(CLIENTS + " clients, " + THREADS + " client threads",
+                     elapsed / 1e6, "ms");
+        Bench.report("  handshakes a second", upgraded.get() * 1e9 / elapsed, "");
+        Bench.report("  upgraded", upgraded.get(), "");
+        Bench.report("  turned away", busy.get(), "");
+        Bench.report("  failed", failed.get(), "");
+
+        System.exit(0);
+    }
+
+    /* Method to connect a client, send its upgrade request and read the
+     * answer, returns whether the connection was upgraded */
+    private static boolean handshake(InetSocketAddress address, String key)
+        throws Exception
+    {
+        // Local Variable Declaration
+        StringBuilder answer = new StringBuilder(160);
+        InputStream in;
+        int read;
+
+        try (Socket socket = new Socket())
+        {
+            socket.setSoLinger(true, 0);
+            socket.setSoTimeout(10000);
+            socket.connect(address, 10000);
+
+            socket.getOutputStream().write(("GET / HTTP/1.1\r\nHost: localhost\r\n"
+                + "Upgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            in = socket.getInputStream();
+
+            while ((read = in.read()) != -1)
+            {
+                answer.append((char) read);
+
+                if (answer.length() >= 4
+                    && answer.lastIndexOf("\r\n\r\n") == answer.length() - 4)
+                {
+                    break;
+                }
+            }
+        }
+
+        return answer.indexOf("HTTP/1.1 101") == 0;
+    }
+
+    // Method to work out the accept key for a client's key with the digest passed
+    private static String acceptKey(MessageDigest digest, String key)
+    {
+        digest.update(key.getBytes(StandardCharsets.ISO_8859_1));
+
+        return Base64.getEncoder().encodeToString(digest.digest(MAGIC
+                                                  .getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
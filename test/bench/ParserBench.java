@@ -0,0 +1,117 @@
+package bench;
+
+import chatDB.CommandView;
+import chatDB.DataSerializer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmark of parsing the commands clients send. Each command is parsed by
+ * {@code CommandView}, which finds the entries in the bytes as they are and
+ * only decodes a value when it's asked for, and by the way
+ * {@code DataSerializer.deserializeData} used to parse them, decoding the
+ * whole command and splitting it into a new map, which is kept here for
+ * comparison since {@code deserializeData} is now built on the view. For
+ * each command the name of the command and
+ * every value are read, which is as much as any command handler reads, and
+ * the view is also timed reading only the name of the command, as the
+ * command table does to pick the handler.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class ParserBench
+{
+    // The commands parsed, a log in and a chat message
+    private static final String[] COMMANDS =
+    {
+        "CMD=LOG_IN;UNAME=admin;PSSWRD=password",
+        "CMD=MSG;MSG=" + new String(Bench.payloadOf(100), StandardCharsets.US_ASCII)
+    };
+
+    // The amount of times each command is parsed each round
+    private static final int OPS = 1000000;
+
+    public static void main(String[] args) throws Exception
+    {
+        for (String command : COMMANDS)
+        {
+            // Local Variable Declaration
+            byte[] data = command.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            CommandView reused = new CommandView();
+            String name = command.substring(4, command.indexOf(';'));
+
+            System.out.println(name + ", " + data.length + " B");
+
+            Bench.time("  CommandView, every value", OPS, op ->
+                readAll(CommandView.of(buffer, (byte) 1)));
+
+            Bench.time("  CommandView, command name only", OPS, op ->
+                reused.wrap(buffer).valueEquals(DataSerializer.CMD, name) ? 1 : 0);
+
+            Bench.time("  deserializeData (before), every value", OPS, op ->
+                readAll(splitDeserialize(data)));
+        }
+    }
+
+    /* Method to parse a command the way DataSerializer.deserializeData used
+     * to, the whole command is decoded into a string, split over the
+     * semicolons and each entry split over the equals into a new map */
+    private static Map<String, String> splitDeserialize(byte[] data)
+    {
+        // Local Variable Declaration
+        Map<String, String> asocArray = new HashMap<>();
+        String[] keyVals;
+
+        // Convert the data byte array into a String
+        String dataString = new String(data, Charset.forName("UTF-8")).trim();
+
+        if (!dataString.equals(""))
+        {
+            for (String entry : dataString.split(DataSerializer.ENTRY_DELM))
+            {
+                keyVals = entry.split(DataSerializer.KV_DELM);
+
+                // Entries without a key and a value are discarded
+                if (keyVals.length == 2)
+                {
+                    asocArray.put(keyVals[0], keyVals[1]);
+                }
+            }
+        }
+
+        return asocArray;
+    }
+
+    // Method to read every value out of a parsed command
+    private static long readAll(CommandView cmd)
+    {
+        // Local Variable Declaration
+        long total = 0;
+
+        for (int entry = 0; entry < cmd.size(); entry++)
+        {
+            total += cmd.getValue(entry).length();
+        }
+
+        return total;
+    }
+
+    // Method to read every value out of a deserialized command
+    private static long readAll(Map<String, String> cmd)
+    {
+        // Local Variable Declaration
+        long total = 0;
+
+        for (String value : cmd.values())
+        {
+            total += value.length();
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,124 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import websockets.WebSocketData;
+import websockets.WebSocketSelectionKeyAPI;
+import websockets.WebsocketMessageHandler;
+
+/**
+ * Benchmark of gathering the payload of the messages a client sends. Each
+ * message is a single masked text frame decoded by
+ * {@code WebSocketSelectionKeyAPI.unFrame}, which unmasks the payload into
+ * the connection's {@code PayloadBuffer}. It's run against the way payloads
+ * used to be gathered, a list of boxed bytes rebuilt for every frame and
+ * unboxed once the message was complete, which is kept here for comparison.
+ * <br><br>
+ * The bytes allocated for each message are printed along with the rate. A
+ * handler that only looks at the message is lent a view of the payload
+ * buffer, and nothing at all is allocated. A handler that keeps its messages,
+ * as the server's stages do, is handed each message's array for good, so the
+ * buffer starts a new one and a message costs about its own size. Gathering
+ * boxed bytes cost many times that, in the lists and arrays copied for every
+ * frame.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class PayloadBench
+{
+    // The payload sizes measured
+    private static final int[] SIZES = {125, 4 * 1024, 64 * 1024};
+
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        WebSocketSelectionKeyAPI webSocs = WebSocketSelectionKeyAPI.getInstance();
+
+        for (int size : SIZES)
+        {
+            // Local Variable Declaration
+            byte[] frame = Bench.clientFrame(true, 1, Bench.payloadOf(size));
+            SelectionKey key = Bench.keyOf(new WebSocketData());
+            ByteBuffer frames = ByteBuffer.wrap(frame);
+            long[] received = new long[1];
+            int ops = Math.max(200, 4 * 1024 * 1024 / size);
+
+            /* The handlers are made once, so only what decoding allocates is
+             * counted */
+            WebsocketMessageHandler looks = (payload, opcode) ->
+                received[0] += payload.remaining();
+            WebsocketMessageHandler keeps = WebsocketMessageHandler.keeping(looks);
+
+            Bench.time("payload buffer, " + size + " B", ops, op ->
+            {
+                frames.clear();
+                webSocs.unFrame(frames, key, looks);
+
+                return received[0];
+            });
+
+            Bench.time("payload buffer, kept, " + size + " B", ops, op ->
+            {
+                frames.clear();
+                webSocs.unFrame(frames, key, keeps);
+
+                return received[0];
+            });
+
+            Bench.time("boxed bytes (before), " + size + " B", ops, op ->
+                boxedUnFrame(frame).length);
+        }
+    }
+
+    /* Method to gather a single frame's payload the way it was before the
+     * payload buffer, the payload gathered so far is copied into a list, each
+     * byte unmasked is boxed and added to it, and the list is turned back
+     * into an array to be kept, then unboxed once the message is complete */
+    private static byte[] boxedUnFrame(byte[] frame)
+    {
+        // Local Variable Declaration
+        Object[] kept = new Object[0];
+        byte[] maskKeys = new byte[4], rawData;
+        int dataDex = 1, length = frame[dataDex] & 127;
+        ArrayList<Object> payload;
+
+        if (length == 126)
+        {
+            length = (frame[++dataDex] & 0xFF) << 8 | frame[++dataDex] & 0xFF;
+        }
+        else if (length == 127)
+        {
+            length = 0;
+
+            for (int i = 0; i < 8; i++)
+            {
+                length = length << 8 | frame[++dataDex] & 0xFF;
+            }
+        }
+
+        for (int i = 0; i < maskKeys.length; i++)
+        {
+            maskKeys[i] = frame[++dataDex];
+        }
+
+        payload = new ArrayList<>(Arrays.<Object>asList(kept));
+
+        for (int i = 0; i < length; i++)
+        {
+            payload.add((byte) (frame[++dataDex] ^ maskKeys[i % maskKeys.length]));
+        }
+
+        kept = payload.toArray();
+        rawData = new byte[kept.length];
+
+        for (int i = 0; i < kept.length; i++)
+        {
+            rawData[i] = (byte) kept[i];
+        }
+
+        return rawData;
+    }
+}
@@ -0,0 +1,110 @@
+package bench;
+
+import chatDB.BinaryProtocol;
+import chatDB.CommandView;
+import chatDB.DataSerializer;
+import chatDB.Response;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import websockets.WebSocketData;
+import websockets.WebSocketSelectionKeyAPI;
+
+/**
+ * Benchmark of the two encodings clients can speak, the key=value text the
+ * server has always spoken and the binary encoding of
+ * {@code BinaryProtocol}. A chat message is taken through the work the
+ * server does for it on one thread: its frame is decoded, the command is
+ * parsed, the message is sliced out and framed to be fanned out to the
+ * room, in the same encoding it came in. The reply to a log in is also
+ * timed, from its entries to the bytes sent.
+ * <br><br>
+ * Since it all runs on the calling thread the rates printed are messages a
+ * second for one core.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class ProtocolBench
+{
+    // The sizes of the chat messages sent
+    private static final int[] SIZES = {16, 256};
+
+    // The amount of messages handled each round
+    private static final int OPS = 1000000;
+
+    // The codec shared by both encodings
+    private static final WebSocketSelectionKeyAPI webSocs =
+        WebSocketSelectionKeyAPI.getInstance();
+
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        Response reply = new Response().put(DataSerializer.UNAME, true)
+                                       .put(DataSerializer.PSSWRD, true);
+
+        for (int size : SIZES)
+        {
+            // Local Variable Declaration
+            byte[] text = ("CMD=MSG;MSG=" + new String(Bench.payloadOf(size),
+                           StandardCharsets.US_ASCII)).getBytes(StandardCharsets.UTF_8);
+            byte[] binary = BinaryProtocol.encode(CommandView.of(ByteBuffer.wrap(text),
+                                                  WebSocketSelectionKeyAPI.OP_TEXT));
+
+            System.out.println("chat message, " + size + " B");
+
+            time("  text, " + text.length + " B on the wire", text,
+                 WebSocketSelectionKeyAPI.OP_TEXT);
+            time("  binary, " + binary.length + " B on the wire", binary,
+                 WebSocketSelectionKeyAPI.OP_BINARY);
+        }
+
+        System.out.println("log in reply");
+
+        Bench.time("  text, " + reply.toText().length + " B on the wire", OPS,
+                   op -> reply.toText().length);
+        Bench.time("  binary, " + reply.toBinary().length + " B on the wire", OPS,
+                   op -> reply.toBinary().length);
+    }
+
+    /* Method to time the server taking a chat message through, from the
+     * client's frame to the frame fanned out to the room */
+    private static void time(String name, byte[] command, byte opcode) throws Exception
+    {
+        // Local Variable Declaration
+        ByteBuffer frames = ByteBuffer.wrap(Bench.clientFrame(true, opcode, command));
+        SelectionKey key = Bench.keyOf(new WebSocketData());
+        long[] sent = new long[1];
+
+        Bench.time(name, OPS, op ->
+        {
+            frames.clear();
+            webSocs.unFrame(frames, key, (payload, type) ->
+                sent[0] += fanOut(CommandView.of(payload, type), type));
+
+            return sent[0];
+        });
+    }
+
+    /* Method to frame the message of a chat command the way the chat room
+     * does, returns the size of the frame */
+    private static long fanOut(CommandView cmd, byte opcode)
+    {
+        // Local Variable Declaration
+        ByteBuffer msg = cmd.slice(DataSerializer.MSG);
+        ByteBuffer[] frame;
+        long size = 0;
+
+        frame = opcode == WebSocketSelectionKeyAPI.OP_BINARY
+                ? webSocs.share(opcode, BinaryProtocol.prefix(BinaryProtocol.MSG,
+                                                              msg.remaining()), msg)
+                : webSocs.share(opcode, msg);
+
+        for (ByteBuffer part : frame)
+        {
+            size += part.remaining();
+        }
+
+        return size;
+    }
+}
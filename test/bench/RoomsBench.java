@@ -0,0 +1,190 @@
+package bench;
+
+import chatDB.ChatRoom;
+import chatDB.EventLoopGroup;
+import chatDB.WaitingRoom;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark of what it costs to open a lot of chat rooms. The rooms are
+ * opened once as the server does now, as plain objects whose members are
+ * served by the shared group of event loops, and once the way they used to
+ * be, each room with a selector of its own and three threads, the room's
+ * selector thread and its two workers. Each of the old rooms is stood in for
+ * by a selector and three idle threads, one blocked selecting and two
+ * waiting for work.
+ * <br><br>
+ * For each model the time taken to open the rooms is printed, along with the
+ * threads, heap, resident memory and file descriptors they hold. The amount
+ * of rooms can be set with {@code -Dbench.rooms=N}. Opening the old rooms 
+ * stops at the first one that can't be opened, such as when the process runs
+ * out of file descriptors or threads, and the amount that could be is 
+ * printed. A few of the rooms opened are then closed again, so there are 
+ * descriptors left to take the snapshot with.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class RoomsBench
+{
+    // The amount of rooms opened in each model
+    private static final int ROOMS = Integer.getInteger("bench.rooms", 10000);
+
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        EventLoopGroup loops = new EventLoopGroup();
+        WaitingRoom waitingRoom = new WaitingRoom(loops);
+        List<ChatRoom> rooms = new ArrayList<>(ROOMS);
+        List<Selector> selectors = new ArrayList<>(ROOMS);
+        Object idle = new Object();
+        Usage before;
+        long start, elapsed;
+        int opened = 0;
+
+        loops.start();
+        waitingRoom.start();
+
+        // Open the rooms as plain objects served by the group's loops
+        before = new Usage();
+        start = System.nanoTime();
+
+        for (int i = 0; i < ROOMS; i++)
+        {
+            rooms.add(new ChatRoom(waitingRoom, "room " + i, loops));
+        }
+
+        elapsed = System.nanoTime() - start;
+        new Usage().print("event loop group", before, ROOMS, elapsed);
+        rooms.clear();
+
+        // Open the rooms with a selector and three threads each
+        before = new Usage();
+        start = System.nanoTime();
+
+        try
+        {
+            for (; opened < ROOMS; opened++)
+            {
+                // Local Variable Declaration
+                Selector selector = Selector.open();
+
+                selectors.add(selector);
+                start(() -> select(selector));
+                start(() -> await(idle));
+                start(() -> await(idle));
+            }
+        }
+        catch (Throwable ex)
+        {
+            System.out.println("thread per room stopped at room " + opened + ": " + ex);
+
+            // Free a few descriptors, the rooms' threads stay up
+            for (int i = 0; i < 8 && !selectors.isEmpty(); i++, opened--)
+            {
+                selectors.remove(selectors.size() - 1).close();
+            }
+        }
+
+        elapsed = System.nanoTime() - start;
+        new Usage().print("thread per room (before)", before, opened, elapsed);
+
+        // The stand in rooms' threads are daemons, they end with the process
+        System.exit(0);
+    }
+
+    // Method to start a daemon thread running the code passed
+    private static void start(Runnable code)
+    {
+        // Local Variable Declaration
+        Thread thread = new Thread(code);
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Method run by a stand in room selector thread, it selects until closed
+    private static void select(Selector selector)
+    {
+        try
+        {
+            while (selector.isOpen())
+            {
+                selector.select();
+            }
+        }
+        catch (Exception ex)
+        {
+            // The selector was closed, the room is done
+        }
+    }
+
+    // Method run by a stand in room worker, it waits for work that never comes
+    private static void await(Object idle)
+    {
+        synchronized (idle)
+        {
+            try
+            {
+                idle.wait();
+            }
+            catch (InterruptedException ie)
+            {
+                // The room is done
+            }
+        }
+    }
+
+    /* Class to define a snapshot of the resources the process holds, the
+     * threads it runs, the heap it uses, its resident memory and its open
+     * file descriptors */
+    private static class Usage
+    {
+        // The figures taken
+        private final int threads;
+        private final long heap;
+        private final long resident;
+        private final int descriptors;
+
+        Usage() throws Exception
+        {
+            // Local Variable Declaration
+            String[] fds = new File("/proc/self/fd").list();
+            Runtime runtime = Runtime.getRuntime();
+            long rss = 0;
+
+            System.gc();
+
+            // Resident memory includes the thread stacks the heap doesn't
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+            {
+                if (line.startsWith("VmRSS:"))
+                {
+                    rss = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+
+            this.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            this.heap = runtime.totalMemory() - runtime.freeMemory();
+            this.resident = rss;
+            this.descriptors = fds != null ? fds.length : -1;
+        }
+
+        // Method to print what was taken up since the snapshot passed
+        void print(String model, Usage before, int rooms, long elapsed)
+        {
+            System.out.println(model + ", " + rooms + " rooms");
+            Bench.report("  time to open", elapsed / 1e6, "ms");
+            Bench.report("  threads", this.threads - before.threads, "");
+            Bench.report("  heap", (this.heap - before.heap) / 1024.0, "KB");
+            Bench.report("  resident memory", this.resident - before.resident, "KB");
+            Bench.report("  file descriptors", this.descriptors - before.descriptors, "");
+        }
+    }
+}
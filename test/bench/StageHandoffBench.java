@@ -0,0 +1,131 @@
+package bench;
+
+import chatDB.ChatRoom;
+import chatDB.EventLoopGroup;
+import chatDB.WaitingRoom;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import websockets.WebSocketData;
+
+/**
+ * Benchmark of moving a connection between the waiting room and a chat room,
+ * a join followed by a leave. The connections are moved the way the server
+ * does now, where each stays registered with the loop it was accepted on and
+ * only the stage hung on its websocket state is swapped, and the way they
+ * used to be, where each room had a selector of its own and the connection's
+ * key was cancelled on the selector it left and the channel registered with
+ * the selector of the room it went to.
+ * <br><br>
+ * The old handoff is kept here for comparison. The old rooms' selector
+ * threads are left out, the calling thread selects the selector a
+ * connection left itself, which the room's thread would have done on its
+ * next pass before the channel could be registered with it again. So the
+ * old figures leave out waking up and switching to those threads, and are
+ * the least the old handoff cost. The new handoff files the member under
+ * its loop, as the chat room does, and swaps the stage. The join notice and
+ * the replies, which are the same in both models, are left out of both.
+ * <br><br>
+ * The connections are real loopback connections, {@code -Dbench.clients=N}
+ * of them, 64 by default, and each operation moves the next one in and out.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class StageHandoffBench
+{
+    // The amount of connections moved
+    private static final int CLIENTS = Integer.getInteger("bench.clients", 64);
+
+    // The amount of joins and leaves each round
+    private static final int OPS = 100000;
+
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        EventLoopGroup loops = new EventLoopGroup(1);
+        WaitingRoom waitingRoom = new WaitingRoom(loops);
+        ChatRoom chatRoom = new ChatRoom(waitingRoom, "room", loops);
+        Map<SocketChannel, SelectionKey> members = new ConcurrentHashMap<>();
+        Selector loop = Selector.open(), waitSelector = Selector.open(),
+                 chatSelector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        SocketChannel[] clients = new SocketChannel[2 * CLIENTS],
+                        accepted = new SocketChannel[CLIENTS],
+                        moved = new SocketChannel[CLIENTS];
+        SelectionKey[] keys = new SelectionKey[CLIENTS];
+        double rate;
+
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        // Two connections for each client, one for each model
+        for (int i = 0; i < CLIENTS; i++)
+        {
+            // Local Variable Declaration
+            WebSocketData data = new WebSocketData();
+
+            clients[2 * i] = SocketChannel.open(server.getLocalAddress());
+            accepted[i] = server.accept();
+            accepted[i].configureBlocking(false);
+
+            // Registered once with its loop, and hung in the waiting room
+            data.setLoop(0);
+            keys[i] = accepted[i].register(loop, SelectionKey.OP_READ, data);
+            waitingRoom.addContact(keys[i]);
+
+            clients[2 * i + 1] = SocketChannel.open(server.getLocalAddress());
+            moved[i] = server.accept();
+            moved[i].configureBlocking(false);
+
+            // Registered with the waiting room's selector
+            moved[i].register(waitSelector, SelectionKey.OP_READ);
+        }
+
+        rate = Bench.time("stage swap, join and leave", OPS, op ->
+        {
+            // Local Variable Declaration
+            SelectionKey key = keys[op % CLIENTS];
+            SocketChannel sc = accepted[op % CLIENTS];
+
+            // Join, the member is filed and the chat room hung on its state
+            members.put(sc, key);
+            ((WebSocketData) key.attachment()).attach(chatRoom);
+
+            // Leave, the member is forgotten and the waiting room hung back
+            members.remove(sc);
+            waitingRoom.addContact(key);
+
+            return members.size();
+        });
+
+        Bench.report("  moves a second", rate * 2, "");
+
+        rate = Bench.time("register and cancel (before), join and leave", OPS, op ->
+        {
+            // Local Variable Declaration
+            SocketChannel sc = moved[op % CLIENTS];
+
+            // Join, registered with the chat room then cancelled on the waiting room
+            sc.register(chatSelector, SelectionKey.OP_READ);
+            chatSelector.wakeup();
+            sc.keyFor(waitSelector).cancel();
+            waitSelector.selectNow();
+
+            // Leave, cancelled on the chat room then registered with the waiting room
+            sc.keyFor(chatSelector).cancel();
+            chatSelector.selectNow();
+            sc.register(waitSelector, SelectionKey.OP_READ);
+            waitSelector.wakeup();
+
+            return waitSelector.keys().size();
+        });
+
+        Bench.report("  moves a second", rate * 2, "");
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import websockets.PayloadBuffer;
+
+/**
+ * Benchmark of unmasking the payload of a client's frame. The payload is
+ * unmasked into a {@code PayloadBuffer}, which copies the masked bytes over
+ * in bulk and then unmasks them eight at a time with a mask repeated across
+ * a long, finishing the tail a byte at a time. It's run against the way
+ * payloads used to be unmasked, a byte at a time with the mask byte picked
+ * by a modulo, which is kept here for comparison.
+ * <br><br>
+ * Besides the rate the bytes unmasked a second are printed, so the payload
+ * sizes can be compared with each other.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class UnmaskBench
+{
+    // The payload sizes measured
+    private static final int[] SIZES = {32, 1024, 64 * 1024};
+
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        byte[] maskKeys = {0x37, (byte) 0xfa, 0x21, 0x3d};
+        PayloadBuffer payload = new PayloadBuffer(64 * 1024);
+
+        for (int size : SIZES)
+        {
+            // Local Variable Declaration
+            byte[] masked = Bench.payloadOf(size);
+            byte[] unmasked = new byte[size];
+            int ops = Math.max(1000, 64 * 1024 * 1024 / size);
+            double rate;
+
+            rate = Bench.time("word at a time, " + size + " B", ops, op ->
+            {
+                payload.clear();
+                payload.unmask(masked, 0, size, maskKeys);
+
+                return payload.length();
+            });
+
+            Bench.report("  bytes a second", rate * size, "B/s");
+
+            rate = Bench.time("byte at a time (before), " + size + " B", ops, op ->
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    unmasked[i] = (byte) (masked[i] ^ maskKeys[i % maskKeys.length]);
+                }
+
+                return unmasked[size - 1];
+            });
+
+            Bench.report("  bytes a second", rate * size, "B/s");
+        }
+    }
+}
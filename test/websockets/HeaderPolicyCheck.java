@@ -0,0 +1,66 @@
+package websockets;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.util.Properties;
+
+/**
+ * Checks that a header policy can be compiled from lists holding the same
+ * entry more than once, or entries that only differ by case, and that the
+ * entries are still matched. The project has no test framework on its build
+ * path, run it with {@code java websockets.HeaderPolicyCheck}, it throws on
+ * the first check that fails.
+ *
+ * @author Ben Miller
+ * @version 1.0
+ */
+public class HeaderPolicyCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        // Local Variable Declaration
+        Properties config = new Properties();
+        long start = System.nanoTime();
+        HeaderPolicy policy;
+
+        config.setProperty(HeaderPolicy.ORIGINS_KEY, "http://a, http://A, http://b, http://a");
+        config.setProperty(HeaderPolicy.HOSTS_KEY, "example.com, EXAMPLE.com, *.example.org");
+        config.setProperty(HeaderPolicy.VERSIONS_KEY, "13, 13");
+
+        // Compiling used to never finish on duplicates, give it a second
+        policy = new HeaderPolicy(config);
+
+        check((System.nanoTime() - start) / 1000000 < 1000, "compiled quickly");
+
+        check(allows(policy, HeaderPolicy.ORIGIN, "http://a"), "origin http://a");
+        check(allows(policy, HeaderPolicy.ORIGIN, "HTTP://A"), "origin HTTP://A");
+        check(allows(policy, HeaderPolicy.ORIGIN, "http://b"), "origin http://b");
+        check(!allows(policy, HeaderPolicy.ORIGIN, "http://c"), "origin http://c refused");
+
+        check(allows(policy, HeaderPolicy.HOST, "Example.com:8080"), "host example.com");
+        check(allows(policy, HeaderPolicy.HOST, "chat.example.org"), "host chat.example.org");
+        check(!allows(policy, HeaderPolicy.HOST, "example.net"), "host example.net refused");
+
+        check(allows(policy, HeaderPolicy.VERSION, "13"), "version 13");
+        check(!allows(policy, HeaderPolicy.VERSION, "8"), "version 8 refused");
+
+        System.out.println("HeaderPolicyCheck passed");
+    }
+
+    // Method to check a header value against the policy
+    private static boolean allows(HeaderPolicy policy, int header, String value)
+    {
+        // Local Variable Declaration
+        byte[] bytes = value.getBytes(ISO_8859_1);
+
+        return policy.allows(header, bytes, 0, bytes.length);
+    }
+
+    // Method to throw if a check failed
+    private static void check(boolean passed, String what)
+    {
+        if (!passed)
+        {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}